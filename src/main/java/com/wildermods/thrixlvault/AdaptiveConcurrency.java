@@ -0,0 +1,138 @@
+package com.wildermods.thrixlvault;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * The {@link ConcurrencyController}s used by a vault, one for every {@link FileStore} its
+ * operations read from or write to.
+ *
+ * <p>
+ * Controllers are shared by every vault of the process, so vaults on the same disk tune
+ * one limit together instead of each learning its own, unaware of the load of the others.
+ * A controller starts from the limit saved by the first vault to use its file store.
+ * </p>
+ *
+ * <p>
+ * The limits learned are saved in {@value #FILE_NAME} in the vault directory, keyed by
+ * file store, so that the next process starts from them instead of from scratch.
+ * </p>
+ */
+final class AdaptiveConcurrency {
+
+	private static final Logger LOGGER = LogManager.getLogger();
+	static final String FILE_NAME = "concurrency.json";
+	private static final Gson GSON = new Gson();
+
+	private static final Map<FileStore, ConcurrencyController> CONTROLLERS = new ConcurrentHashMap<>();
+
+	private final Path file;
+	private final Set<FileStore> stores = ConcurrentHashMap.newKeySet();
+	private Map<String, Integer> saved; //only accessed while holding the lock of this object
+
+	AdaptiveConcurrency(Path vaultDir) {
+		this.file = vaultDir.resolve(FILE_NAME);
+	}
+
+	/**
+	 * @return the controller of the file store {@code path} is on. If {@code path} does not
+	 * exist yet, the file store of its closest existing parent is used.
+	 */
+	ConcurrencyController controller(Path path) throws IOException {
+		Path existing = path.toAbsolutePath();
+		while(!Files.exists(existing) && existing.getParent() != null) {
+			existing = existing.getParent();
+		}
+		FileStore store = Files.getFileStore(existing);
+		stores.add(store);
+		ConcurrencyController controller = CONTROLLERS.get(store);
+		if(controller == null) {
+			String name = store.toString();
+			controller = CONTROLLERS.computeIfAbsent(store, (s) -> new ConcurrencyController(name, initialLimit(name)));
+		}
+		return controller;
+	}
+
+	private synchronized int initialLimit(String store) {
+		Integer limit = load().get(store);
+		return limit != null ? limit : Runtime.getRuntime().availableProcessors();
+	}
+
+	private Map<String, Integer> load() {
+		if(saved == null) {
+			saved = new TreeMap<>();
+			try(Reader reader = Files.newBufferedReader(file)) {
+				Map<String, Integer> limits = GSON.fromJson(reader, new TypeToken<Map<String, Integer>>(){}.getType());
+				if(limits != null) {
+					saved.putAll(limits);
+				}
+			}
+			catch(NoSuchFileException e) {
+				//nothing learned yet
+			}
+			catch(IOException | JsonParseException e) {
+				LOGGER.warn("Could not read " + file + ", concurrency will be learned again", e);
+			}
+		}
+		return saved;
+	}
+
+	/**
+	 * Saves the current limit of every controller this vault used, keeping the limits
+	 * saved for other file stores.
+	 */
+	synchronized void save() {
+		Map<String, Integer> limits = load();
+		boolean changed = false;
+		for(FileStore store : stores) {
+			ConcurrencyController controller = CONTROLLERS.get(store);
+			Integer previous = limits.put(controller.getStore(), controller.getLimit());
+			changed |= previous == null || previous != controller.getLimit();
+		}
+		if(!changed) {
+			return;
+		}
+		Path temp = Vault.getTempFile(file);
+		try {
+			try(Writer writer = Files.newBufferedWriter(temp)) {
+				GSON.toJson(limits, writer);
+			}
+			try {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		catch(IOException e) {
+			LOGGER.warn("Could not save the learned concurrency to " + file, e);
+		}
+		finally {
+			try {
+				Files.deleteIfExists(temp);
+			}
+			catch(IOException e) {
+				LOGGER.warn("Could not delete " + temp, e);
+			}
+		}
+	}
+
+}
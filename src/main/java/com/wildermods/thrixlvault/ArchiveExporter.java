@@ -0,0 +1,262 @@
+package com.wildermods.thrixlvault;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
+import com.google.common.collect.Maps;
+import com.wildermods.masshash.Hash;
+import com.wildermods.thrixlvault.exception.DatabaseIntegrityError;
+import com.wildermods.thrixlvault.utils.TarOutputStream;
+
+/**
+ * Streams the files of a {@link ChrysalisizedVault} straight from its blob store into an
+ * archive, in a single sequential pass and without any temporary files.
+ *
+ * <p>
+ * Entries are written in the sorted order of their names, each directory before its
+ * contents, and all carry the modification time {@link #TIMESTAMP}. The archive therefore
+ * only depends on the files of the version, and exporting it twice gives identical bytes.
+ * </p>
+ *
+ * <p>
+ * Every blob is hashed while it is written, and the export fails with a
+ * {@link DatabaseIntegrityError} if it does not match its hash, so a corrupted blob never
+ * ships silently inside an archive. This costs no additional read of the blobs.
+ * </p>
+ */
+public final class ArchiveExporter {
+
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/**
+	 * The modification time of every archive entry: 1980-01-01T00:00:00 UTC, the earliest
+	 * time a zip entry can represent.
+	 */
+	public static final LocalDateTime TIMESTAMP = LocalDateTime.of(1980, 1, 1, 0, 0);
+	private static final long MTIME = TIMESTAMP.toEpochSecond(ZoneOffset.UTC);
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final ChrysalisizedVault vault;
+	private final Chrysalis chrysalis;
+	private final Marker marker;
+	private boolean verify = true;
+
+	public ArchiveExporter(ChrysalisizedVault vault) {
+		this.vault = vault;
+		this.chrysalis = vault.getChrysalis();
+		this.marker = MarkerManager.getMarker(vault.name());
+	}
+
+	/**
+	 * Sets whether every blob is checked against its hash while it is written. Defaults to true.
+	 */
+	public ArchiveExporter verify(boolean verify) {
+		this.verify = verify;
+		return this;
+	}
+
+	/**
+	 * Writes the archive to {@code archive}. The archive is written to a temporary file
+	 * first, so {@code archive} is either complete or untouched.
+	 *
+	 * @throws IOException if a blob cannot be read or the archive cannot be written
+	 * @throws DatabaseIntegrityError if a blob does not match its hash
+	 */
+	public void export(Path archive, ArchiveFormat format) throws IOException {
+		Path parent = archive.toAbsolutePath().getParent();
+		if(parent != null) {
+			Files.createDirectories(parent);
+		}
+		Path temp = Vault.getTempFile(archive);
+		try {
+			try(OutputStream out = Files.newOutputStream(temp)) {
+				export(out, format);
+			}
+			try {
+				Files.move(temp, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp, archive, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Writes the archive to {@code channel}, which is left open.
+	 *
+	 * @throws IOException if a blob cannot be read or the archive cannot be written
+	 * @throws DatabaseIntegrityError if a blob does not match its hash. The archive
+	 * written so far is incomplete.
+	 */
+	public void export(WritableByteChannel channel, ArchiveFormat format) throws IOException {
+		export(Channels.newOutputStream(channel), format);
+	}
+
+	/**
+	 * Writes the archive to {@code out}, which is flushed but left open.
+	 *
+	 * @throws IOException if a blob cannot be read or the archive cannot be written
+	 * @throws DatabaseIntegrityError if a blob does not match its hash. The archive
+	 * written so far is incomplete.
+	 */
+	public void export(OutputStream out, ArchiveFormat format) throws IOException {
+		final TreeMap<String, Map.Entry<Hash, Path>> entries = entries();
+		LOGGER.info(marker, "Exporting " + entries.size() + " entries of " + vault.getArtifact() + " to a " + format + " archive");
+
+		OutputStream buffered = new BufferedOutputStream(new NonClosingOutputStream(out), BUFFER_SIZE);
+		switch(format) {
+			case ZIP:
+				try(ZipOutputStream zip = new ZipOutputStream(buffered)) {
+					writeZip(zip, entries);
+				}
+				break;
+			case TAR:
+				try(TarOutputStream tar = new TarOutputStream(buffered)) {
+					writeTar(tar, entries);
+				}
+				break;
+			case TAR_GZIP:
+				try(TarOutputStream tar = new TarOutputStream(new GZIPOutputStream(buffered, BUFFER_SIZE))) {
+					writeTar(tar, entries);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * @return every file and directory of the archive by entry name, in archive order.
+	 * Directories, whose names end with {@code /}, map to null.
+	 */
+	private TreeMap<String, Map.Entry<Hash, Path>> entries() {
+		final TreeMap<String, Map.Entry<Hash, Path>> entries = new TreeMap<>();
+		synchronized(chrysalis.blobs()) {
+			for(Map.Entry<Hash, Path> entry : chrysalis.blobs().entries()) {
+				Path path = entry.getValue();
+				entries.put(entryName(path), Maps.immutableEntry(entry.getKey(), path));
+				for(Path parent = path.getParent(); parent != null; parent = parent.getParent()) {
+					String directory = entryName(parent) + "/";
+					if(entries.containsKey(directory)) {
+						break; //its parents were added with it
+					}
+					entries.put(directory, null);
+				}
+			}
+		}
+		return entries;
+	}
+
+	private static String entryName(Path path) {
+		StringJoiner name = new StringJoiner("/");
+		for(Path part : path) {
+			name.add(part.toString());
+		}
+		return name.toString();
+	}
+
+	private void writeZip(ZipOutputStream zip, TreeMap<String, Map.Entry<Hash, Path>> entries) throws IOException {
+		for(Map.Entry<String, Map.Entry<Hash, Path>> entry : entries.entrySet()) {
+			ZipEntry zipEntry = new ZipEntry(entry.getKey());
+			zipEntry.setTimeLocal(TIMESTAMP);
+			zip.putNextEntry(zipEntry);
+			if(entry.getValue() != null) {
+				copyBlob(entry.getValue().getKey(), zip);
+			}
+			zip.closeEntry();
+		}
+	}
+
+	private void writeTar(TarOutputStream tar, TreeMap<String, Map.Entry<Hash, Path>> entries) throws IOException {
+		for(Map.Entry<String, Map.Entry<Hash, Path>> entry : entries.entrySet()) {
+			Map.Entry<Hash, Path> file = entry.getValue();
+			if(file == null) {
+				tar.putDirectory(entry.getKey(), 0755, MTIME);
+				continue;
+			}
+			Path blobFile = vault.getBlobFile(file.getKey());
+			int mode = chrysalis.isExecutable(file.getValue()) ? 0755 : 0644;
+			tar.putFile(entry.getKey(), Files.size(blobFile), mode, MTIME);
+			copyBlob(file.getKey(), tar);
+			tar.closeEntry();
+		}
+	}
+
+	/**
+	 * Writes the content of a blob to {@code out}, hashing it on the way if verification
+	 * is enabled.
+	 *
+	 * @throws DatabaseIntegrityError if the blob does not match its hash
+	 */
+	private void copyBlob(Hash hash, OutputStream out) throws IOException {
+		final Path blobFile = vault.getBlobFile(hash);
+		if(!verify) {
+			Files.copy(blobFile, out);
+			return;
+		}
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(chrysalis.getBlobFactory().algorithm());
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		try(InputStream in = new DigestInputStream(Files.newInputStream(blobFile), digest)) {
+			in.transferTo(out);
+		}
+		String actual = HexFormat.of().formatHex(digest.digest());
+		if(!actual.equalsIgnoreCase(hash.hash())) {
+			throw new DatabaseIntegrityError("Corrupted blob - Expected hash " + hash.hash() + " but got " + actual + " (" + blobFile + ")");
+		}
+	}
+
+	/**
+	 * Lets the archive streams be closed, releasing their compressors, without closing
+	 * the caller's stream.
+	 */
+	private static final class NonClosingOutputStream extends FilterOutputStream {
+
+		private NonClosingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+
+	}
+
+}
@@ -0,0 +1,42 @@
+package com.wildermods.thrixlvault;
+
+/**
+ * The archive formats {@link ArchiveExporter} can stream a version into.
+ *
+ * <p>
+ * Every format records entries in sorted order with a fixed modification time, so
+ * exporting the same version twice produces byte for byte identical archives.
+ * </p>
+ */
+public enum ArchiveFormat {
+
+	/**
+	 * A deflated zip archive. Zip entries written by the JDK carry no unix permissions,
+	 * so executable files lose their executable bit when extracted.
+	 */
+	ZIP(".zip"),
+
+	/**
+	 * An uncompressed POSIX ustar archive, which preserves the executable bit.
+	 */
+	TAR(".tar"),
+
+	/**
+	 * A gzip compressed {@link #TAR} archive.
+	 */
+	TAR_GZIP(".tar.gz");
+
+	private final String extension;
+
+	private ArchiveFormat(String extension) {
+		this.extension = extension;
+	}
+
+	/**
+	 * @return the file extension of the format, including the leading dot
+	 */
+	public String extension() {
+		return extension;
+	}
+
+}
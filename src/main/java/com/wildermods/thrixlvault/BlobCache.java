@@ -0,0 +1,196 @@
+package com.wildermods.thrixlvault;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.wildermods.masshash.Hash;
+
+/**
+ * A bounded cache of the content of small blobs, keyed by hash, serving the reads of
+ * {@link ChrysalisizedVault#map(Hash)} and {@link ChrysalisizedVault#newByteChannel(Hash)}.
+ *
+ * <p>
+ * A blob is read into a buffer once, and every later read is served from a read-only view
+ * of that buffer, without touching the disk or copying the content. Blobs are identified
+ * by their content, so one cache may be shared by any number of vaults and versions. Only
+ * blobs of at most {@link #getMaxBlobSize()} bytes are cached, and the least recently used
+ * blobs are evicted once more than {@link #getCapacity()} bytes are cached. Larger blobs
+ * are memory mapped by the vault instead.
+ * </p>
+ *
+ * <p>
+ * Content is kept in direct buffers by default, outside of the garbage collected heap.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe. Two threads missing the same blob at the same time may both
+ * read it; the last one to finish is kept.
+ * </p>
+ */
+public final class BlobCache {
+
+	private final LinkedHashMap<Hash, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private long capacity;
+	private long maxBlobSize;
+	private long size;
+	private volatile boolean direct = true;
+
+	/**
+	 * @param capacity the maximum number of bytes to keep
+	 * @param maxBlobSize the size of the largest blob to cache
+	 */
+	public BlobCache(long capacity, long maxBlobSize) {
+		setCapacity(capacity);
+		setMaxBlobSize(maxBlobSize);
+	}
+
+	/**
+	 * Returns a read-only view of the content of a blob, reading it only if it is not cached.
+	 *
+	 * @param hash the hash of the blob
+	 * @param blobFile the file the blob is stored in
+	 * @param blobSize the size of the blob file
+	 * @return a view positioned at the start of the blob, or null if the blob is too large
+	 * to be cached
+	 *
+	 * @throws IOException if the blob cannot be read
+	 */
+	ByteBuffer get(Hash hash, Path blobFile, long blobSize) throws IOException {
+		synchronized(this) {
+			ByteBuffer buffer = entries.get(hash);
+			if(buffer != null) {
+				hits.increment();
+				return buffer.duplicate();
+			}
+			if(blobSize > maxBlobSize) {
+				return null;
+			}
+		}
+
+		misses.increment();
+		ByteBuffer buffer = read(blobFile, (int) blobSize).asReadOnlyBuffer();
+		synchronized(this) {
+			ByteBuffer previous = entries.put(hash, buffer);
+			if(previous != null) {
+				size -= previous.capacity();
+			}
+			size += buffer.capacity();
+			trim();
+		}
+		return buffer.duplicate();
+	}
+
+	private ByteBuffer read(Path blobFile, int blobSize) throws IOException {
+		ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(blobSize) : ByteBuffer.allocate(blobSize);
+		try(FileChannel channel = FileChannel.open(blobFile, StandardOpenOption.READ)) {
+			while(buffer.hasRemaining()) {
+				if(channel.read(buffer) < 0) {
+					throw new EOFException(blobFile + " is shorter than " + blobSize + " bytes");
+				}
+			}
+		}
+		return buffer.flip();
+	}
+
+	/**
+	 * Removes a blob from the cache, so it is read again on its next lookup.
+	 */
+	public synchronized void invalidate(Hash hash) {
+		ByteBuffer buffer = entries.remove(hash);
+		if(buffer != null) {
+			size -= buffer.capacity();
+		}
+	}
+
+	/**
+	 * Removes every cached blob.
+	 */
+	public synchronized void invalidateAll() {
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Sets the maximum number of bytes to keep, evicting the least recently used blobs
+	 * if more are cached. A capacity of 0 disables caching.
+	 */
+	public synchronized BlobCache setCapacity(long capacity) {
+		if(capacity < 0) {
+			throw new IllegalArgumentException("Capacity cannot be negative: " + capacity);
+		}
+		this.capacity = capacity;
+		trim();
+		return this;
+	}
+
+	public synchronized long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Sets the size of the largest blob to cache. Cannot exceed {@link Integer#MAX_VALUE}.
+	 */
+	public synchronized BlobCache setMaxBlobSize(long maxBlobSize) {
+		if(maxBlobSize < 0 || maxBlobSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid maximum blob size: " + maxBlobSize);
+		}
+		this.maxBlobSize = maxBlobSize;
+		return this;
+	}
+
+	public synchronized long getMaxBlobSize() {
+		return maxBlobSize;
+	}
+
+	/**
+	 * Selects whether blobs read from now on are kept in direct buffers, outside of the
+	 * heap, or in heap buffers. Defaults to direct buffers.
+	 */
+	public BlobCache setDirect(boolean direct) {
+		this.direct = direct;
+		return this;
+	}
+
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * @return the number of bytes currently cached
+	 */
+	public synchronized long size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of lookups served from the cache
+	 */
+	public long hits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of lookups which had to read the blob
+	 */
+	public long misses() {
+		return misses.sum();
+	}
+
+	private void trim() {
+		Iterator<ByteBuffer> iterator = entries.values().iterator();
+		while(size > capacity && iterator.hasNext()) {
+			size -= iterator.next().capacity();
+			iterator.remove();
+		}
+	}
+
+}
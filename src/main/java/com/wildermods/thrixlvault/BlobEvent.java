@@ -0,0 +1,94 @@
+package com.wildermods.thrixlvault;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import com.wildermods.masshash.Hash;
+import com.wildermods.thrixlvault.exception.DatabaseError;
+import com.wildermods.thrixlvault.exception.DatabaseIntegrityError;
+import com.wildermods.thrixlvault.exception.DatabaseMissingBlobError;
+
+/**
+ * The outcome of verifying a single blob, published by
+ * {@link ChrysalisizedVault#verifyBlobsPublisher(VerificationLevel)} as soon as the blob
+ * has been checked.
+ */
+public final class BlobEvent {
+
+	public enum Status {
+		/** The blob passed verification. */
+		OK,
+		/** The blob file does not exist. */
+		MISSING,
+		/** The blob file exists but its content does not match. */
+		CORRUPT,
+		/** The blob could not be checked, for example because of an I/O error. */
+		FAILED;
+
+		static Status of(DatabaseError problem) {
+			if(problem == null) {
+				return OK;
+			}
+			if(problem instanceof DatabaseMissingBlobError) {
+				return MISSING;
+			}
+			if(problem instanceof DatabaseIntegrityError) {
+				return CORRUPT;
+			}
+			return FAILED;
+		}
+	}
+
+	private final Hash hash;
+	private final Status status;
+	private final DatabaseError problem;
+	private final long size;
+	private final Duration duration;
+
+	BlobEvent(Hash hash, DatabaseError problem, long size, Duration duration) {
+		this.hash = hash;
+		this.status = Status.of(problem);
+		this.problem = problem;
+		this.size = size;
+		this.duration = duration;
+	}
+
+	public Hash getHash() {
+		return hash;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public boolean isOk() {
+		return status == Status.OK;
+	}
+
+	/**
+	 * @return why the blob failed verification, or an empty optional if it passed
+	 */
+	public Optional<DatabaseError> getProblem() {
+		return Optional.ofNullable(problem);
+	}
+
+	/**
+	 * @return the recorded size of the blob, or -1 if unknown
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return how long the blob took to verify
+	 */
+	public Duration getDuration() {
+		return duration;
+	}
+
+	@Override
+	public String toString() {
+		return hash.hash() + ": " + status + " in " + duration.toMillis() + "ms" + (problem == null ? "" : " (" + problem.getMessage() + ")");
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.wildermods.thrixlvault;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.wildermods.masshash.Hash;
+
+/**
+ * Estimates where the blobs of a {@link Vault} are stored on disk, so that
+ * {@link BlobScheduler.Order#LOCALITY} can visit them in a near sequential sweep.
+ *
+ * <p>
+ * Filesystems allocate the inodes and data of files written together close to each other,
+ * so the inode number of a blob is used as its position where the filesystem exposes it.
+ * Elsewhere the position of the blob in a listing of the blob directory is used instead.
+ * </p>
+ */
+final class BlobLocality {
+
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private BlobLocality() {}
+
+	/**
+	 * @return the locality key of each of {@code hashes}, or null if the vault's scheduler
+	 * does not order blobs by {@link BlobScheduler.Order#LOCALITY locality}. Missing blobs
+	 * come last.
+	 */
+	static ToLongFunction<Hash> keys(Vault vault, Collection<Hash> hashes) {
+		if(vault.getScheduler().getOrder() != BlobScheduler.Order.LOCALITY) {
+			return null;
+		}
+		Map<Hash, Long> keys = new HashMap<>();
+		try {
+			if(Files.getFileStore(vault.blobDir).supportsFileAttributeView("unix")) {
+				for(Hash hash : hashes) {
+					try {
+						keys.put(hash, ((Number) Files.getAttribute(vault.blobDir.resolve(hash.hash()), "unix:ino")).longValue());
+					}
+					catch(IOException e) {
+						//missing
+					}
+				}
+			}
+			else {
+				Map<String, Hash> names = new HashMap<>();
+				for(Hash hash : hashes) {
+					names.put(hash.hash(), hash);
+				}
+				long position = 0;
+				try(DirectoryStream<Path> blobs = Files.newDirectoryStream(vault.blobDir)) {
+					for(Path blob : blobs) {
+						Hash hash = names.get(blob.getFileName().toString());
+						if(hash != null) {
+							keys.put(hash, position);
+						}
+						position++;
+					}
+				}
+			}
+		}
+		catch(IOException | UnsupportedOperationException e) {
+			LOGGER.warn("Could not determine the locality of the blobs in " + vault.blobDir + ", processing them in hash order", e);
+			return null;
+		}
+		return (hash) -> keys.getOrDefault(hash, Long.MAX_VALUE);
+	}
+
+}
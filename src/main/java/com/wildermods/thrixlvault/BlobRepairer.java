@@ -0,0 +1,274 @@
+package com.wildermods.thrixlvault;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.wildermods.masshash.BlobFactory;
+import com.wildermods.masshash.Hash;
+import com.wildermods.thrixlvault.exception.DatabaseError;
+import com.wildermods.thrixlvault.exception.DatabaseIntegrityError;
+
+/**
+ * Heals the missing and corrupted blobs of a {@link ChrysalisizedVault} from other copies
+ * of the same content, without downloading the version again.
+ *
+ * <p>
+ * Copies are looked up in the sources registered with {@link #fromVault(Vault)} and
+ * {@link #fromDirectory(Path)}, in the order they were registered. A source vault, such as
+ * a mirror, is searched by hash. A source directory, such as an exported install of the
+ * version or the directory it is being downloaded to, is searched by the paths the blob
+ * has in the chrysalis.
+ * </p>
+ *
+ * <p>
+ * Every candidate is copied next to the blob and fully verified against its hash before
+ * it atomically replaces the blob, so a bad candidate never makes the vault worse. Blobs
+ * for which no source holds a valid copy are reported as unrepaired.
+ * </p>
+ */
+public class BlobRepairer {
+
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private final ChrysalisizedVault vault;
+	private final List<Vault> vaults = new ArrayList<>();
+	private final List<Path> directories = new ArrayList<>();
+	private VerificationLevel level = VerificationLevel.FULL;
+
+	public BlobRepairer(ChrysalisizedVault vault) {
+		this.vault = vault;
+	}
+
+	/**
+	 * Adds a vault whose blob store is searched for copies of the bad blobs.
+	 */
+	public BlobRepairer fromVault(Vault source) {
+		vaults.add(source);
+		return this;
+	}
+
+	/**
+	 * Adds a directory holding the files of the version, such as an exported install or
+	 * a download directory. Files which are missing or differ are skipped.
+	 */
+	public BlobRepairer fromDirectory(Path source) {
+		directories.add(source);
+		return this;
+	}
+
+	/**
+	 * Sets how thoroughly the blobs of the vault are checked by {@link #repair()}. Candidate
+	 * copies are always verified against their hash. Defaults to {@link VerificationLevel#FULL}.
+	 */
+	public BlobRepairer level(VerificationLevel level) {
+		this.level = level;
+		return this;
+	}
+
+	/**
+	 * Verifies every blob of the version, then repairs the missing and corrupted ones.
+	 *
+	 * @return the repair report
+	 *
+	 * @throws InterruptedException if the verification or repair is interrupted
+	 * @throws ExecutionException if a verification task fails unexpectedly
+	 */
+	public Report repair() throws InterruptedException, ExecutionException {
+		final Map<Hash, DatabaseError> problems = new ConcurrentHashMap<>();
+		try {
+			vault.verifyBlobs(level, (event) -> event.getProblem().ifPresent((problem) -> problems.put(event.getHash(), problem)));
+		}
+		catch(DatabaseIntegrityError e) {
+			//every failure was recorded from its event
+		}
+		return repair(problems);
+	}
+
+	/**
+	 * Repairs the given blobs of the version without verifying them first, such as the
+	 * failures of a {@link VaultVerifier} report.
+	 *
+	 * @return the repair report
+	 *
+	 * @throws InterruptedException if the repair is interrupted
+	 * @throws ExecutionException if a repair task fails unexpectedly
+	 */
+	public Report repair(Collection<Hash> blobs) throws InterruptedException, ExecutionException {
+		final Map<Hash, DatabaseError> problems = new ConcurrentHashMap<>();
+		for(Hash hash : blobs) {
+			problems.put(hash, new DatabaseError("Reported as bad - " + hash));
+		}
+		return repair(problems);
+	}
+
+	private Report repair(Map<Hash, DatabaseError> problems) throws InterruptedException, ExecutionException {
+		final Chrysalis chrysalis = vault.getChrysalis();
+		final BlobFactory factory = chrysalis.getBlobFactory();
+		final Report report = new Report(problems);
+		if(problems.isEmpty()) {
+			return report;
+		}
+
+		LOGGER.info(vault.marker, "Repairing " + problems.size() + " blobs of " + vault.getArtifact() + " from " + (vaults.size() + directories.size()) + " sources");
+		try(ProgressTracker progress = vault.trackProgress("Repairing " + problems.size() + " blobs of " + vault.name(), problems.size(), -1)) {
+			vault.getScheduler(vault.blobDir).run(problems.keySet(), (hash) -> chrysalis.size(hash).orElse(-1), (hash) -> {
+				Path source = repair(factory, hash, chrysalis.size(hash), chrysalis.checksum(hash), candidates(chrysalis, hash));
+				if(source != null) {
+					report.repaired.put(hash, source);
+				}
+				else {
+					LOGGER.error(vault.marker, "Could not repair " + hash + ": no source holds a valid copy");
+				}
+				progress.add(1, chrysalis.size(hash).orElse(0));
+			});
+		}
+		catch(IOException e) {
+			throw new ExecutionException(e);
+		}
+		finally {
+			vault.saveConcurrency();
+		}
+
+		LOGGER.info(vault.marker, report);
+		return report;
+	}
+
+	/**
+	 * @return every file which may hold the content of the blob, in the order of the sources
+	 */
+	private List<Path> candidates(Chrysalis chrysalis, Hash hash) {
+		final List<Path> candidates = new ArrayList<>();
+		for(Vault source : vaults) {
+			if(!source.blobDir.equals(vault.blobDir)) {
+				candidates.add(source.blobDir.resolve(hash.hash()));
+			}
+		}
+		final Set<Path> paths;
+		synchronized(chrysalis.blobs()) {
+			paths = Set.copyOf(chrysalis.blobs().get(hash));
+		}
+		for(Path directory : directories) {
+			for(Path path : paths) {
+				candidates.add(directory.resolve(path));
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Replaces the blob with the first valid candidate.
+	 *
+	 * @return the candidate the blob was restored from, or null if none is valid
+	 */
+	private Path repair(BlobFactory factory, Hash hash, OptionalLong size, OptionalLong checksum, List<Path> candidates) {
+		final Path blobFile = vault.getBlobFile(hash);
+		final Path temp = Vault.getTempFile(blobFile);
+		for(Path candidate : candidates) {
+			try {
+				if(!Files.isRegularFile(candidate) || (size.isPresent() && Files.size(candidate) != size.getAsLong())) {
+					continue;
+				}
+				//verify a private copy, so the candidate cannot change after it was checked
+				Files.copy(candidate, temp, StandardCopyOption.REPLACE_EXISTING);
+				DatabaseError problem = ChrysalisizedVault.verifyBlob(factory, hash, size, checksum, temp, VerificationLevel.FULL);
+				if(problem != null) {
+					LOGGER.warn(vault.marker, "Skipping invalid copy " + candidate + " of " + hash + ": " + problem.getMessage());
+					continue;
+				}
+				try {
+					Files.move(temp, blobFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+				catch(AtomicMoveNotSupportedException e) {
+					Files.move(temp, blobFile, StandardCopyOption.REPLACE_EXISTING);
+				}
+				final BlobCache blobCache = vault.getBlobCache();
+				if(blobCache != null) {
+					blobCache.invalidate(hash);
+				}
+				LOGGER.info(vault.marker, "Repaired " + hash + " from " + candidate);
+				return candidate;
+			}
+			catch(IOException e) {
+				LOGGER.warn(vault.marker, "Could not repair " + hash + " from " + candidate, e);
+			}
+			finally {
+				try {
+					Files.deleteIfExists(temp);
+				}
+				catch(IOException e) {
+					LOGGER.warn(vault.marker, "Could not delete " + temp, e);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The outcome of a {@link BlobRepairer} run.
+	 */
+	public static final class Report {
+
+		private final Map<Hash, DatabaseError> problems;
+		private final Map<Hash, Path> repaired = new ConcurrentHashMap<>();
+
+		private Report(Map<Hash, DatabaseError> problems) {
+			this.problems = problems;
+		}
+
+		/**
+		 * @return the blobs which needed repair, and what was wrong with each of them
+		 */
+		public Map<Hash, DatabaseError> getProblems() {
+			return Collections.unmodifiableMap(problems);
+		}
+
+		/**
+		 * @return the repaired blobs, and the file each of them was restored from
+		 */
+		public Map<Hash, Path> getRepaired() {
+			return Collections.unmodifiableMap(repaired);
+		}
+
+		/**
+		 * @return the blobs for which no source holds a valid copy
+		 */
+		public Set<Hash> getUnrepaired() {
+			Set<Hash> unrepaired = new LinkedHashSet<>(problems.keySet());
+			unrepaired.removeAll(repaired.keySet());
+			return unrepaired;
+		}
+
+		public boolean isSuccessful() {
+			return repaired.size() == problems.size();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder("Blob repair report: ");
+			builder.append(problems.size()).append(" bad blobs, ");
+			builder.append(repaired.size()).append(" repaired");
+			for(Hash hash : getUnrepaired()) {
+				builder.append("\n\t").append(hash.hash()).append(": not repaired (").append(problems.get(hash).getMessage()).append(")");
+			}
+			return builder.toString();
+		}
+
+	}
+
+}
@@ -0,0 +1,528 @@
+package com.wildermods.thrixlvault;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToLongFunction;
+
+/**
+ * Runs a task for every blob of a {@link Chrysalis} on a shared {@link Executor}.
+ *
+ * <p>
+ * Blobs are submitted in batches, with at most {@link #getMaxInFlight()} batches queued or
+ * running at the same time. Small blobs are grouped together until a batch reaches
+ * {@link #getBatchBytes()} bytes or {@link #getBatchSize()} blobs, which keeps the
+ * scheduling overhead low for directories full of tiny files.
+ * </p>
+ *
+ * <p>
+ * By default blobs are pulled lazily in {@link Order#ITERATION iteration order}, so memory
+ * use does not grow with the number of blobs. With {@link Order#LARGEST_FIRST} the largest
+ * blobs are dispatched first: they start while the pool is still full, and the small ones
+ * packed into batches at the end fill the gaps, so no single huge blob is left running
+ * alone on an otherwise idle pool.
+ * </p>
+ *
+ * <p>
+ * On rotational disks seeks dominate, so {@link Order#LOCALITY} dispatches blobs in the
+ * order of their position on disk instead, and {@link #forDevice(Path, int)} gives every
+ * device a scheduler of its own whose few threads bound the concurrent accesses to it.
+ * </p>
+ *
+ * <p>
+ * The first task to fail cancels the whole run: no further batches are submitted,
+ * running batches stop before their next blob, and the failure is rethrown once every
+ * batch already submitted has stopped.
+ * </p>
+ *
+ * <p>
+ * The executor may run on platform threads or, on Java 21 and later, virtual threads.
+ * Tasks must not wait on other runs of the same scheduler, as a bounded executor could
+ * then deadlock.
+ * </p>
+ */
+public final class BlobScheduler {
+
+	private static final BlobScheduler SHARED;
+	static {
+		int threads = Runtime.getRuntime().availableProcessors();
+		SHARED = new BlobScheduler(Executors.newFixedThreadPool(threads, new DaemonThreadFactory()), threads * 4);
+	}
+	private static final Map<FileStore, BlobScheduler> DEVICES = new ConcurrentHashMap<>();
+	/** How many of the largest items are dispatched first per batch allowed in flight. */
+	private static final int LARGEST_PER_BATCH_IN_FLIGHT = 4;
+
+	private final Executor executor;
+	private final int maxInFlight;
+	private final ConcurrencyController controller;
+	private volatile int batchSize = 64;
+	private volatile long batchBytes = 4L << 20;
+	private volatile Order order = Order.ITERATION;
+
+	/**
+	 * @param executor the executor batches are run on. It is not shut down by the scheduler.
+	 * @param maxInFlight the maximum number of batches queued or running at the same time
+	 * for a single run
+	 */
+	public BlobScheduler(Executor executor, int maxInFlight) {
+		this(executor, maxInFlight, null);
+	}
+
+	private BlobScheduler(Executor executor, int maxInFlight, ConcurrencyController controller) {
+		if(maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+		}
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+		this.controller = controller;
+	}
+
+	/**
+	 * @return the process-wide scheduler, backed by a daemon thread pool with one thread
+	 * per available processor
+	 */
+	public static BlobScheduler shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Creates a scheduler backed by a new fixed thread pool. The pool is owned by the
+	 * caller and should be shut down when no longer needed.
+	 *
+	 * @param threads the number of threads in the pool
+	 * @return the scheduler, whose executor is the created {@link ExecutorService}
+	 */
+	public static BlobScheduler fixed(int threads) {
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+		return new BlobScheduler(executor, threads * 4);
+	}
+
+	/**
+	 * Returns the process-wide scheduler of the device {@code path} is stored on, creating
+	 * it on first use with a daemon pool of {@code threads} threads and {@link Order#LOCALITY}
+	 * ordering. Every operation on the device shares the pool, so at most {@code threads}
+	 * blobs of the device are accessed at the same time, whichever vault they belong to.
+	 *
+	 * <p>Later calls for the same device return the same scheduler and ignore {@code threads}.</p>
+	 *
+	 * @param path any file or directory stored on the device, such as a vault directory
+	 * @param threads the maximum number of concurrent accesses to the device. One or two
+	 * suit a single spinning disk.
+	 *
+	 * @throws IOException if the file store of {@code path} cannot be determined
+	 */
+	public static BlobScheduler forDevice(Path path, int threads) throws IOException {
+		if(threads < 1) {
+			throw new IllegalArgumentException("threads must be positive: " + threads);
+		}
+		return DEVICES.computeIfAbsent(Files.getFileStore(path), (store) -> {
+			ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+			return new BlobScheduler(executor, threads * 2).setOrder(Order.LOCALITY);
+		});
+	}
+
+	/**
+	 * @return a scheduler sharing this scheduler's executor and settings, whose runs keep
+	 * at most as many batches in flight as {@code controller} currently allows, together
+	 * with every other run using the same controller, and report every completed batch to it
+	 */
+	BlobScheduler adaptive(ConcurrencyController controller) {
+		return new BlobScheduler(executor, maxInFlight, controller)
+			.setBatchSize(batchSize)
+			.setBatchBytes(batchBytes)
+			.setOrder(order);
+	}
+
+	/**
+	 * Sets the maximum number of blobs in a batch.
+	 */
+	public BlobScheduler setBatchSize(int batchSize) {
+		if(batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * Sets the number of bytes after which a batch is closed. A blob at least this large
+	 * is always processed in a batch of its own.
+	 */
+	public BlobScheduler setBatchBytes(long batchBytes) {
+		this.batchBytes = batchBytes;
+		return this;
+	}
+
+	/**
+	 * Sets the order items are dispatched in. Defaults to {@link Order#ITERATION}.
+	 */
+	public BlobScheduler setOrder(Order order) {
+		this.order = Objects.requireNonNull(order);
+		return this;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public long getBatchBytes() {
+		return batchBytes;
+	}
+
+	public Order getOrder() {
+		return order;
+	}
+
+	/**
+	 * Runs {@code task} for every item, and waits for all of them to complete.
+	 *
+	 * @param items the items to process, which are only iterated on the calling thread
+	 * @param size the size in bytes of an item, or a negative value if unknown
+	 * @param task the task to run for each item
+	 *
+	 * @throws InterruptedException if the calling thread is interrupted. The run is cancelled
+	 * and every batch already submitted has stopped when this is thrown.
+	 * @throws ExecutionException wrapping the first failure of {@code task}
+	 */
+	public <T> void run(Iterable<T> items, ToLongFunction<? super T> size, Task<? super T> task) throws InterruptedException, ExecutionException {
+		run(items, size, null, task);
+	}
+
+	/**
+	 * Runs {@code task} for every item, and waits for all of them to complete.
+	 *
+	 * @param items the items to process, which are only iterated on the calling thread
+	 * @param size the size in bytes of an item, or a negative value if unknown
+	 * @param locality the position of an item on disk, such as the inode of its file, or
+	 * null if unknown. Only used with {@link Order#LOCALITY}.
+	 * @param task the task to run for each item
+	 *
+	 * @throws InterruptedException if the calling thread is interrupted. The run is cancelled
+	 * and every batch already submitted has stopped when this is thrown.
+	 * @throws ExecutionException wrapping the first failure of {@code task}
+	 */
+	public <T> void run(Iterable<T> items, ToLongFunction<? super T> size, ToLongFunction<? super T> locality, Task<? super T> task) throws InterruptedException, ExecutionException {
+		final Run<T> run = new Run<>(task);
+		final Iterator<Sized<T>> iterator;
+		switch(order) {
+			case LARGEST_FIRST:
+				iterator = largestFirst(items, size, maxInFlight * LARGEST_PER_BATCH_IN_FLIGHT);
+				break;
+			case LOCALITY:
+				iterator = locality == null ? lazily(items.iterator(), size) : sorted(items, size, locality);
+				break;
+			default:
+				iterator = lazily(items.iterator(), size);
+		}
+		final int batchSize = this.batchSize;
+		final long batchBytes = this.batchBytes;
+
+		try {
+			List<T> batch = new ArrayList<>();
+			long bytes = 0;
+			while(iterator.hasNext() && !run.isCancelled()) {
+				Sized<T> item = iterator.next();
+				batch.add(item.item);
+				bytes += Math.max(item.size, 0);
+				if(batch.size() >= batchSize || bytes >= batchBytes) {
+					run.submit(batch, bytes);
+					batch = new ArrayList<>();
+					bytes = 0;
+				}
+			}
+			if(!batch.isEmpty() && !run.isCancelled()) {
+				run.submit(batch, bytes);
+			}
+		}
+		catch(InterruptedException | RuntimeException | Error e) {
+			run.fail(e);
+			run.awaitUninterruptibly();
+			throw e;
+		}
+
+		run.await();
+		Throwable failure = run.failure.get();
+		if(failure != null) {
+			throw new ExecutionException(failure);
+		}
+	}
+
+	/**
+	 * @return every item with its size, sorted by increasing key. Items with equal keys
+	 * stay in iteration order.
+	 */
+	private static <T> Iterator<Sized<T>> sorted(Iterable<T> items, ToLongFunction<? super T> size, ToLongFunction<? super T> key) {
+		List<Sized<T>> sorted = new ArrayList<>();
+		for(T item : items) {
+			Sized<T> sized = new Sized<>(item, size.applyAsLong(item));
+			sized.key = key.applyAsLong(item);
+			sorted.add(sized);
+		}
+		sorted.sort((a, b) -> Long.compare(a.key, b.key)); //stable
+		return sorted.iterator();
+	}
+
+	/**
+	 * @return the {@code count} largest items by decreasing size, then every other item
+	 * lazily in iteration order. Only the largest items are held in memory, and
+	 * {@code items} is iterated twice.
+	 */
+	private static <T> Iterator<Sized<T>> largestFirst(Iterable<T> items, ToLongFunction<? super T> size, int count) {
+		final PriorityQueue<Sized<T>> heap = new PriorityQueue<>(count + 1, Comparator.comparingLong((Sized<T> sized) -> sized.size));
+		for(T item : items) {
+			long itemSize = size.applyAsLong(item);
+			if(itemSize < 0) {
+				continue; //unknown sizes come last
+			}
+			if(heap.size() < count) {
+				heap.add(new Sized<>(item, itemSize));
+			}
+			else if(itemSize > heap.peek().size) {
+				heap.poll();
+				heap.add(new Sized<>(item, itemSize));
+			}
+		}
+		final List<Sized<T>> largest = new ArrayList<>(heap);
+		largest.sort(Comparator.comparingLong((Sized<T> sized) -> -sized.size));
+		final Map<T, Integer> dispatched = new HashMap<>();
+		for(Sized<T> sized : largest) {
+			dispatched.merge(sized.item, 1, Integer::sum);
+		}
+
+		final Iterator<Sized<T>> rest = lazily(items.iterator(), size);
+		final Iterator<Sized<T>> first = largest.iterator();
+		return new Iterator<Sized<T>>() {
+			private Sized<T> next;
+
+			@Override
+			public boolean hasNext() {
+				if(next != null) {
+					return true;
+				}
+				if(first.hasNext()) {
+					next = first.next();
+					return true;
+				}
+				while(rest.hasNext()) {
+					Sized<T> candidate = rest.next();
+					Integer remaining = dispatched.get(candidate.item);
+					if(remaining != null) { //already dispatched with the largest items
+						if(remaining == 1) {
+							dispatched.remove(candidate.item);
+						}
+						else {
+							dispatched.put(candidate.item, remaining - 1);
+						}
+						continue;
+					}
+					next = candidate;
+					return true;
+				}
+				return false;
+			}
+
+			@Override
+			public Sized<T> next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Sized<T> result = next;
+				next = null;
+				return result;
+			}
+		};
+	}
+
+	private static <T> Iterator<Sized<T>> lazily(Iterator<T> items, ToLongFunction<? super T> size) {
+		return new Iterator<Sized<T>>() {
+			@Override
+			public boolean hasNext() {
+				return items.hasNext();
+			}
+
+			@Override
+			public Sized<T> next() {
+				T item = items.next();
+				return new Sized<>(item, size.applyAsLong(item));
+			}
+		};
+	}
+
+	/**
+	 * The order a {@link BlobScheduler} dispatches items in.
+	 */
+	public enum Order {
+
+		/**
+		 * Items are pulled lazily and dispatched in iteration order.
+		 */
+		ITERATION,
+
+		/**
+		 * The largest items are dispatched first by decreasing size, which minimizes the
+		 * time the last blobs keep a single thread busy after the others ran out of work.
+		 * The other items follow lazily in iteration order. Only four items per batch in
+		 * flight are picked, so memory use stays bounded, at the cost of iterating the
+		 * items twice. Items of unknown size are never picked.
+		 */
+		LARGEST_FIRST,
+
+		/**
+		 * Items are collected and dispatched by increasing locality key, so a rotational
+		 * disk reads them in a near sequential sweep instead of seeking back and forth.
+		 * Runs without locality keys dispatch items in iteration order.
+		 */
+		LOCALITY;
+
+	}
+
+	/**
+	 * A task run for every item processed by a {@link BlobScheduler}.
+	 */
+	@FunctionalInterface
+	public interface Task<T> {
+		void run(T item) throws Exception;
+	}
+
+	private final class Run<T> {
+		private final Task<? super T> task;
+		private final Semaphore permits = new Semaphore(maxInFlight);
+		private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		private Run(Task<? super T> task) {
+			this.task = task;
+		}
+
+		private boolean isCancelled() {
+			return failure.get() != null;
+		}
+
+		private void fail(Throwable t) {
+			failure.compareAndSet(null, t);
+		}
+
+		private void submit(List<T> batch, long bytes) throws InterruptedException {
+			permits.acquire();
+			try {
+				admit();
+			}
+			catch(InterruptedException e) {
+				permits.release();
+				throw e;
+			}
+			final long submitted = System.nanoTime();
+			try {
+				executor.execute(() -> {
+					boolean completed = false;
+					try {
+						for(T item : batch) {
+							if(isCancelled()) {
+								return;
+							}
+							task.run(item);
+						}
+						completed = true;
+					}
+					catch(Throwable t) {
+						fail(t);
+					}
+					finally {
+						if(completed && controller != null) {
+							controller.record(batch.size(), bytes, submitted, System.nanoTime());
+						}
+						leave();
+						permits.release();
+					}
+				});
+			}
+			catch(RejectedExecutionException e) {
+				leave();
+				permits.release();
+				throw e;
+			}
+		}
+
+		/**
+		 * Waits until the controller allows one more batch in flight on its file store.
+		 */
+		private void admit() throws InterruptedException {
+			if(controller != null) {
+				controller.acquire();
+			}
+		}
+
+		private void leave() {
+			if(controller != null) {
+				controller.release();
+			}
+		}
+
+		private void await() throws InterruptedException {
+			try {
+				permits.acquire(maxInFlight);
+				permits.release(maxInFlight);
+			}
+			catch(InterruptedException e) {
+				fail(e);
+				awaitUninterruptibly();
+				throw e;
+			}
+		}
+
+		private void awaitUninterruptibly() {
+			permits.acquireUninterruptibly(maxInFlight);
+			permits.release(maxInFlight);
+		}
+	}
+
+	private static final class Sized<T> {
+		private final T item;
+		private final long size;
+		private long key;
+
+		private Sized(T item, long size) {
+			this.item = item;
+			this.size = size;
+		}
+	}
+
+	private static final class DaemonThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "thrixlvault-blob-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
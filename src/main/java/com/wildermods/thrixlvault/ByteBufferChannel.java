@@ -0,0 +1,87 @@
+package com.wildermods.thrixlvault;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A read-only {@link SeekableByteChannel} over the content of a buffer, which is read
+ * in place without copying it to an intermediate array.
+ */
+final class ByteBufferChannel implements SeekableByteChannel {
+
+	private final ByteBuffer buffer;
+	private long position; //only accessed while holding the lock of this channel
+	private volatile boolean open = true;
+
+	/**
+	 * @param buffer the content of the channel, from its position to its limit
+	 */
+	ByteBufferChannel(ByteBuffer buffer) {
+		this.buffer = buffer.slice();
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws ClosedChannelException {
+		ensureOpen();
+		if(position >= buffer.limit()) {
+			return -1;
+		}
+		int length = (int) Math.min(dst.remaining(), buffer.limit() - position);
+		dst.put(dst.position(), buffer, (int) position, length);
+		dst.position(dst.position() + length);
+		position += length;
+		return length;
+	}
+
+	@Override
+	public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws ClosedChannelException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition) throws ClosedChannelException {
+		ensureOpen();
+		if(newPosition < 0) {
+			throw new IllegalArgumentException("Negative position: " + newPosition);
+		}
+		//reading past the end returns -1, as with a file
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws ClosedChannelException {
+		ensureOpen();
+		return buffer.limit();
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() {
+		open = false;
+	}
+
+	private void ensureOpen() throws ClosedChannelException {
+		if(!open) {
+			throw new ClosedChannelException();
+		}
+	}
+
+}
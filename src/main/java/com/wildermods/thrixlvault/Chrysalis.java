@@ -1,10 +1,17 @@
 package com.wildermods.thrixlvault;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -22,12 +29,17 @@ import com.wildermods.masshash.Hash;
 import com.wildermods.masshash.Hasher;
 import com.wildermods.masshash.IBlob;
 import com.wildermods.masshash.utils.Reference;
+import com.wildermods.thrixlvault.utils.FileUtil;
+import com.wildermods.thrixlvault.utils.ParallelDirectoryWalker;
+import com.wildermods.thrixlvault.utils.XXHash64;
 
 /**
  * A {@code Chrysalis} represents the processed (hashed) state of a directory of files.
  * <p>
  * Internally, it maps each file's computed {@link Hash} to the {@link Path} from which
  * the file was read. Multiple paths may share the same hash if their contents are identical.
+ * The size of each blob and the set of executable files are recorded alongside the hashes,
+ * which allows cheap metadata-only verification.
  * </p>
  *
  * <p>
@@ -50,6 +62,15 @@ public class Chrysalis extends Hasher<Chrysalis> implements Cloneable {
 	
 	static final Logger LOGGER = LogManager.getLogger();
 	
+	/** Size in bytes of each blob, keyed by {@link Hash#hash()}. Empty for chrysalises written before schema 3. */
+	private Map<String, Long> sizes = new ConcurrentHashMap<>();
+	
+	/** Optional {@link XXHash64} checksum of each blob, keyed by {@link Hash#hash()}. */
+	private Map<String, Long> checksums = new ConcurrentHashMap<>();
+	
+	/** Paths whose files were marked executable when they were hashed. */
+	private Set<Path> executables = ConcurrentHashMap.newKeySet();
+	
 	/**
 	 * Creates an empty {@code Chrysalis}. 
 	 * <p>
@@ -62,11 +83,10 @@ public class Chrysalis extends Hasher<Chrysalis> implements Cloneable {
 	}
 	
 	/**
-	 * Constructs a {@code Chrysalis} by hashing all files under the given directory.
+	 * Constructs a {@code Chrysalis} by hashing all of the given files.
 	 * <p>
 	 * This delegates to the {@link Hasher} constructor, which:
 	 * <ul>
-	 *   <li>walks the directory recursively,</li>
 	 *   <li>produces a {@link Blob} for each file,</li>
 	 *   <li>invokes {@code forEachBlob} with a modifiable {@link Reference}&lt;Path&gt;,</li>
 	 *   <li>computes the content hash,</li>
@@ -74,13 +94,13 @@ public class Chrysalis extends Hasher<Chrysalis> implements Cloneable {
 	 * </ul>
 	 * </p>
 	 *
-	 * @param dir the directory to walk and hash
+	 * @param files the files to hash. The caller is responsible for closing the stream.
 	 * @param forEachBlob a callback invoked for every {@link Blob} encountered; the wrapped
 	 *                    {@link Path} may be modified before being added to the result map
 	 * @throws IOException if file traversal or hashing fails
 	 */
-	Chrysalis(Path dir, BiConsumer<Reference<Path>, IBlob> forEachBlob) throws IOException {
-		super(Files.walk(dir), forEachBlob);
+	Chrysalis(Stream<Path> files, BiConsumer<Reference<Path>, IBlob> forEachBlob) throws IOException {
+		super(files, forEachBlob);
 	}
 
 	/**
@@ -106,18 +126,85 @@ public class Chrysalis extends Hasher<Chrysalis> implements Cloneable {
 	 * @throws IOException if file traversal or hashing fails
 	 */
 	public static Chrysalis fromDir(Path path, BiConsumer<Reference<Path>, IBlob> forEachBlob) throws IOException {
-		LOGGER.info("Constructing Chrysalis from " + path);
-		return new Chrysalis(path, forEachBlob);
+		return fromDir(new ParallelDirectoryWalker(path), forEachBlob);
 	}
 	
 	/**
-	 * Loads a {@code Chrysalis} from a previously serialized JSON file.
+	 * Creates a {@code Chrysalis} by hashing all files reported by the given walker,
+	 * invoking the supplied callback for each {@link Blob} encountered.
 	 * <p>
-	 * The file must have been written by {@link Weaver#GSON}; all hash-path mappings
-	 * are recreated exactly as stored.
+	 * Files are handed to the hasher while the directory tree is still being
+	 * enumerated, so hashing is not held back by slow directory listings.
 	 * </p>
 	 *
-	 * @param path the JSON file containing a serialized Chrysalis
+	 * @param walker the walker used to enumerate the directory, including its
+	 *               link-following and filter settings
+	 * @param forEachBlob a callback invoked for each Blob; the path reference may
+	 *                    be modified (e.g., relativized) before storage
+	 * @return a newly computed {@code Chrysalis}
+	 * @throws IOException if file traversal or hashing fails
+	 */
+	public static Chrysalis fromDir(ParallelDirectoryWalker walker, BiConsumer<Reference<Path>, IBlob> forEachBlob) throws IOException {
+		return fromDir(walker, false, forEachBlob);
+	}
+	
+	/**
+	 * Creates a {@code Chrysalis} by hashing all files reported by the given walker,
+	 * optionally recording a fast {@link XXHash64} checksum for every blob next to
+	 * its cryptographic hash.
+	 *
+	 * @param walker the walker used to enumerate the directory
+	 * @param checksums whether to record a secondary checksum for every blob
+	 * @param forEachBlob a callback invoked for each Blob; the path reference may
+	 *                    be modified (e.g., relativized) before storage
+	 * @return a newly computed {@code Chrysalis}
+	 * @throws IOException if file traversal or hashing fails
+	 */
+	public static Chrysalis fromDir(ParallelDirectoryWalker walker, boolean checksums, BiConsumer<Reference<Path>, IBlob> forEachBlob) throws IOException {
+		LOGGER.info("Constructing Chrysalis from " + walker.getRoot());
+		final Map<String, Long> sums = new ConcurrentHashMap<>();
+		final Map<String, Long> sizes = new ConcurrentHashMap<>();
+		final Set<Path> executables = ConcurrentHashMap.newKeySet();
+		try(Stream<Path> files = walker.stream()) {
+			Chrysalis chrysalis = new Chrysalis(files, (path, blob) -> {
+				final long size;
+				final boolean executable;
+				try {
+					Path file = path.get();
+					size = Files.size(file);
+					executable = FileUtil.isExecutable(file);
+					if(checksums && !sums.containsKey(blob.hash())) {
+						sums.put(blob.hash(), XXHash64.hash(file));
+					}
+				}
+				catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				forEachBlob.accept(path, blob);
+				sizes.put(blob.hash(), size);
+				if(executable) {
+					executables.add(path.get());
+				}
+			});
+			chrysalis.sizes = sizes;
+			chrysalis.checksums = sums;
+			chrysalis.executables = executables;
+			return chrysalis;
+		}
+		catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	/**
+	 * Loads a {@code Chrysalis} from a previously serialized file.
+	 * <p>
+	 * The file may be written in any {@link ChrysalisFormat}, or by {@link Weaver#GSON}; its
+	 * format is detected from its content. The file is streamed rather than read into memory
+	 * as a whole. All hash-path mappings are recreated exactly as stored.
+	 * </p>
+	 *
+	 * @param path the file containing a serialized Chrysalis
 	 * @return the deserialized {@code Chrysalis}
 	 * 
 	 * @throws IOException if the file cannot be read
@@ -125,7 +212,27 @@ public class Chrysalis extends Hasher<Chrysalis> implements Cloneable {
 	 * @throws JsonIOException if deserialization fails
 	 */
 	public static Chrysalis fromFile(Path path) throws JsonSyntaxException, JsonIOException, IOException {
-		return Weaver.GSON.fromJson(Files.newBufferedReader(path), Chrysalis.class);
+		return ChrysalisFormat.detect(path).read(path, null);
+	}
+	
+	/**
+	 * Loads the part of a serialized {@code Chrysalis} located under the given relative
+	 * path, such as a single jar or the {@code scripts} directory.
+	 * <p>
+	 * Entries outside of the scope are skipped while parsing, so targeted lookups and
+	 * exports do not pay for materializing the whole chrysalis.
+	 * </p>
+	 *
+	 * @param path the file containing a serialized Chrysalis, in any {@link ChrysalisFormat}
+	 * @param scope the relative path of the file or directory to keep
+	 * @return a {@code Chrysalis} containing only the entries within {@code scope}
+	 * 
+	 * @throws IOException if the file cannot be read
+	 * @throws JsonSyntaxException if the JSON is invalid
+	 * @throws JsonIOException if deserialization fails
+	 */
+	public static Chrysalis fromFile(Path path, Path scope) throws JsonSyntaxException, JsonIOException, IOException {
+		return ChrysalisFormat.detect(path).read(path, scope);
 	}
 	
 	/**
@@ -152,7 +259,8 @@ public class Chrysalis extends Hasher<Chrysalis> implements Cloneable {
 	 * Returns a deep copy of this {@code Chrysalis}.
 	 * <p>
 	 * The underlying multimap is reconstructed with the same hash-path pairs and
-	 * wrapped again in a synchronized {@code SetMultimap}.
+	 * wrapped again in a synchronized {@code SetMultimap}. The copy is modifiable even
+	 * if this chrysalis is not.
 	 * </p>
 	 */
 	@Override
@@ -165,12 +273,17 @@ public class Chrysalis extends Hasher<Chrysalis> implements Cloneable {
 		);
 
 		for(Hash key : this.blobs.keySet()) {
-			for(Path path : this.blobs.values()) {
+			for(Path path : this.blobs.get(key)) {
 				chrysalis.blobs.put(key, path);
 			}
 		}
 		
 		chrysalis.blobs = Multimaps.synchronizedSetMultimap(chrysalis.blobs);
+		chrysalis.blobFactory = this.blobFactory;
+		chrysalis.sizes = new ConcurrentHashMap<>(this.sizes);
+		chrysalis.checksums = new ConcurrentHashMap<>(this.checksums);
+		chrysalis.executables = ConcurrentHashMap.newKeySet();
+		chrysalis.executables.addAll(this.executables);
 		
 		return chrysalis;
 	}
@@ -179,12 +292,25 @@ public class Chrysalis extends Hasher<Chrysalis> implements Cloneable {
 	 * Returns the multimap of computed {@link Hash} values to the file {@link Path}s
 	 * from which those hashes were generated.
 	 *
-	 * @return a thread-safe multimap of hash→paths
+	 * @return a thread-safe multimap of hash→paths. It is unmodifiable if this chrysalis
+	 * is shared through a {@link ChrysalisCache}.
 	 */
 	public SetMultimap<Hash, Path> blobs() {
 		return blobs;
 	}
 
+	/**
+	 * Makes this chrysalis unmodifiable before it is shared, so holders of the same
+	 * instance can never observe changes which were not written to disk. Callers which
+	 * need to change a shared chrysalis must modify a {@link #clone()} instead.
+	 */
+	void seal() {
+		blobs = Multimaps.unmodifiableSetMultimap(blobs);
+		sizes = Collections.unmodifiableMap(sizes);
+		checksums = Collections.unmodifiableMap(checksums);
+		executables = Collections.unmodifiableSet(executables);
+	}
+
 	/**
 	 * @deprecated This method is intended for internal use only.
 	 * Normal code should not mutate a Chrysalis after creation.</p>
@@ -194,6 +320,78 @@ public class Chrysalis extends Hasher<Chrysalis> implements Cloneable {
 		this.blobs = blobs;
 	}
 	
+	/**
+	 * Returns the recorded size of the blob with the given hash.
+	 *
+	 * @param hash the blob's hash
+	 * @return the size in bytes, or an empty optional if this chrysalis
+	 *         predates size tracking
+	 */
+	public OptionalLong size(Hash hash) {
+		Long size = sizes.get(hash.hash());
+		return size == null ? OptionalLong.empty() : OptionalLong.of(size);
+	}
+	
+	/**
+	 * @return true if a size was recorded for every blob in this chrysalis
+	 */
+	public boolean hasSizes() {
+		return sizes.size() >= blobs.keySet().size();
+	}
+	
+	/**
+	 * Returns the recorded {@link XXHash64} checksum of the blob with the given hash.
+	 *
+	 * @param hash the blob's hash
+	 * @return the checksum, or an empty optional if none was recorded
+	 */
+	public OptionalLong checksum(Hash hash) {
+		Long checksum = checksums.get(hash.hash());
+		return checksum == null ? OptionalLong.empty() : OptionalLong.of(checksum);
+	}
+	
+	/**
+	 * @return true if a checksum was recorded for every blob in this chrysalis
+	 */
+	public boolean hasChecksums() {
+		return checksums.size() >= blobs.keySet().size();
+	}
+	
+	/**
+	 * @param path a path relative to the chrysalis root
+	 * @return true if the file at the given path was executable when it was hashed
+	 */
+	public boolean isExecutable(Path path) {
+		return executables.contains(path);
+	}
+	
+	/**
+	 * @return an unmodifiable view of the paths that were executable when hashed
+	 */
+	public Set<Path> executables() {
+		return Collections.unmodifiableSet(executables);
+	}
+	
+	Map<String, Long> sizes() {
+		return sizes;
+	}
+	
+	Map<String, Long> checksums() {
+		return checksums;
+	}
+	
+	void setChecksums(Map<String, Long> checksums) {
+		this.checksums = checksums;
+	}
+	
+	void setSizes(Map<String, Long> sizes) {
+		this.sizes = sizes;
+	}
+	
+	void setExecutables(Set<Path> executables) {
+		this.executables = executables;
+	}
+	
 	public BlobFactory getBlobFactory() {
 		return blobFactory;
 	}
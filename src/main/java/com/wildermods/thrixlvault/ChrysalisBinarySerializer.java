@@ -0,0 +1,443 @@
+package com.wildermods.thrixlvault;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.TreeMultimap;
+import com.wildermods.masshash.BlobFactory;
+import com.wildermods.masshash.Hash;
+import com.wildermods.masshash.utils.ByteUtil;
+
+/**
+ * Reads and writes {@link Chrysalis} files in the binary encoding of schema {@value ChrysalisSerializer#SCHEMA}.
+ * <p>
+ * The binary encoding holds exactly the same data as the JSON encoding written by
+ * {@link ChrysalisSerializer}, but can be opened without tokenizing text. Files are read
+ * into memory in one pass and decoded from there; they are not memory mapped, so nothing
+ * holds on to a file once it is read and it can be replaced right away on every platform.
+ * </p>
+ *
+ * <pre>
+ * magic        4 bytes    'T' 'V' 'C' 'H'
+ * schema       int
+ * flags        int        bit 0: hashes use uppercase hex, bit 1: checksums present
+ * algorithm    short length, UTF-8 bytes
+ * digestLength int
+ * hashCount    int
+ * pathCount    int
+ * hashes       hashCount * digestLength raw digest bytes, sorted ascending
+ * sizes        hashCount * long, -1 if unknown
+ * checksums    hashCount * long, only present if flag bit 1 is set
+ * paths        pathCount entries sorted by path, each made of
+ *                varint  length of the prefix shared with the previous path
+ *                varint  length of the remaining suffix
+ *                bytes   UTF-8 suffix, always using '/' as the separator
+ *                varint  (index of the path's hash &lt;&lt; 1) | executable bit
+ * checksum     int        CRC32C of all preceding bytes
+ * </pre>
+ *
+ * <p>
+ * Every integer is big-endian. Fixed width hash, size and checksum tables allow a blob's
+ * metadata to be located by its index without decoding the rest of the file.
+ * </p>
+ */
+public final class ChrysalisBinarySerializer {
+
+	static final byte[] MAGIC = new byte[] {'T', 'V', 'C', 'H'};
+
+	private static final int FLAG_UPPERCASE = 1;
+	private static final int FLAG_CHECKSUMS = 1 << 1;
+
+	private ChrysalisBinarySerializer() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * @return true if the given bytes start with the binary chrysalis magic number
+	 */
+	static boolean isBinary(byte[] header) {
+		return header.length >= MAGIC.length && Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+	}
+
+	/**
+	 * Writes the given chrysalis to a file in the binary encoding.
+	 *
+	 * @param chrysalis the chrysalis to write
+	 * @param file the destination file, which is replaced if it exists
+	 * @throws IOException if the file cannot be written, or a hash is not hexadecimal
+	 */
+	public static void write(Chrysalis chrysalis, Path file) throws IOException {
+		try(OutputStream out = Channels.newOutputStream(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+			write(chrysalis, out);
+		}
+	}
+
+	/**
+	 * Writes the given chrysalis to a stream in the binary encoding. The stream is
+	 * flushed but not closed.
+	 */
+	public static void write(Chrysalis chrysalis, OutputStream stream) throws IOException {
+		final List<Hash> hashes = new ArrayList<>(chrysalis.blobs().keySet());
+		final HexFormat hex = HexFormat.of();
+
+		int flags = 0;
+		if(isUppercase(hashes)) {
+			flags |= FLAG_UPPERCASE;
+		}
+		if(!chrysalis.checksums().isEmpty()) {
+			flags |= FLAG_CHECKSUMS;
+		}
+
+		final byte[][] digests = new byte[hashes.size()][];
+		final Map<String, Integer> indices = new HashMap<>();
+		int digestLength = -1;
+		for(int i = 0; i < hashes.size(); i++) {
+			String hash = hashes.get(i).hash();
+			try {
+				digests[i] = hex.parseHex(hash);
+			}
+			catch(IllegalArgumentException e) {
+				throw new IOException("Cannot encode non-hexadecimal hash " + hash, e);
+			}
+			if(digestLength == -1) {
+				digestLength = digests[i].length;
+			}
+			else if(digestLength != digests[i].length) {
+				throw new IOException("Hash " + hash + " does not have the expected length of " + digestLength + " bytes");
+			}
+			indices.put(hash, i);
+		}
+		if(digestLength == -1) {
+			digestLength = 0;
+		}
+
+		final List<String[]> paths = new ArrayList<>(); // {normalized path, hash}
+		for(Map.Entry<Hash, Path> entry : chrysalis.blobs().entries()) {
+			paths.add(new String[] {entry.getValue().toString().replace('\\', '/'), entry.getKey().hash()});
+		}
+		paths.sort(Comparator.comparing((String[] path) -> path[0]));
+
+		CRC32C crc = new CRC32C();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(nonClosing(stream), crc), 1 << 16));
+
+		out.write(MAGIC);
+		out.writeInt(ChrysalisSerializer.SCHEMA);
+		out.writeInt(flags);
+		byte[] algorithm = chrysalis.getBlobFactory().algorithm().getBytes(StandardCharsets.UTF_8);
+		out.writeShort(algorithm.length);
+		out.write(algorithm);
+		out.writeInt(digestLength);
+		out.writeInt(hashes.size());
+		out.writeInt(paths.size());
+
+		for(byte[] digest : digests) {
+			out.write(digest);
+		}
+		for(Hash hash : hashes) {
+			OptionalLong size = chrysalis.size(hash);
+			out.writeLong(size.isPresent() ? size.getAsLong() : -1);
+		}
+		if((flags & FLAG_CHECKSUMS) != 0) {
+			for(Hash hash : hashes) {
+				OptionalLong checksum = chrysalis.checksum(hash);
+				out.writeLong(checksum.isPresent() ? checksum.getAsLong() : 0);
+			}
+		}
+
+		final Set<String> executables = new HashSet<>();
+		for(Path executable : chrysalis.executables()) {
+			executables.add(executable.toString().replace('\\', '/'));
+		}
+		byte[] previous = new byte[0];
+		for(String[] path : paths) {
+			byte[] current = path[0].getBytes(StandardCharsets.UTF_8);
+			int shared = Arrays.mismatch(previous, current);
+			if(shared == -1) {
+				shared = current.length;
+			}
+			writeVarInt(out, shared);
+			writeVarInt(out, current.length - shared);
+			out.write(current, shared, current.length - shared);
+			int executable = executables.contains(path[0]) ? 1 : 0;
+			writeVarInt(out, (indices.get(path[1]) << 1) | executable);
+			previous = current;
+		}
+
+		out.flush();
+		new DataOutputStream(stream).writeInt((int) crc.getValue());
+		stream.flush();
+	}
+
+	/**
+	 * Reads a binary chrysalis file.
+	 *
+	 * @param file the file to read
+	 * @return the decoded chrysalis
+	 * @throws IOException if the file cannot be read, is not a binary chrysalis, or is corrupt
+	 */
+	public static Chrysalis read(Path file) throws IOException {
+		return read(file, null);
+	}
+
+	/**
+	 * Reads the part of a binary chrysalis file located under the given
+	 * relative path. Paths outside of the scope are decoded but never turned into
+	 * {@link Path} or {@link Hash} objects.
+	 *
+	 * @param file the file to read
+	 * @param scope the relative path of the subtree to keep, or null to keep everything
+	 * @return the decoded chrysalis
+	 * @throws IOException if the file cannot be read, is not a binary chrysalis, or is corrupt
+	 */
+	public static Chrysalis read(Path file, Path scope) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE) {
+				throw new IOException("Chrysalis file " + file + " is too large (" + size + " bytes)");
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while(buffer.hasRemaining()) {
+				if(channel.read(buffer) < 0) {
+					throw new IOException("Chrysalis file " + file + " was truncated while reading it");
+				}
+			}
+			return read(buffer.flip(), scope, file.toString());
+		}
+	}
+
+	/**
+	 * Reads the schema from the header of a binary chrysalis file without decoding
+	 * or checking the rest of the file.
+	 *
+	 * @throws IOException if the file cannot be read or is not a binary chrysalis
+	 */
+	static int schema(Path file) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 4);
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while(header.hasRemaining() && channel.read(header) != -1);
+		}
+		header.flip();
+		if(header.remaining() < header.capacity() || !isBinary(header.array())) {
+			throw new IOException(file + " is not a binary chrysalis");
+		}
+		return header.getInt(MAGIC.length);
+	}
+
+	/**
+	 * Reads a binary chrysalis from a buffer holding the complete file.
+	 *
+	 * @param buffer the encoded chrysalis, from its current position to its limit
+	 * @param scope the relative path of the subtree to keep, or null to keep everything
+	 * @param source a description of where the data came from, used in error messages
+	 */
+	@SuppressWarnings("deprecation")
+	static Chrysalis read(ByteBuffer buffer, Path scope, String source) throws IOException {
+		final String normalizedScope = ChrysalisSerializer.normalizeScope(scope);
+		final ByteBuffer data = buffer.slice();
+		try {
+			if(data.remaining() < MAGIC.length + 4) {
+				throw new IOException("Truncated chrysalis " + source);
+			}
+			int end = data.limit() - 4;
+			CRC32C crc = new CRC32C();
+			crc.update(data.slice(0, end));
+			if((int) crc.getValue() != data.getInt(end)) {
+				throw new IOException("Checksum mismatch in chrysalis " + source + ". The file is corrupt.");
+			}
+
+			byte[] magic = new byte[MAGIC.length];
+			data.get(magic);
+			if(!isBinary(magic)) {
+				throw new IOException(source + " is not a binary chrysalis");
+			}
+			int schema = data.getInt();
+			if(schema != ChrysalisSerializer.SCHEMA) {
+				throw new IOException("Unsupported binary chrysalis schema " + schema + " in " + source + ", expected " + ChrysalisSerializer.SCHEMA);
+			}
+			int flags = data.getInt();
+			byte[] algorithmBytes = new byte[data.getShort() & 0xFFFF];
+			data.get(algorithmBytes);
+			String algorithm = new String(algorithmBytes, StandardCharsets.UTF_8);
+			int digestLength = data.getInt();
+			int hashCount = data.getInt();
+			int pathCount = data.getInt();
+
+			Chrysalis ret = new Chrysalis();
+			try {
+				ret.factory(new BlobFactory(ByteUtil.consume.apply(MessageDigest.getInstance(algorithm))));
+			}
+			catch(NoSuchAlgorithmException e) {
+				throw new IOException(e);
+			}
+			final Supplier<MessageDigest> digest = () -> ret.getBlobFactory().digest.get();
+
+			final int hashesOffset = data.position();
+			final int sizesOffset = hashesOffset + hashCount * digestLength;
+			final int checksumsOffset = sizesOffset + hashCount * Long.BYTES;
+			final boolean hasChecksums = (flags & FLAG_CHECKSUMS) != 0;
+			data.position(hasChecksums ? checksumsOffset + hashCount * Long.BYTES : checksumsOffset);
+
+			final HexFormat hex = (flags & FLAG_UPPERCASE) != 0 ? HexFormat.of().withUpperCase() : HexFormat.of();
+			final Hash[] hashes = new Hash[hashCount];
+			final byte[] digestBytes = new byte[digestLength];
+
+			TreeMultimap<Hash, Path> sorted = TreeMultimap.create(
+				Comparator.comparing(Hash::hash),
+				Ordering.natural()
+			);
+			Set<Path> executables = ConcurrentHashMap.newKeySet();
+
+			byte[] previous = new byte[64];
+			for(int i = 0; i < pathCount; i++) {
+				int shared = readVarInt(data);
+				int suffix = readVarInt(data);
+				if(shared + suffix > previous.length) {
+					previous = Arrays.copyOf(previous, Math.max(previous.length * 2, shared + suffix));
+				}
+				data.get(previous, shared, suffix);
+				int length = shared + suffix;
+				int reference = readVarInt(data);
+				int index = reference >>> 1;
+
+				String pathString = new String(previous, 0, length, StandardCharsets.UTF_8);
+				if(!ChrysalisSerializer.inScope(normalizedScope, pathString)) {
+					continue;
+				}
+
+				Hash hash = hashes[index];
+				if(hash == null) {
+					data.get(hashesOffset + index * digestLength, digestBytes);
+					hash = Hash.of(digest, hex.formatHex(digestBytes));
+					hashes[index] = hash;
+				}
+				Path path = Path.of(pathString);
+				sorted.put(hash, path);
+				if((reference & 1) != 0) {
+					executables.add(path);
+				}
+			}
+			if(data.position() != end) {
+				throw new IOException("Unexpected trailing data in chrysalis " + source);
+			}
+
+			Map<String, Long> sizes = new ConcurrentHashMap<>();
+			Map<String, Long> checksums = new ConcurrentHashMap<>();
+			for(int i = 0; i < hashCount; i++) {
+				if(hashes[i] == null) {
+					continue;
+				}
+				long size = data.getLong(sizesOffset + i * Long.BYTES);
+				if(size >= 0) {
+					sizes.put(hashes[i].hash(), size);
+				}
+				if(hasChecksums) {
+					checksums.put(hashes[i].hash(), data.getLong(checksumsOffset + i * Long.BYTES));
+				}
+			}
+
+			ret.setBlobs(Multimaps.synchronizedSetMultimap(sorted));
+			ret.setSizes(sizes);
+			ret.setChecksums(checksums);
+			ret.setExecutables(executables);
+			return ret;
+		}
+		catch(BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IOException("Truncated or corrupt chrysalis " + source, e);
+		}
+	}
+
+	/**
+	 * The case of the hex digits is stored once for the whole file, so every hash must
+	 * use the same case. Hashes made only of decimal digits fit either case.
+	 *
+	 * @return true if the hashes use uppercase hex digits
+	 * @throws IOException if some hashes use uppercase digits and others lowercase ones
+	 */
+	private static boolean isUppercase(List<Hash> hashes) throws IOException {
+		String upper = null;
+		String lower = null;
+		for(Hash hash : hashes) {
+			String hex = hash.hash();
+			for(int i = 0; i < hex.length(); i++) {
+				char c = hex.charAt(i);
+				if(c >= 'A' && c <= 'F') {
+					upper = hex;
+				}
+				else if(c >= 'a' && c <= 'f') {
+					lower = hex;
+				}
+			}
+			if(upper != null && lower != null) {
+				throw new IOException("Cannot encode hashes mixing uppercase and lowercase hex digits: " + upper + " and " + lower);
+			}
+		}
+		return upper != null;
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(ByteBuffer in) throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 32; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private static OutputStream nonClosing(OutputStream out) {
+		return new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				out.flush();
+			}
+		};
+	}
+
+}
@@ -0,0 +1,214 @@
+package com.wildermods.thrixlvault;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * A bounded cache of parsed {@link Chrysalis} instances, keyed by chrysalis file and scope.
+ *
+ * <p>
+ * Every lookup checks the last modified time, size and file key of the chrysalis file,
+ * so a chrysalis which was rewritten on disk is reparsed instead of being served stale.
+ * Entries are held through {@link SoftReference}s, so the garbage collector may reclaim
+ * them under memory pressure, and the least recently used entry is evicted once
+ * {@link #getCapacity()} entries are cached.
+ * </p>
+ *
+ * <p>
+ * Cached instances are shared between every caller which looks up the same file and
+ * scope, so they are {@link Chrysalis#seal() sealed}: every attempt to modify them throws
+ * an {@link UnsupportedOperationException}. Callers which need to modify a chrysalis must
+ * modify a {@link Chrysalis#clone() copy} of it.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe. Two threads missing the same entry at the same time may
+ * both parse the file; the last one to finish is kept.
+ * </p>
+ */
+public final class ChrysalisCache {
+
+	private static final ChrysalisCache SHARED = new ChrysalisCache(64);
+
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private int capacity;
+
+	/**
+	 * @param capacity the maximum number of chrysalises to keep
+	 */
+	public ChrysalisCache(int capacity) {
+		setCapacity(capacity);
+	}
+
+	/**
+	 * @return the process-wide cache used by every {@link Vault} unless configured otherwise
+	 */
+	public static ChrysalisCache shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Returns the chrysalis stored in the given file, parsing it only if it is not cached
+	 * or the file changed since it was cached.
+	 *
+	 * @param file the chrysalis file
+	 * @param scope the relative path of the subtree to load, or {@code null} to load everything
+	 * @return the cached or freshly parsed chrysalis
+	 *
+	 * @throws IOException if the file cannot be read
+	 * @throws JsonSyntaxException if the JSON is invalid
+	 * @throws JsonIOException if deserialization fails
+	 *
+	 * @see Chrysalis#fromFile(Path, Path)
+	 */
+	public Chrysalis get(Path file, Path scope) throws JsonSyntaxException, JsonIOException, IOException {
+		Key key = new Key(file, scope);
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+		synchronized(this) {
+			Entry entry = entries.get(key);
+			if(entry != null) {
+				Chrysalis chrysalis = entry.chrysalis.get();
+				if(chrysalis != null && entry.matches(attributes)) {
+					hits.increment();
+					return chrysalis;
+				}
+				entries.remove(key);
+			}
+		}
+
+		misses.increment();
+		Chrysalis chrysalis = Chrysalis.fromFile(file, scope);
+		chrysalis.seal();
+		BasicFileAttributes after = Files.readAttributes(file, BasicFileAttributes.class);
+		if(unchanged(attributes, after)) { //don't cache if the file changed while it was being read
+			synchronized(this) {
+				entries.put(key, new Entry(chrysalis, attributes));
+				trim();
+			}
+		}
+		return chrysalis;
+	}
+
+	/**
+	 * Removes every cached chrysalis read from the given file, regardless of scope.
+	 */
+	public synchronized void invalidate(Path file) {
+		Path normalized = normalize(file);
+		entries.keySet().removeIf((key) -> key.file.equals(normalized));
+	}
+
+	/**
+	 * Removes every cached chrysalis.
+	 */
+	public synchronized void invalidateAll() {
+		entries.clear();
+	}
+
+	/**
+	 * Sets the maximum number of chrysalises to keep, evicting the least recently used
+	 * entries if more are cached. A capacity of 0 disables caching.
+	 */
+	public synchronized ChrysalisCache setCapacity(int capacity) {
+		if(capacity < 0) {
+			throw new IllegalArgumentException("Capacity cannot be negative: " + capacity);
+		}
+		this.capacity = capacity;
+		trim();
+		return this;
+	}
+
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of entries currently cached, including entries whose chrysalis
+	 * has been reclaimed by the garbage collector but not yet removed
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of lookups served from the cache
+	 */
+	public long hits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of lookups which had to parse the chrysalis file
+	 */
+	public long misses() {
+		return misses.sum();
+	}
+
+	private void trim() {
+		entries.values().removeIf((entry) -> entry.chrysalis.get() == null);
+		Iterator<Entry> iterator = entries.values().iterator();
+		for(int excess = entries.size() - capacity; excess > 0 && iterator.hasNext(); excess--) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+	private static boolean unchanged(BasicFileAttributes before, BasicFileAttributes after) {
+		return before.size() == after.size() && before.lastModifiedTime().equals(after.lastModifiedTime()) && Objects.equals(before.fileKey(), after.fileKey());
+	}
+
+	private static Path normalize(Path file) {
+		return file.toAbsolutePath().normalize();
+	}
+
+	private static final class Key {
+		private final Path file;
+		private final String scope;
+
+		private Key(Path file, Path scope) {
+			this.file = normalize(file);
+			this.scope = ChrysalisSerializer.normalizeScope(scope);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(o instanceof Key) {
+				Key other = (Key) o;
+				return file.equals(other.file) && Objects.equals(scope, other.scope);
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return file.hashCode() * 31 + Objects.hashCode(scope);
+		}
+	}
+
+	private static final class Entry {
+		private final SoftReference<Chrysalis> chrysalis;
+		private final BasicFileAttributes attributes;
+
+		private Entry(Chrysalis chrysalis, BasicFileAttributes attributes) {
+			this.chrysalis = new SoftReference<>(chrysalis);
+			this.attributes = attributes;
+		}
+
+		private boolean matches(BasicFileAttributes attributes) {
+			return unchanged(this.attributes, attributes);
+		}
+	}
+
+}
@@ -0,0 +1,220 @@
+package com.wildermods.thrixlvault;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * The on-disk encodings a {@link Chrysalis} can be stored in.
+ * <p>
+ * Each {@link Vault} writes chrysalis files in the format selected with
+ * {@link Vault#setFormat(ChrysalisFormat)}. Reading never depends on the
+ * selected format: the encoding of an existing file is detected from its
+ * content, so vaults may contain a mix of formats.
+ * </p>
+ * <p>
+ * JSON formats are streamed through a {@link JsonWriter} or {@link JsonReader}, so even very
+ * large chrysalises are never materialized as a single string.
+ * </p>
+ */
+public enum ChrysalisFormat {
+
+	/**
+	 * Human readable, pretty printed JSON. Used for interchange, and the default format.
+	 */
+	JSON("blobs.json", true),
+	
+	/**
+	 * JSON without indentation or line breaks. Read exactly like {@link #JSON}, but
+	 * noticeably smaller for large chrysalises.
+	 */
+	JSON_COMPACT("blobs.json", false),
+	
+	/**
+	 * Compact JSON compressed with gzip.
+	 */
+	JSON_GZIP("blobs.json.gz", false) {
+		@Override
+		OutputStream encode(OutputStream out) throws IOException {
+			return new GZIPOutputStream(out, BUFFER_SIZE);
+		}
+		
+		@Override
+		InputStream decode(InputStream in) throws IOException {
+			return new GZIPInputStream(in, BUFFER_SIZE);
+		}
+	},
+	
+	/**
+	 * Compact JSON compressed with zlib wrapped deflate.
+	 */
+	JSON_DEFLATE("blobs.json.zz", false) {
+		@Override
+		OutputStream encode(OutputStream out) {
+			return new DeflaterOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+		}
+		
+		@Override
+		InputStream decode(InputStream in) {
+			return new InflaterInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+		}
+	},
+
+	/**
+	 * The compact binary encoding written by {@link ChrysalisBinarySerializer}, which is
+	 * decoded without tokenizing text.
+	 */
+	BINARY("blobs.chrysalis", false) {
+		@Override
+		void write(Chrysalis chrysalis, Path file) throws IOException {
+			ChrysalisBinarySerializer.write(chrysalis, file);
+		}
+		
+		@Override
+		Chrysalis read(Path file, Path scope) throws IOException {
+			return ChrysalisBinarySerializer.read(file, scope);
+		}
+		
+		@Override
+		int schema(Path file) throws IOException {
+			return ChrysalisBinarySerializer.schema(file);
+		}
+	};
+	
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final ChrysalisSerializer SERIALIZER = new ChrysalisSerializer();
+
+	private final String fileName;
+	private final boolean pretty;
+
+	private ChrysalisFormat(String fileName, boolean pretty) {
+		this.fileName = fileName;
+		this.pretty = pretty;
+	}
+
+	/**
+	 * @return the name of chrysalis files written in this format
+	 */
+	public String fileName() {
+		return fileName;
+	}
+	
+	/**
+	 * @return true if chrysalis files in this format are compressed
+	 */
+	public boolean isCompressed() {
+		return this == JSON_GZIP || this == JSON_DEFLATE;
+	}
+
+	/**
+	 * Writes the given chrysalis to a file in this format, replacing the file if it exists.
+	 * <p>
+	 * JSON is streamed through a {@link JsonWriter}, so the serialized form is never held
+	 * in memory as a whole.
+	 * </p>
+	 */
+	void write(Chrysalis chrysalis, Path file) throws IOException {
+		try(OutputStream out = encode(Files.newOutputStream(file))) {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+			JsonWriter json = pretty ? Weaver.GSON.newJsonWriter(writer) : new JsonWriter(writer);
+			SERIALIZER.write(json, chrysalis);
+			json.flush();
+		}
+	}
+	
+	/**
+	 * Reads a chrysalis file written in this format.
+	 * 
+	 * @param scope the relative path of the subtree to keep, or null to read everything
+	 */
+	Chrysalis read(Path file, Path scope) throws IOException {
+		try(InputStream in = decode(Files.newInputStream(file))) {
+			JsonReader json = Weaver.GSON.newJsonReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE));
+			return (scope == null ? SERIALIZER : new ChrysalisSerializer(scope)).read(json);
+		}
+		catch(IllegalStateException | MalformedJsonException e) {
+			throw new JsonSyntaxException(e);
+		}
+	}
+	
+	/**
+	 * Reads the schema of a chrysalis file written in this format, without parsing the
+	 * rest of it.
+	 */
+	int schema(Path file) throws IOException {
+		try(InputStream in = decode(Files.newInputStream(file))) {
+			return ChrysalisSerializer.readSchema(Weaver.GSON.newJsonReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+		}
+		catch(IllegalStateException | MalformedJsonException | NumberFormatException e) {
+			throw new JsonSyntaxException(e);
+		}
+	}
+	
+	/**
+	 * Wraps the raw file output in this format's compression, if any.
+	 */
+	OutputStream encode(OutputStream out) throws IOException {
+		return out;
+	}
+	
+	/**
+	 * Wraps the raw file input in this format's decompression, if any.
+	 */
+	InputStream decode(InputStream in) throws IOException {
+		return in;
+	}
+
+	/**
+	 * Detects the format of an existing chrysalis file from its content.
+	 * <p>
+	 * {@link #JSON} and {@link #JSON_COMPACT} cannot be told apart and are read the same
+	 * way, so uncompressed JSON is always reported as {@link #JSON}.
+	 * </p>
+	 *
+	 * @param file the chrysalis file
+	 * @return the format the file is written in
+	 * @throws IOException if the file cannot be read
+	 */
+	public static ChrysalisFormat detect(Path file) throws IOException {
+		byte[] header = new byte[ChrysalisBinarySerializer.MAGIC.length];
+		int read;
+		try(InputStream in = Files.newInputStream(file)) {
+			read = in.readNBytes(header, 0, header.length);
+		}
+		if(read == header.length && ChrysalisBinarySerializer.isBinary(header)) {
+			return BINARY;
+		}
+		if(read >= 2) {
+			int b0 = header[0] & 0xFF;
+			int b1 = header[1] & 0xFF;
+			if(b0 == 0x1F && b1 == 0x8B) {
+				return JSON_GZIP;
+			}
+			if((b0 & 0x0F) == Deflater.DEFLATED && ((b0 << 8) | b1) % 31 == 0) {
+				return JSON_DEFLATE;
+			}
+		}
+		return JSON;
+	}
+
+}
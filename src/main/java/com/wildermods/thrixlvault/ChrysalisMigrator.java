@@ -0,0 +1,301 @@
+package com.wildermods.thrixlvault;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.TreeMultimap;
+import com.wildermods.masshash.Hash;
+
+/**
+ * Rewrites every chrysalis file of a {@link Vault} in the current schema
+ * ({@value ChrysalisSerializer#SCHEMA}), so that loading them no longer goes through
+ * the legacy parsing paths of {@link ChrysalisSerializer}.
+ *
+ * <p>
+ * While migrating, the size of every blob is recorded from the blob files in the vault,
+ * and the absolute paths of schema 0 chrysalises are made relative to the directory the
+ * version was downloaded to (see {@link #installDir(Path)}).
+ * </p>
+ *
+ * <p>
+ * Files are migrated in parallel and each one is written atomically, in the format it was
+ * already stored in. Files already in the current schema are skipped, so an interrupted
+ * migration resumes where it stopped when run again. A file which fails to migrate is left
+ * untouched and reported in the returned {@link Summary}.
+ * </p>
+ */
+public class ChrysalisMigrator {
+
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private final Vault vault;
+	private Path installDir = SteamDownloader.DEFAULT_APP_INSTALL_DIR;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	public ChrysalisMigrator(Vault vault) {
+		this.vault = vault;
+	}
+
+	/**
+	 * Sets the directory the absolute paths of schema 0 chrysalises are relative to.
+	 * Defaults to {@link SteamDownloader#DEFAULT_APP_INSTALL_DIR}, which every version
+	 * was downloaded to when schema 0 was current.
+	 */
+	public ChrysalisMigrator installDir(Path installDir) {
+		this.installDir = installDir;
+		return this;
+	}
+
+	/**
+	 * Sets the number of files migrated at the same time.
+	 */
+	public ChrysalisMigrator parallelism(int parallelism) {
+		if(parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Migrates every chrysalis file in the vault which is not in the current schema.
+	 *
+	 * @return a summary of the migration
+	 * @throws IOException if the vault cannot be searched for chrysalis files
+	 * @throws InterruptedException if interrupted while waiting for the migration to finish.
+	 * Files which were already migrated stay migrated.
+	 */
+	public Summary migrate() throws IOException, InterruptedException {
+		List<Path> files = findChrysalisFiles();
+		Summary summary = new Summary(files.size());
+		LOGGER.info("Migrating " + files.size() + " chrysalis files in " + vault.vaultDir + " to schema " + ChrysalisSerializer.SCHEMA);
+
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		try {
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for(Path file : files) {
+				tasks.add(() -> {
+					migrate(file, summary);
+					return null;
+				});
+			}
+			executor.invokeAll(tasks);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		LOGGER.info(summary);
+		return summary;
+	}
+
+	private void migrate(Path file, Summary summary) {
+		try {
+			ChrysalisFormat format = ChrysalisFormat.detect(file);
+			if(format.fileName().equals(vault.getFormat().fileName())) {
+				format = vault.getFormat(); //keep compact JSON compact
+			}
+
+			int schema = format.schema(file);
+			if(schema >= ChrysalisSerializer.SCHEMA) {
+				summary.upToDate.incrementAndGet();
+				return;
+			}
+
+			Chrysalis chrysalis = Chrysalis.fromFile(file);
+			if(schema == 0) {
+				relativize(chrysalis);
+			}
+			summary.missingBlobs.addAndGet(recordSizes(chrysalis));
+
+			Vault.writeAtomically(format, chrysalis, file);
+			ChrysalisCache cache = vault.getCache();
+			if(cache != null) {
+				cache.invalidate(file);
+			}
+			summary.migrated.computeIfAbsent(schema, (s) -> new AtomicInteger()).incrementAndGet();
+			LOGGER.debug("Migrated " + file + " from schema " + schema);
+		}
+		catch(Throwable t) {
+			summary.failures.put(file, t);
+			LOGGER.error("Could not migrate " + file, t);
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private void relativize(Chrysalis chrysalis) throws IOException {
+		TreeMultimap<Hash, Path> relativized = TreeMultimap.create(ChrysalisSerializer.HASH_ORDER, Ordering.natural());
+		synchronized(chrysalis.blobs()) {
+			for(Map.Entry<Hash, Path> entry : chrysalis.blobs().entries()) {
+				Path path = entry.getValue();
+				if(path.isAbsolute()) {
+					if(!path.startsWith(installDir)) {
+						throw new IOException("Path " + path + " is not located in the install directory " + installDir);
+					}
+					path = installDir.relativize(path);
+				}
+				relativized.put(entry.getKey(), path);
+			}
+		}
+		chrysalis.setBlobs(Multimaps.synchronizedSetMultimap(relativized));
+	}
+
+	/**
+	 * Records the size of every blob file present in the vault.
+	 *
+	 * @return the number of blobs which are missing from the vault
+	 */
+	private int recordSizes(Chrysalis chrysalis) throws IOException {
+		Map<String, Long> sizes = new HashMap<>();
+		int missing = 0;
+		for(Hash hash : Set.copyOf(chrysalis.blobs().keySet())) {
+			try {
+				sizes.put(hash.hash(), Files.size(vault.blobDir.resolve(hash.hash())));
+			}
+			catch(NoSuchFileException e) {
+				missing++;
+			}
+		}
+		chrysalis.setSizes(sizes);
+		return missing;
+	}
+
+	/**
+	 * Finds every chrysalis file in the vault, and deletes temporary files left behind
+	 * by interrupted writes.
+	 */
+	private List<Path> findChrysalisFiles() throws IOException {
+		final Set<String> names = Stream.of(ChrysalisFormat.values()).map(ChrysalisFormat::fileName).collect(Collectors.toSet());
+		final List<Path> files = new ArrayList<>();
+		Files.walkFileTree(vault.vaultDir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				return dir.equals(vault.blobDir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				String name = file.getFileName().toString();
+				if(names.contains(name)) {
+					files.add(file);
+				}
+				else if(name.endsWith(".tmp") && names.contains(name.substring(0, name.length() - 4))) {
+					LOGGER.warn("Deleting incomplete chrysalis file " + file);
+					Files.delete(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return files;
+	}
+
+	/**
+	 * The outcome of {@link ChrysalisMigrator#migrate()}.
+	 */
+	public static final class Summary {
+
+		private final int found;
+		private final AtomicInteger upToDate = new AtomicInteger();
+		private final AtomicInteger missingBlobs = new AtomicInteger();
+		private final Map<Integer, AtomicInteger> migrated = new ConcurrentHashMap<>();
+		private final Map<Path, Throwable> failures = new ConcurrentHashMap<>();
+
+		private Summary(int found) {
+			this.found = found;
+		}
+
+		/**
+		 * @return the number of chrysalis files found in the vault
+		 */
+		public int getFound() {
+			return found;
+		}
+
+		/**
+		 * @return the number of chrysalis files which were already in the current schema
+		 */
+		public int getUpToDate() {
+			return upToDate.get();
+		}
+
+		/**
+		 * @return the number of chrysalis files which were migrated
+		 */
+		public int getMigrated() {
+			return migrated.values().stream().mapToInt(AtomicInteger::get).sum();
+		}
+
+		/**
+		 * @return the number of chrysalis files migrated from the given schema
+		 */
+		public int getMigrated(int fromSchema) {
+			AtomicInteger count = migrated.get(fromSchema);
+			return count == null ? 0 : count.get();
+		}
+
+		/**
+		 * @return the number of blobs referenced by migrated chrysalises which were missing
+		 * from the vault, and whose size could therefore not be recorded
+		 */
+		public int getMissingBlobs() {
+			return missingBlobs.get();
+		}
+
+		/**
+		 * @return the chrysalis files which could not be migrated, and why
+		 */
+		public Map<Path, Throwable> getFailures() {
+			return Collections.unmodifiableMap(failures);
+		}
+
+		public boolean isSuccessful() {
+			return failures.isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder("Migration summary: ");
+			builder.append(found).append(" chrysalis files found, ");
+			builder.append(getUpToDate()).append(" already up to date, ");
+			builder.append(getMigrated()).append(" migrated");
+			if(!migrated.isEmpty()) {
+				builder.append(" (");
+				builder.append(migrated.entrySet().stream()
+					.sorted(Map.Entry.comparingByKey())
+					.map((entry) -> entry.getValue().get() + " from schema " + entry.getKey())
+					.collect(Collectors.joining(", ")));
+				builder.append(")");
+			}
+			builder.append(", ").append(failures.size()).append(" failed");
+			if(getMissingBlobs() != 0) {
+				builder.append(". ").append(getMissingBlobs()).append(" referenced blobs are missing from the vault");
+			}
+			return builder.toString();
+		}
+
+	}
+
+}
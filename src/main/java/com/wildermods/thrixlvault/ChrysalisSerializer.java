@@ -4,12 +4,17 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
-
+import java.util.OptionalLong;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Ordering;
@@ -21,10 +26,38 @@ import com.google.gson.stream.JsonWriter;
 import com.wildermods.masshash.BlobFactory;
 import com.wildermods.masshash.Hash;
 import com.wildermods.masshash.utils.ByteUtil;
+import com.wildermods.thrixlvault.utils.XXHash64;
 
 public class ChrysalisSerializer extends TypeAdapter<Chrysalis>{
 	
-	private static final int SCHEMA = 2;
+	static final int SCHEMA = 3;
+	
+	/** The number of paths from which the paths of the "blobs" object are parsed in parallel. */
+	static final int PARALLEL_THRESHOLD = 8192;
+	
+	/** The algorithm of schemas 0 and 1, which predate the "algorithm" entry. */
+	static final String LEGACY_ALGORITHM = "SHA-1";
+	
+	static final Comparator<Hash> HASH_ORDER = Comparator.comparing(Hash::hash);
+	
+	/** The subtree to keep when reading, normalized to use '/' as the separator. Null to keep everything. */
+	private final String scope;
+	
+	public ChrysalisSerializer() {
+		this.scope = null;
+	}
+	
+	/**
+	 * Creates a serializer which only keeps the entries located under the given
+	 * relative path when reading. Hashes, sizes and checksums of blobs which are
+	 * only used outside of the scope are skipped without being materialized.
+	 * 
+	 * @param scope the relative path of the subtree to keep, such as {@code scripts}
+	 * or {@code wildermyth.jar}
+	 */
+	public ChrysalisSerializer(Path scope) {
+		this.scope = normalizeScope(scope);
+	}
 	
 	@Override
 	public void write(JsonWriter out, Chrysalis value) throws IOException {
@@ -49,6 +82,43 @@ public class ChrysalisSerializer extends TypeAdapter<Chrysalis>{
 				}
 			}
 			out.endObject();
+			
+			out.name("sizes");
+			out.beginObject();
+			{
+				for(Hash hash : value.blobs().keySet()) {
+					OptionalLong size = value.size(hash);
+					if(size.isPresent()) {
+						out.name(hash.hash());
+						out.value(size.getAsLong());
+					}
+				}
+			}
+			out.endObject();
+			
+			if(!value.checksums().isEmpty()) {
+				out.name("checksums");
+				out.beginObject();
+				{
+					for(Hash hash : value.blobs().keySet()) {
+						OptionalLong checksum = value.checksum(hash);
+						if(checksum.isPresent()) {
+							out.name(hash.hash());
+							out.value(XXHash64.toHex(checksum.getAsLong()));
+						}
+					}
+				}
+				out.endObject();
+			}
+			
+			out.name("executables");
+			out.beginArray();
+			{
+				for(Path path : new TreeSet<>(value.executables())) {
+					out.value(path.toString());
+				}
+			}
+			out.endArray();
 		}
 		out.endObject();
 	}
@@ -67,66 +137,231 @@ public class ChrysalisSerializer extends TypeAdapter<Chrysalis>{
 				schema = in.nextInt();
 			}
 			else {
+				ret.factory(factory(LEGACY_ALGORITHM));
 				return parseSchema_0(ret, in, Hash.of(name));
 			}
+			if(schema > SCHEMA) {
+				throw new JsonParseException("Future schema version detected. Schema " + schema + " found, but we are on " + SCHEMA);
+			}
 		}
 		
-		String algorithm;
 		if(schema == 1) {
-			 algorithm = "SHA-1";
+			ret.factory(factory(LEGACY_ALGORITHM));
 		}
 		else {
 			String name = in.nextName();
 			if(name.equals("algorithm")) {
-				algorithm = in.nextString();
-				try {
-					ret.factory(new BlobFactory(
-						ByteUtil.consume.apply(MessageDigest.getInstance(algorithm))
-					));
-				} catch (NoSuchAlgorithmException e) {
-					throw new IOException(e);
-				}
-				
+				ret.factory(factory(in.nextString()));
 			}
 			else {
 				throw new JsonParseException("Expected 'algorithm', got " + name);
 			}
 		}
 		
+		final Set<String> hashesInScope = new HashSet<>();
+		
 		in.nextName();
-		in.beginObject();
 		{
-			Map<Hash, Set<Path>> temp = new HashMap<>();
-			
+			//Every hash shares one supplier, which defers to the factory of the chrysalis being built
+			final Supplier<MessageDigest> digest = () -> ret.getBlobFactory().digest.get();
+			TreeMultimap<Hash, Path> sorted = TreeMultimap.create(HASH_ORDER, Ordering.natural());
+			readBlobs(in, digest, sorted, scope == null ? null : hashesInScope);
+			ret.setBlobs(Multimaps.synchronizedSetMultimap(sorted));
+		}
+		
+		//Optional metadata introduced in schema 3. Unknown entries are skipped
+		//so that additional metadata does not require a schema bump.
+		while(in.hasNext()) {
+			String name = in.nextName();
+			switch(name) {
+				case "sizes":
+					Map<String, Long> sizes = new ConcurrentHashMap<>();
+					in.beginObject();
+					while(in.hasNext()) {
+						String hash = in.nextName();
+						if(scope == null || hashesInScope.contains(hash)) {
+							sizes.put(hash, in.nextLong());
+						}
+						else {
+							in.skipValue();
+						}
+					}
+					in.endObject();
+					ret.setSizes(sizes);
+					break;
+				case "checksums":
+					Map<String, Long> checksums = new ConcurrentHashMap<>();
+					in.beginObject();
+					while(in.hasNext()) {
+						String hash = in.nextName();
+						if(scope == null || hashesInScope.contains(hash)) {
+							checksums.put(hash, XXHash64.fromHex(in.nextString()));
+						}
+						else {
+							in.skipValue();
+						}
+					}
+					in.endObject();
+					ret.setChecksums(checksums);
+					break;
+				case "executables":
+					Set<Path> executables = ConcurrentHashMap.newKeySet();
+					in.beginArray();
+					while(in.hasNext()) {
+						String path = in.nextString();
+						if(inScope(path)) {
+							executables.add(Path.of(path));
+						}
+					}
+					in.endArray();
+					ret.setExecutables(executables);
+					break;
+				default:
+					in.skipValue();
+			}
+		}
+		in.endObject();
+		
+		return ret;
+	}
+
+	/**
+	 * Reads the "blobs" object straight into the final sorted multimap.
+	 * <p>
+	 * Hashes and path strings are collected into flat arrays while the object is tokenized.
+	 * Parsing the paths is the most expensive part of loading a large chrysalis, so once
+	 * there are at least {@link #PARALLEL_THRESHOLD} paths, they are parsed in parallel
+	 * chunks before being inserted in file order.
+	 * </p>
+	 * 
+	 * @param hashesInScope receives the name of every hash with a path in scope, or null if not needed
+	 */
+	private void readBlobs(JsonReader in, Supplier<MessageDigest> digest, TreeMultimap<Hash, Path> blobs, Set<String> hashesInScope) throws IOException {
+		Hash[] hashes = new Hash[64];
+		int[] ends = new int[64];
+		String[] paths = new String[256];
+		int hashCount = 0;
+		int pathCount = 0;
+		
+		in.beginObject();
+		while(in.hasNext()) {
+			String name = in.nextName();
+			int start = pathCount;
+			in.beginArray();
 			while(in.hasNext()) {
-				Hash hash = Hash.of(() -> {
-					return ret.getBlobFactory().digest.get();
-				}, in.nextName());
-				in.beginArray();
-				Set<Path> paths = temp.computeIfAbsent(hash, set -> new HashSet<>());
-				while(in.hasNext()) {
-					paths.add(Path.of(in.nextString()));
+				String path = in.nextString();
+				if(!inScope(path)) {
+					continue;
 				}
-				in.endArray();
+				if(pathCount == paths.length) {
+					paths = Arrays.copyOf(paths, pathCount * 2);
+				}
+				paths[pathCount++] = path;
 			}
-			in.endObject();
+			in.endArray();
 			
-			// Sort and build the final TreeMultimap
-			TreeMultimap<Hash, Path> sorted = TreeMultimap.create(
-				Comparator.comparing(Hash::hash),
-				Ordering.natural()
-			);
-			for (Map.Entry<Hash, Set<Path>> entry : temp.entrySet()) {
-				sorted.putAll(entry.getKey(), entry.getValue());
+			if(pathCount != start) {
+				if(hashCount == hashes.length) {
+					hashes = Arrays.copyOf(hashes, hashCount * 2);
+					ends = Arrays.copyOf(ends, hashCount * 2);
+				}
+				hashes[hashCount] = Hash.of(digest, name);
+				ends[hashCount++] = pathCount;
+				if(hashesInScope != null) {
+					hashesInScope.add(name);
+				}
 			}
-			ret.setBlobs(Multimaps.synchronizedSetMultimap(sorted));
 		}
 		in.endObject();
 		
-		return ret;
+		final Path[] parsed = new Path[pathCount];
+		final String[] pathStrings = paths;
+		IntStream indices = IntStream.range(0, pathCount);
+		if(pathCount >= PARALLEL_THRESHOLD) {
+			indices = indices.parallel();
+		}
+		indices.forEach((i) -> parsed[i] = Path.of(pathStrings[i]));
+		
+		for(int h = 0, p = 0; h < hashCount; h++) {
+			for(int end = ends[h]; p < end; p++) {
+				blobs.put(hashes[h], parsed[p]);
+			}
+		}
+	}
+	
+	/**
+	 * Reads the schema of a serialized chrysalis without parsing the rest of it.
+	 * 
+	 * @return the schema, or 0 if the chrysalis predates schema numbers
+	 */
+	static int readSchema(JsonReader in) throws IOException {
+		in.beginObject();
+		if(in.hasNext() && in.nextName().equals("schema")) {
+			return in.nextInt();
+		}
+		return 0;
+	}
+	
+	private static BlobFactory factory(String algorithm) throws IOException {
+		try {
+			return new BlobFactory(ByteUtil.consume.apply(MessageDigest.getInstance(algorithm)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	private boolean inScope(String path) {
+		return inScope(scope, path);
 	}
-
 	
+	/**
+	 * Normalizes a scope for use with {@link #inScope(String, String)}.
+	 * 
+	 * @return the scope using '/' as separator, or null if the scope covers everything
+	 */
+	static String normalizeScope(Path scope) {
+		if(scope == null) {
+			return null;
+		}
+		if(scope.isAbsolute()) {
+			throw new IllegalArgumentException("Scope must be a relative path: " + scope);
+		}
+		String normalized = scope.normalize().toString().replace('\\', '/');
+		while(normalized.endsWith("/")) {
+			normalized = normalized.substring(0, normalized.length() - 1);
+		}
+		return normalized.isEmpty() ? null : normalized;
+	}
+	
+	/**
+	 * Checks whether a serialized path lies within a normalized scope, without creating a
+	 * {@link Path}. Both separators are accepted, since the separator of serialized
+	 * paths depends on the operating system that wrote them.
+	 */
+	static boolean inScope(String scope, String path) {
+		if(scope == null) {
+			return true;
+		}
+		if(path.length() < scope.length()) {
+			return false;
+		}
+		for(int i = 0; i < scope.length(); i++) {
+			char c = path.charAt(i);
+			if(c == '\\') {
+				c = '/';
+			}
+			if(c != scope.charAt(i)) {
+				return false;
+			}
+		}
+		if(path.length() == scope.length()) {
+			return true;
+		}
+		char next = path.charAt(scope.length());
+		return next == '/' || next == '\\';
+	}
+	
+	//Schema 0 stored absolute paths, so scopes are not applied to it.
 	@SuppressWarnings("deprecation")
 	static Chrysalis parseSchema_0(Chrysalis ret, JsonReader reader, Hash firstHash) throws IOException {
 		Map<Hash, Set<Path>> temp = new HashMap<>();
@@ -152,10 +387,7 @@ public class ChrysalisSerializer extends TypeAdapter<Chrysalis>{
 		}
 		reader.endObject();
 		
-		TreeMultimap<Hash, Path> sorted = TreeMultimap.create(
-			Comparator.comparing(Hash::hash),
-			Ordering.natural()
-		);
+		TreeMultimap<Hash, Path> sorted = TreeMultimap.create(HASH_ORDER, Ordering.natural());
 		for (Map.Entry<Hash, Set<Path>> entry : temp.entrySet()) {
 			sorted.putAll(entry.getKey(), entry.getValue());
 		}
@@ -1,17 +1,34 @@
 package com.wildermods.thrixlvault;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystemAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.OptionalLong;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
 import java.util.concurrent.Future;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -22,7 +39,6 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.SetMultimap;
-import com.wildermods.masshash.Blob;
 import com.wildermods.masshash.BlobFactory;
 import com.wildermods.masshash.Hash;
 import com.wildermods.masshash.exception.IntegrityException;
@@ -34,7 +50,10 @@ import com.wildermods.thrixlvault.exception.DatabaseMissingBlobError;
 import com.wildermods.thrixlvault.exception.MissingResourceException;
 import com.wildermods.thrixlvault.exception.MissingVersionException;
 import com.wildermods.thrixlvault.exception.UnknownVersionException;
+import com.wildermods.thrixlvault.fs.VaultFileSystem;
+import com.wildermods.thrixlvault.fs.VaultFileSystemProvider;
 import com.wildermods.thrixlvault.steam.IVaultable;
+import com.wildermods.thrixlvault.utils.XXHash64;
 
 /**
  * Represents an artifact stored in a {@link Vault} along with its computed {@link Chrysalis}.
@@ -61,9 +80,18 @@ public class ChrysalisizedVault extends Vault implements IVaultable {
 
 	static final Logger LOGGER = LogManager.getLogger();
 	
+	/** Runs the asynchronous variants of blocking operations. */
+	private static final ExecutorService ASYNC = Executors.newCachedThreadPool((runnable) -> {
+		Thread thread = new Thread(runnable, "thrixlvault-async");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
 	final IVaultable artifact;
-	final Chrysalis chrysalis;
+	volatile Chrysalis chrysalis; //replaced by a new chrysalis when it is rewritten
+	final Path scope;
 	final Marker marker;
+	private volatile Map<Path, Hash> files; //built on first use
 	
 	
 	/**
@@ -88,9 +116,35 @@ public class ChrysalisizedVault extends Vault implements IVaultable {
 	 * @throws IOException if an I/O error occurs while initializing the vault
 	 */
 	ChrysalisizedVault(IVaultable artifact, Vault parent, Chrysalis chrysalis) throws IOException {
+		this(artifact, parent, chrysalis, null);
+	}
+	
+	/**
+	 * Constructs a ChrysalisizedVault for the given artifact by loading only the part of
+	 * its Chrysalis located under {@code scope}.
+	 *
+	 * @param artifact the versioned artifact
+	 * @param parent the vault containing the artifact
+	 * @param scope the relative path of the file or directory to load
+	 * @throws IOException if an I/O error occurs while reading the chrysalis
+	 * @throws MissingVersionException if the chrysalis file for the artifact is missing
+	 */
+	ChrysalisizedVault(IVaultable artifact, Vault parent, Path scope) throws IOException, MissingVersionException {
+		this(artifact, parent, handleFromFile(artifact, parent, scope), scope);
+	}
+	
+	private ChrysalisizedVault(IVaultable artifact, Vault parent, Chrysalis chrysalis, Path scope) throws IOException {
 		super(parent.vaultDir);
+		setFormat(parent.getFormat());
+		setCache(parent.getCache());
+		setBlobCache(parent.getBlobCache());
+		setScheduler(parent.getScheduler());
+		setAdaptiveConcurrency(parent.getAdaptiveConcurrency());
+		setProgressListener(parent.getProgressListener());
+		setProgressInterval(parent.getProgressInterval());
 		this.chrysalis = chrysalis;
 		this.artifact = artifact;
+		this.scope = scope;
 		this.marker = MarkerManager.getMarker(artifact.name());
 	}
 
@@ -103,6 +157,24 @@ public class ChrysalisizedVault extends Vault implements IVaultable {
 		return chrysalis;
 	}
 	
+	/**
+	 * Returns the subtree this vault was loaded with.
+	 *
+	 * @return the relative path this vault is scoped to, or {@code null} if the
+	 *         whole chrysalis was loaded
+	 */
+	public Path getScope() {
+		return scope;
+	}
+	
+	/**
+	 * @return true if only part of the chrysalis was loaded. Scoped vaults can
+	 * verify and export their subtree but never rewrite or delete the chrysalis file.
+	 */
+	public boolean isScoped() {
+		return scope != null;
+	}
+	
 	/**
 	 * Verifies that all blobs in this artifact exist in the vault and are uncorrupted.
 	 *
@@ -111,36 +183,43 @@ public class ChrysalisizedVault extends Vault implements IVaultable {
 	 * @throws DatabaseIntegrityError if any blob is missing or corrupted
 	 */
 	public void verifyBlobs() throws InterruptedException, ExecutionException {
-		LOGGER.info(marker, "Verifying " + artifact);
+		verifyBlobs(VerificationLevel.FULL);
+	}
+	
+	/**
+	 * Verifies that all blobs in this artifact exist in the vault and pass the
+	 * checks of the given {@link VerificationLevel}.
+	 *
+	 * @param level how thoroughly each blob is checked
+	 * 
+	 * @throws InterruptedException if the verification is interrupted
+	 * @throws ExecutionException if a verification task fails
+	 * @throws DatabaseIntegrityError if any blob is missing or corrupted
+	 */
+	public void verifyBlobs(VerificationLevel level) throws InterruptedException, ExecutionException {
+		verifyBlobs(level, null);
+	}
+	
+	/**
+	 * Verifies the blobs of this artifact like {@link #verifyBlobs(VerificationLevel)},
+	 * passing the outcome of every blob to {@code events} as soon as it is known.
+	 *
+	 * @param events receives an event for every blob from the verifying threads, or null
+	 */
+	void verifyBlobs(VerificationLevel level, Consumer<BlobEvent> events) throws InterruptedException, ExecutionException {
+		LOGGER.info(marker, "Verifying " + artifact + " (" + level + ")");
+		warnIfMetadataMissing(level);
 		final SetMultimap<Hash, IntegrityProblem> problems = Multimaps.synchronizedSetMultimap(HashMultimap.create());
 
 		final BlobFactory factory = chrysalis.getBlobFactory();
-		computeOverBlobs((hash, vaultDir, chrysalis) -> {
-			Path blobFile = vaultDir.resolve(hash.hash());
-			try {
-				if (!Files.exists(blobFile)) {
-					String msg = "Missing blob - " + hash + " (" + blobFile + ")";
-					DatabaseMissingBlobError err = new DatabaseMissingBlobError(msg);
-					throw err;
-				}
-				
-				try {
-					factory.blob(blobFile, hash).verify();
-				}
-				catch(IntegrityException e) {
-					throw new DatabaseIntegrityError("Corrupted blob - " + e.getMessage(), e);
-				}
+		computeOverBlobs("Verifying blobs of " + name(), (hash, vaultDir, chrysalis) -> {
+			long start = System.nanoTime();
+			DatabaseError problem = verifyBlob(factory, hash, chrysalis.size(hash), chrysalis.checksum(hash), vaultDir.resolve(hash.hash()), level);
+			if(problem != null) {
+				problems.put(hash, DatabaseProblem.fromThrown(problem));
 			}
-			catch (Throwable t) {
-				String msg = "Failed to read blob " + hash + "due to: " + t.getMessage();
-				DatabaseError err;
-				if(t instanceof DatabaseError) {
-					err = (DatabaseError) t;
-				}
-				else {
-					err = new DatabaseError(msg, t);
-				}
-				problems.put(hash, DatabaseProblem.fromThrown(err));
+			if(events != null) {
+				events.accept(new BlobEvent(hash, problem, chrysalis.size(hash).orElse(-1), Duration.ofNanos(System.nanoTime() - start)));
 			}
 		});
 
@@ -178,18 +257,35 @@ public class ChrysalisizedVault extends Vault implements IVaultable {
 	 * @throws ExecutionException if a verification task fails
 	 */
 	public void verifyDirectory(Path path, boolean verifyDatabase) throws InterruptedException, IntegrityException, ExecutionException {
+		verifyDirectory(path, verifyDatabase, VerificationLevel.FULL);
+	}
+	
+	/**
+	 * Verifies that all files in the given directory pass the checks of the
+	 * given {@link VerificationLevel}.
+	 *
+	 * @param path the directory containing the files to verify
+	 * @param verifyDatabase whether to verify the vault's blobs first, at the same level
+	 * @param level how thoroughly each file is checked
+	 * 
+	 * @throws InterruptedException if verification is interrupted
+	 * @throws IntegrityException if any file is missing or fails verification
+	 * @throws ExecutionException if a verification task fails
+	 */
+	public void verifyDirectory(Path path, boolean verifyDatabase, VerificationLevel level) throws InterruptedException, IntegrityException, ExecutionException {
 		final SetMultimap<Hash, IntegrityProblem> problems = Multimaps.synchronizedSetMultimap(HashMultimap.create());
 		
-		LOGGER.info(marker, "Verifying " + path);
+		LOGGER.info(marker, "Verifying " + path + " (" + level + ")");
 		
 		if(verifyDatabase) {
-			verifyBlobs();
+			verifyBlobs(level);
 		}
 		else {
 			LOGGER.warn(marker, "Skipping database verification.");
+			warnIfMetadataMissing(level);
 		}
 		final BlobFactory factory = chrysalis.getBlobFactory();
-		computeOverBlobs((hash, vaultDir, chrysalis) -> {
+		computeOverBlobs("Verifying " + path, path, (hash, vaultDir, chrysalis) -> {
 			Set<Path> resources = chrysalis.blobs().get(hash);
 			
 			for(Path localizedResource : resources) {
@@ -198,7 +294,15 @@ public class ChrysalisizedVault extends Vault implements IVaultable {
 					if(!Files.exists(resource)) {
 						throw new MissingResourceException("Missing Resource - " + hash + " (" + resource + ")");
 					}
-					factory.blob(resource, hash).verify();
+					if(level == VerificationLevel.METADATA) {
+						verifySize(hash, resource);
+					}
+					else if(level == VerificationLevel.CHECKSUM && chrysalis.checksum(hash).isPresent()) {
+						verifyChecksum(hash, resource);
+					}
+					else { //FULL, or CHECKSUM without a recorded checksum
+						factory.blob(resource, hash).verify();
+					}
 				}
 				catch(Throwable t) {
 					if(t instanceof IntegrityException) {
@@ -224,11 +328,153 @@ public class ChrysalisizedVault extends Vault implements IVaultable {
 		}
 	}
 	
+	/**
+	 * Checks a single blob file of the vault at the given {@link VerificationLevel}.
+	 *
+	 * @param factory the factory producing the blob's {@link Hash}
+	 * @param size the recorded size of the blob, if any
+	 * @param checksum the recorded checksum of the blob, if any
+	 * @return null if the blob is valid, otherwise the problem found
+	 */
+	static DatabaseError verifyBlob(BlobFactory factory, Hash hash, OptionalLong size, OptionalLong checksum, Path blobFile, VerificationLevel level) {
+		try {
+			if (!Files.exists(blobFile)) {
+				String msg = "Missing blob - " + hash + " (" + blobFile + ")";
+				DatabaseMissingBlobError err = new DatabaseMissingBlobError(msg);
+				throw err;
+			}
+			
+			try {
+				if(level == VerificationLevel.METADATA) {
+					verifySize(hash, size, blobFile);
+				}
+				else if(level == VerificationLevel.CHECKSUM && checksum.isPresent()) {
+					verifyChecksum(hash, checksum.getAsLong(), blobFile);
+				}
+				else { //FULL, or CHECKSUM without a recorded checksum
+					factory.blob(blobFile, hash).verify();
+				}
+			}
+			catch(IntegrityException e) {
+				throw new DatabaseIntegrityError("Corrupted blob - " + e.getMessage(), e);
+			}
+			return null;
+		}
+		catch (Throwable t) {
+			String msg = "Failed to read blob " + hash + "due to: " + t.getMessage();
+			if(t instanceof DatabaseError) {
+				return (DatabaseError) t;
+			}
+			return new DatabaseError(msg, t);
+		}
+	}
+	
+	private void verifySize(Hash hash, Path file) throws IOException, IntegrityException {
+		verifySize(hash, chrysalis.size(hash), file);
+	}
+	
+	private static void verifySize(Hash hash, OptionalLong expected, Path file) throws IOException, IntegrityException {
+		if(expected.isPresent()) {
+			long actual = Files.size(file);
+			if(actual != expected.getAsLong()) {
+				throw new IntegrityException("Expected size " + expected.getAsLong() + " for hash " + hash.hash() + " but got " + actual + " (" + file + ")");
+			}
+		}
+	}
+	
+	private void verifyChecksum(Hash hash, Path file) throws IOException, IntegrityException {
+		verifyChecksum(hash, chrysalis.checksum(hash).getAsLong(), file);
+	}
+	
+	private static void verifyChecksum(Hash hash, long expected, Path file) throws IOException, IntegrityException {
+		long actual = XXHash64.hash(file);
+		if(actual != expected) {
+			throw new IntegrityException("Expected checksum " + XXHash64.toHex(expected) + " for hash " + hash.hash() + " but got " + XXHash64.toHex(actual) + " (" + file + ")");
+		}
+	}
+	
+	private void warnIfMetadataMissing(VerificationLevel level) {
+		if(level == VerificationLevel.METADATA && !chrysalis.hasSizes()) {
+			LOGGER.warn(marker, "Chrysalis of " + artifact + " has no recorded sizes. Only the existence of files will be verified.");
+		}
+		if(level == VerificationLevel.CHECKSUM && !chrysalis.hasChecksums()) {
+			LOGGER.warn(marker, "Chrysalis of " + artifact + " is missing checksums for some blobs. Those blobs will be fully hashed.");
+		}
+	}
+	
+	/**
+	 * Computes and records an {@link XXHash64} checksum for every blob of this artifact
+	 * that does not have one yet, then rewrites the chrysalis file.
+	 * <p>
+	 * Each blob is read once. Its cryptographic hash is verified in the same pass, so
+	 * a checksum is never recorded for corrupted content.
+	 * </p>
+	 * <p>
+	 * The checksums are recorded in a copy of the chrysalis, which replaces the chrysalis
+	 * of this vault once it has been written. Other vaults sharing the previous chrysalis
+	 * are not affected, and nothing changes if a blob fails.
+	 * </p>
+	 *
+	 * @throws InterruptedException if the operation is interrupted
+	 * @throws ExecutionException if a blob cannot be read
+	 * @throws IOException if the chrysalis file cannot be written
+	 * @throws DatabaseIntegrityError if any blob is missing or corrupted
+	 */
+	public void recordChecksums() throws InterruptedException, ExecutionException, IOException {
+		checkUnscoped("record checksums");
+		LOGGER.info(marker, "Recording checksums for " + artifact);
+		final SetMultimap<Hash, IntegrityProblem> problems = Multimaps.synchronizedSetMultimap(HashMultimap.create());
+		final Chrysalis original = this.chrysalis;
+		final String algorithm = original.getBlobFactory().algorithm();
+		final Map<String, Long> checksums = new ConcurrentHashMap<>();
+		computeOverBlobs("Recording checksums of " + name(), (hash, vaultDir, chrysalis) -> {
+			if(chrysalis.checksum(hash).isPresent()) {
+				return;
+			}
+			Path blobFile = vaultDir.resolve(hash.hash());
+			try {
+				if (!Files.exists(blobFile)) {
+					throw new DatabaseMissingBlobError("Missing blob - " + hash + " (" + blobFile + ")");
+				}
+				MessageDigest digest = MessageDigest.getInstance(algorithm);
+				XXHash64 checksum = new XXHash64();
+				ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+				try(FileChannel channel = FileChannel.open(blobFile, StandardOpenOption.READ)) {
+					while(channel.read(buffer) != -1) {
+						buffer.flip();
+						digest.update(buffer.array(), 0, buffer.limit());
+						checksum.update(buffer);
+						buffer.clear();
+					}
+				}
+				String actual = HexFormat.of().formatHex(digest.digest());
+				if(!actual.equalsIgnoreCase(hash.hash())) {
+					throw new DatabaseIntegrityError("Corrupted blob - Expected hash " + hash.hash() + " but got " + actual);
+				}
+				checksums.put(hash.hash(), checksum.digest());
+			}
+			catch(Throwable t) {
+				problems.put(hash, DatabaseProblem.fromThrown(t instanceof DatabaseError ? t : new DatabaseError("Failed to read blob " + hash + " due to: " + t.getMessage(), t)));
+			}
+		});
+		
+		if(problems.size() != 0) {
+			throw new DatabaseIntegrityError("Could not record checksums", problems.values().toArray(new IntegrityProblem[]{}));
+		}
+		
+		final Chrysalis updated = original.clone();
+		updated.checksums().putAll(checksums);
+		Path chrysalisFile = writeChrysalis(artifact, updated);
+		this.chrysalis = updated;
+		LOGGER.info(marker, "Recorded " + checksums.size() + " checksums for " + artifact + " in " + chrysalisFile);
+	}
+	
 	/**
 	 * Iterates over all blobs in the artifact and applies the given {@link HashTask}.
 	 *
-	 * <p>This method processes blobs in parallel using a thread pool
-	 * sized according to the number of available processors.</p>
+	 * <p>Blobs are processed in parallel on this vault's {@link BlobScheduler}, with a
+	 * bounded number of batches in flight, in the scheduler's {@link BlobScheduler.Order order}.
+	 * The first failing task cancels the remaining work.</p>
 	 *
 	 * @param hashTask the task to execute for each blob
 	 * 
@@ -236,42 +482,60 @@ public class ChrysalisizedVault extends Vault implements IVaultable {
 	 * @throws ExecutionException if a task throws an exception
 	 */
 	public void computeOverBlobs(HashTask hashTask) throws InterruptedException, ExecutionException {
-	    Multiset<Hash> hashes = chrysalis.blobs().keys();
-	    int threads = Runtime.getRuntime().availableProcessors();
-	    ExecutorService executor = Executors.newFixedThreadPool(threads);
-	    List<Future<Void>> futures = new ArrayList<>();
-
-	    boolean[] terminated = new boolean[] {false};
-	    
-	    try {
-	        for (Hash hash : hashes.elementSet()) {
-	            Future<Void> future = executor.submit(() -> {
-	            	if(!terminated[0]) {
-	            		hashTask.call(hash, blobDir, chrysalis);
-	            	}
-	                return null;
-	            });
-	            futures.add(future);
-	        }
-
-	        for (Future<Void> future : futures) {
-	            try {
-	                future.get(); // this will throw if the task failed
-	            } catch (ExecutionException e) {
-	            	terminated[0] = true;
-	                // Cancel all other tasks
-	                for (Future<Void> f : futures) {
-	                    f.cancel(true);
-	                }
-	                // Shut down and rethrow
-	                executor.shutdownNow();
-	                throw e;
-	            }
-	        }
-	    }
-	    finally {
-	        executor.shutdownNow();
-	    }
+		computeOverBlobs("Processing " + name(), hashTask);
+	}
+	
+	/**
+	 * Iterates over all blobs in the artifact like {@link #computeOverBlobs(HashTask)},
+	 * reporting the progress of the operation to this vault's {@link ProgressListener}.
+	 *
+	 * @param operation a description of the operation, used in progress reports
+	 */
+	void computeOverBlobs(String operation, HashTask hashTask) throws InterruptedException, ExecutionException {
+		computeOverBlobs(operation, blobDir, hashTask);
+	}
+	
+	/**
+	 * Iterates over all blobs in the artifact like {@link #computeOverBlobs(String, HashTask)},
+	 * tuning the concurrency for the file store of {@code device} if adaptive concurrency is
+	 * enabled.
+	 *
+	 * @param device a path on the file store the operation is limited by, such as the
+	 * destination of an export
+	 */
+	void computeOverBlobs(String operation, Path device, HashTask hashTask) throws InterruptedException, ExecutionException {
+		final Chrysalis chrysalis = this.chrysalis;
+		final BlobScheduler scheduler;
+		try {
+			scheduler = getScheduler(device);
+		}
+		catch(IOException e) {
+			throw new ExecutionException(e);
+		}
+		final Set<Hash> hashes = chrysalis.blobs().keySet();
+		long bytes = -1;
+		if(chrysalis.hasSizes()) {
+			bytes = 0;
+			synchronized(chrysalis.blobs()) {
+				for(Hash hash : hashes) {
+					bytes += chrysalis.size(hash).orElse(0);
+				}
+			}
+		}
+		try(ProgressTracker progress = trackProgress(operation, hashes.size(), bytes)) {
+			scheduler.run(
+				hashes,
+				(hash) -> chrysalis.size(hash).orElse(-1),
+				BlobLocality.keys(this, hashes),
+				(hash) -> {
+					hashTask.call(hash, blobDir, chrysalis);
+					progress.add(1, chrysalis.size(hash).orElse(0));
+				}
+			);
+		}
+		finally {
+			saveConcurrency();
+		}
 	}
 
 	/**
@@ -282,26 +546,345 @@ public class ChrysalisizedVault extends Vault implements IVaultable {
 	 * 
 	 * @throws InterruptedException if execution is interrupted
 	 * @throws IntegrityException if any file verification fails
-	 * @throws ExecutionException if a task fails
-	 * @throws IOException if writing to the destination fails
+	 * @throws ExecutionException if a task fails, or writing to the destination fails
 	 */
 	public void export(Path destDir, boolean verifyBlobs) throws InterruptedException, IntegrityException, ExecutionException {
-		if(verifyBlobs) {
+		export(destDir, new ExportOptions().verifyBlobs(verifyBlobs));
+	}
+	
+	/**
+	 * Exports all files from this artifact to the specified destination directory, copying
+	 * or linking them as configured by {@code options}.
+	 *
+	 * @param destDir the directory to export files to
+	 * @param options how files are exported and verified
+	 * 
+	 * @throws InterruptedException if execution is interrupted
+	 * @throws IntegrityException if any file verification fails
+	 * @throws ExecutionException if a task fails, or writing to the destination fails
+	 */
+	public void export(Path destDir, ExportOptions options) throws InterruptedException, IntegrityException, ExecutionException {
+		if(options.verifiesBlobs() && !options.verifiesOnWrite()) {
 			verifyBlobs();
 		}
-		final BlobFactory factory = chrysalis.getBlobFactory();
-		computeOverBlobs((hash, path, chrysalis) -> {
-			Blob blob = factory.blob(path.resolve(hash.hash()), hash);
-			Set<Path> dests = chrysalis.blobs().get(hash);
-			for(Path relativeDest : dests) {
-				Path dest = destDir.resolve(relativeDest);
-				Files.createDirectories(dest.getParent());
-				Files.copy(blob.dataStream(), dest);
+		final ExportMode mode;
+		try {
+			mode = new ExportEngine(this, options).export(destDir);
+		}
+		catch(IOException e) {
+			throw new ExecutionException(e);
+		}
+		catch(ExecutionException e) {
+			if(e.getCause() instanceof IntegrityException) {
+				throw (IntegrityException) e.getCause();
+			}
+			throw e;
+		}
+		if(options.verifiesExport() && !options.verifiesOnWrite()) {
+			verifyDirectory(destDir, false, options.getExportVerification(mode));
+		}
+	}
+
+	/**
+	 * Synchronizes an existing install directory with this artifact, adding, replacing and
+	 * deleting only the files which differ. See {@link SyncEngine}.
+	 *
+	 * @param destDir the install directory to synchronize
+	 * @return what was changed
+	 *
+	 * @throws InterruptedException if execution is interrupted
+	 * @throws ExecutionException if a task fails, or writing to the destination fails
+	 */
+	public SyncEngine.Result sync(Path destDir) throws InterruptedException, ExecutionException {
+		return sync(destDir, null);
+	}
+
+	/**
+	 * Synchronizes an install directory known to contain the version described by
+	 * {@code source} with this artifact. Files whose size matches are assumed to be
+	 * unmodified, so only the files which differ between the two versions are read.
+	 *
+	 * @param destDir the install directory to synchronize
+	 * @param source the chrysalis of the version currently in {@code destDir}, or null if unknown
+	 * @return what was changed
+	 *
+	 * @throws InterruptedException if execution is interrupted
+	 * @throws ExecutionException if a task fails, or writing to the destination fails
+	 */
+	public SyncEngine.Result sync(Path destDir, Chrysalis source) throws InterruptedException, ExecutionException {
+		try {
+			return new SyncEngine(this).sync(destDir, source);
+		}
+		catch(IOException e) {
+			throw new ExecutionException(e);
+		}
+	}
+
+	/**
+	 * Streams all files from this artifact into a deterministic archive. See {@link ArchiveExporter}.
+	 *
+	 * @param archive the archive file to write
+	 * @param format the archive format
+	 *
+	 * @throws IOException if a blob cannot be read or the archive cannot be written
+	 */
+	public void exportArchive(Path archive, ArchiveFormat format) throws IOException {
+		new ArchiveExporter(this).export(archive, format);
+	}
+
+	/**
+	 * Opens a read-only file system presenting the files of this artifact, which are read
+	 * from the blob store on demand. See {@link VaultFileSystemProvider}.
+	 *
+	 * @throws FileSystemAlreadyExistsException if a file system for this artifact is open
+	 */
+	public VaultFileSystem newFileSystem() {
+		return VaultFileSystemProvider.newFileSystem(this);
+	}
+
+	/**
+	 * Creates a class loader reading every jar of this artifact straight from the blob store.
+	 * See {@link VaultClassLoader}.
+	 *
+	 * @param parent the parent of the class loader
+	 * @throws IOException if a jar cannot be indexed
+	 */
+	public VaultClassLoader newClassLoader(ClassLoader parent) throws IOException {
+		return VaultClassLoader.ofJars(this, parent);
+	}
+
+	/**
+	 * Opens a read-only channel over the content of a file of this artifact. The channel
+	 * reads the blob file directly, or the cached content of the blob if it is held by the
+	 * {@link #getBlobCache() blob cache}.
+	 *
+	 * @param path the path of the file, relative to the root of the artifact
+	 * @throws NoSuchFileException if the artifact has no such file
+	 * @throws IOException if the blob cannot be read
+	 */
+	public SeekableByteChannel newByteChannel(Path path) throws IOException {
+		return newByteChannel(hashOf(path));
+	}
+
+	/**
+	 * Opens a read-only channel over the content of a blob of this artifact. See
+	 * {@link #newByteChannel(Path)}.
+	 *
+	 * @throws NoSuchFileException if the artifact has no such blob
+	 * @throws IOException if the blob cannot be read
+	 */
+	public SeekableByteChannel newByteChannel(Hash hash) throws IOException {
+		final Path blobFile = blobFileOf(hash);
+		final BlobCache blobCache = getBlobCache();
+		if(blobCache != null) {
+			ByteBuffer cached = blobCache.get(hash, blobFile, Files.size(blobFile));
+			if(cached != null) {
+				return new ByteBufferChannel(cached);
+			}
+		}
+		return FileChannel.open(blobFile, StandardOpenOption.READ);
+	}
+
+	/**
+	 * Returns the content of a file of this artifact as a read-only buffer, without copying
+	 * it. The buffer is a {@link MappedByteBuffer} of the blob file, or a view of the cached
+	 * content of the blob if it is held by the {@link #getBlobCache() blob cache}.
+	 *
+	 * @param path the path of the file, relative to the root of the artifact
+	 * @throws NoSuchFileException if the artifact has no such file
+	 * @throws IOException if the blob cannot be read or is too large to be mapped
+	 */
+	public ByteBuffer map(Path path) throws IOException {
+		return map(hashOf(path));
+	}
+
+	/**
+	 * Returns the content of a blob of this artifact as a read-only buffer. See {@link #map(Path)}.
+	 *
+	 * @throws NoSuchFileException if the artifact has no such blob
+	 * @throws IOException if the blob cannot be read or is too large to be mapped
+	 */
+	public ByteBuffer map(Hash hash) throws IOException {
+		final Path blobFile = blobFileOf(hash);
+		try(FileChannel channel = FileChannel.open(blobFile, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			final BlobCache blobCache = getBlobCache();
+			if(blobCache != null) {
+				ByteBuffer cached = blobCache.get(hash, blobFile, size);
+				if(cached != null) {
+					return cached;
+				}
+			}
+			if(size > Integer.MAX_VALUE) {
+				throw new IOException("Cannot map " + blobFile + " of " + size + " bytes");
+			}
+			//the mapping stays valid once the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+	}
+
+	/**
+	 * @return the hash of the file at {@code path}, relative to the root of the artifact
+	 * @throws NoSuchFileException if the artifact has no such file
+	 */
+	private Hash hashOf(Path path) throws NoSuchFileException {
+		Map<Path, Hash> files = this.files;
+		if(files == null) {
+			files = new HashMap<>();
+			synchronized(chrysalis.blobs()) {
+				for(Map.Entry<Hash, Path> entry : chrysalis.blobs().entries()) {
+					files.put(entry.getValue(), entry.getKey());
+				}
+			}
+			this.files = files;
+		}
+		Hash hash = files.get(path.normalize());
+		if(hash == null) {
+			throw new NoSuchFileException(path.toString(), null, "Not a file of " + artifact);
+		}
+		return hash;
+	}
+
+	private Path blobFileOf(Hash hash) throws NoSuchFileException {
+		if(!chrysalis.blobs().containsKey(hash)) {
+			throw new NoSuchFileException(hash.hash(), null, "Not a blob of " + artifact);
+		}
+		return getBlobFile(hash);
+	}
+
+	/**
+	 * Runs {@link #verifyBlobs(VerificationLevel)} in the background.
+	 *
+	 * @return a future completed when the verification ends. Cancelling it interrupts
+	 * the verification.
+	 */
+	public CompletableFuture<Void> verifyBlobsAsync(VerificationLevel level) {
+		return async(() -> {
+			verifyBlobs(level);
+			return null;
+		});
+	}
+
+	/**
+	 * Runs {@link #verifyDirectory(Path, boolean, VerificationLevel)} in the background.
+	 *
+	 * @return a future completed when the verification ends. Cancelling it interrupts
+	 * the verification.
+	 */
+	public CompletableFuture<Void> verifyDirectoryAsync(Path path, boolean verifyDatabase, VerificationLevel level) {
+		return async(() -> {
+			verifyDirectory(path, verifyDatabase, level);
+			return null;
+		});
+	}
+
+	/**
+	 * Runs {@link #export(Path, ExportOptions)} in the background.
+	 *
+	 * @return a future completed when the export ends. Cancelling it interrupts the export.
+	 */
+	public CompletableFuture<Void> exportAsync(Path destDir, ExportOptions options) {
+		return async(() -> {
+			export(destDir, options);
+			return null;
+		});
+	}
+
+	/**
+	 * Runs {@link #sync(Path, Chrysalis)} in the background.
+	 *
+	 * @return a future completed with what was changed. Cancelling it interrupts the sync.
+	 */
+	public CompletableFuture<SyncEngine.Result> syncAsync(Path destDir, Chrysalis source) {
+		return async(() -> sync(destDir, source));
+	}
+
+	/**
+	 * Returns a publisher which verifies the blobs of this artifact for every subscriber,
+	 * and publishes the outcome of each blob while the verification is still running. This
+	 * lets callers react to a missing or corrupt blob, for example by fetching it again,
+	 * without waiting for the whole verification to finish.
+	 *
+	 * <p>
+	 * Every subscription starts a new verification. The subscriber is completed when it ends,
+	 * or receives the {@link DatabaseIntegrityError} listing every failed blob through
+	 * {@link Flow.Subscriber#onError(Throwable)}. Events are buffered per subscriber, and the
+	 * verification slows down to the pace of a subscriber whose buffer is full. Cancelling
+	 * the subscription stops the verification.
+	 * </p>
+	 */
+	public Flow.Publisher<BlobEvent> verifyBlobsPublisher(VerificationLevel level) {
+		return (subscriber) -> {
+			final SubmissionPublisher<BlobEvent> publisher = new SubmissionPublisher<>();
+			final AtomicReference<Throwable> failure = new AtomicReference<>();
+			//SubmissionPublisher.closeExceptionally() drops buffered events, so the publisher is always
+			//closed normally and the failure is delivered in place of the completion
+			publisher.subscribe(new Flow.Subscriber<BlobEvent>() {
+				@Override
+				public void onSubscribe(Flow.Subscription subscription) {
+					subscriber.onSubscribe(subscription);
+				}
+
+				@Override
+				public void onNext(BlobEvent event) {
+					subscriber.onNext(event);
+				}
+
+				@Override
+				public void onError(Throwable t) {
+					subscriber.onError(t);
+				}
+
+				@Override
+				public void onComplete() {
+					Throwable t = failure.get();
+					if(t == null) {
+						subscriber.onComplete();
+					}
+					else {
+						subscriber.onError(t);
+					}
+				}
+			});
+			async(() -> {
+				verifyBlobs(level, (event) -> {
+					if(!publisher.hasSubscribers()) {
+						throw new CancellationException("Subscription cancelled");
+					}
+					publisher.submit(event);
+				});
+				return null;
+			}).whenComplete((result, t) -> {
+				if(t != null) {
+					failure.set(t instanceof ExecutionException && t.getCause() != null ? t.getCause() : t);
+				}
+				publisher.close();
+			});
+		};
+	}
+
+	/**
+	 * Runs a blocking operation on a thread of {@link #ASYNC}. The operation itself waits
+	 * for the vault's {@link BlobScheduler}, so it must not run on the scheduler's executor.
+	 */
+	private static <T> CompletableFuture<T> async(Callable<T> operation) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		final Future<?> task = ASYNC.submit(() -> {
+			try {
+				future.complete(operation.call());
+			}
+			catch(Throwable t) {
+				future.completeExceptionally(t);
 			}
 		});
-		verifyDirectory(destDir, false);
+		future.whenComplete((result, t) -> {
+			if(future.isCancelled()) {
+				task.cancel(true);
+			}
+		});
+		return future;
 	}
-	
+
 	/**
 	 * @deprecated This method permanently deletes all blob files this
 	 * version uses from the vault, and as such can corrupt the blob store.
@@ -317,31 +900,30 @@ public class ChrysalisizedVault extends Vault implements IVaultable {
 	 */
 	@Deprecated(forRemoval = false)
 	public SetMultimap<Hash, Throwable> purge() throws IOException, UnknownVersionException {
+		checkUnscoped("purge");
 		
 		Multiset<Hash> hashes = chrysalis.blobs().keys();
 		final SetMultimap<Hash, Throwable> problems = Multimaps.synchronizedSetMultimap(HashMultimap.create());
 
-		int threads = Runtime.getRuntime().availableProcessors();
-		ExecutorService executor = Executors.newFixedThreadPool(threads);
-		List<Callable<Void>> tasks = new ArrayList<>();
-		for (Hash hash : hashes.elementSet()) {
-			Path blobPath = getBlobFile(hash);
-
-			tasks.add(() -> {
-				Files.deleteIfExists(blobPath);
-				return null;
-			});
-		}
-		
 		Files.delete(getChrysalisFile());
+		invalidate(artifact);
 		
 		try {
-			executor.invokeAll(tasks);
+			getScheduler(blobDir).run(hashes.elementSet(), (hash) -> -1, (hash) -> {
+				try {
+					Files.deleteIfExists(getBlobFile(hash));
+				}
+				catch(IOException e) {
+					problems.put(hash, e);
+				}
+			});
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 			throw new IOException("Deletion interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
 		} finally {
-			executor.shutdown();
+			saveConcurrency();
 		}
 		return problems;
 	}
@@ -358,7 +940,7 @@ public class ChrysalisizedVault extends Vault implements IVaultable {
 	/**
 	 * Returns the path to the Chrysalis file for this artifact.
 	 *
-	 * @return the path to the chrysalis JSON file
+	 * @return the path to the chrysalis file
 	 */
 	public Path getChrysalisFile() {
 		return getChrysalisFile(this);
@@ -372,9 +954,19 @@ public class ChrysalisizedVault extends Vault implements IVaultable {
 		return blobDir.resolve(hash.hash());
 	}
 	
+	private void checkUnscoped(String operation) {
+		if(isScoped()) {
+			throw new IllegalStateException("Cannot " + operation + " using a vault scoped to " + scope + " of " + artifact);
+		}
+	}
+	
 	private static final Chrysalis handleFromFile(IVaultable version, Vault vault) throws IOException, MissingVersionException {
+		return handleFromFile(version, vault, null);
+	}
+	
+	private static final Chrysalis handleFromFile(IVaultable version, Vault vault, Path scope) throws IOException, MissingVersionException {
 		try {
-			return Chrysalis.fromFile(vault.getChrysalisFile(version));
+			return vault.readChrysalis(version, scope);
 		}
 		catch(NoSuchFileException e) {
 			throw new MissingVersionException(version.toString(), e);
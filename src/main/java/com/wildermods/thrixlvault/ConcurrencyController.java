@@ -0,0 +1,212 @@
+package com.wildermods.thrixlvault;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Tunes how many blob batches run at the same time on one {@link java.nio.file.FileStore}.
+ *
+ * <p>
+ * The controller follows additive increase, multiplicative decrease: after every window of
+ * completed batches it compares the throughput with the previous window. While more
+ * batches in flight make the throughput grow, one more batch is allowed. When they no
+ * longer make a difference the device is saturated, and the limit shrinks by a quarter,
+ * which probes whether fewer would do just as well. When the throughput collapses, or the
+ * latency per byte climbs well above the best seen since the file store was last idle,
+ * requests are queueing at the
+ * device or in the executor, and the limit is halved. A drop right after shrinking means
+ * the limit went too low, and it grows back by one.
+ * </p>
+ *
+ * <p>
+ * Latency is measured from the submission of a batch to its completion, so a limit above
+ * the number of threads of the executor shows up as queueing, just like an overloaded disk.
+ * </p>
+ *
+ * <p>
+ * One controller is shared by every run on its file store, and it counts the batches in
+ * flight of all of them, so the limit holds for the device rather than for each run. The
+ * limit is only raised after a window in which it was reached, as a run which cannot keep
+ * that many batches in flight learns nothing from a higher one.
+ * </p>
+ */
+final class ConcurrencyController {
+
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	static final int MAX_LIMIT = 256;
+	private static final long WINDOW = TimeUnit.MILLISECONDS.toNanos(250);
+	/** What opening a file roughly costs in bytes, so batches of tiny files are not measured as free. */
+	private static final long FILE_COST = 64L << 10;
+	private static final double LATENCY_TOLERANCE = 2.0;
+	/** Throughput changes smaller than this fraction are noise. */
+	private static final double THROUGHPUT_TOLERANCE = 0.05;
+
+	private final String store;
+	private volatile int limit;
+
+	//only accessed while holding the lock of this controller
+	private int inFlight;
+	private boolean saturated;
+	private long idleSince = System.nanoTime();
+	private int windowBatches;
+	private long windowStart;
+	private long windowEnd;
+	private long windowCost;
+	private long windowLatency;
+	private double lastThroughput = -1;
+	private double bestLatency = Double.MAX_VALUE;
+	private int lastChange;
+
+	/**
+	 * @param store the name of the file store, used in log messages
+	 * @param limit the initial number of batches allowed in flight
+	 */
+	ConcurrencyController(String store, int limit) {
+		this.store = store;
+		this.limit = clamp(limit);
+	}
+
+	/**
+	 * @return the number of batches currently allowed in flight
+	 */
+	int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return the number of batches currently in flight, across every run on the file store
+	 */
+	synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	String getStore() {
+		return store;
+	}
+
+	/**
+	 * Waits until one more batch is allowed in flight on the file store, whichever run it
+	 * belongs to. Every call must be followed by a call to {@link #release()}.
+	 * <p>
+	 * When the file store was idle for longer than a window, the measurements are
+	 * discarded first, as the work starting now may be of a different kind. The learned
+	 * limit is kept.
+	 * </p>
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	synchronized void acquire() throws InterruptedException {
+		while(inFlight >= limit) {
+			wait();
+		}
+		if(inFlight == 0 && System.nanoTime() - idleSince > WINDOW) {
+			windowBatches = 0;
+			windowCost = 0;
+			windowLatency = 0;
+			lastThroughput = -1;
+			bestLatency = Double.MAX_VALUE;
+			lastChange = 0;
+		}
+		inFlight++;
+		if(inFlight >= limit) {
+			saturated = true;
+		}
+	}
+
+	/**
+	 * Ends a batch started with {@link #acquire()}.
+	 */
+	synchronized void release() {
+		inFlight--;
+		if(inFlight == 0) {
+			idleSince = System.nanoTime();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Records a completed batch.
+	 *
+	 * @param files the number of blobs in the batch
+	 * @param bytes the size of the batch in bytes, or a negative value if unknown
+	 * @param submitted the {@link System#nanoTime()} the batch was submitted at
+	 * @param completed the {@link System#nanoTime()} the batch completed at
+	 */
+	synchronized void record(int files, long bytes, long submitted, long completed) {
+		if(windowBatches == 0 || submitted - windowStart < 0) {
+			windowStart = submitted;
+		}
+		if(windowBatches == 0 || completed - windowEnd > 0) {
+			windowEnd = completed;
+		}
+		windowBatches++;
+		windowCost += Math.max(bytes, 0) + files * FILE_COST;
+		windowLatency += completed - submitted;
+		if(windowEnd - windowStart >= WINDOW && windowBatches >= limit) {
+			adjust(windowCost / ((windowEnd - windowStart) / 1e9), windowLatency / (double) Math.max(windowCost, 1), saturated);
+			windowBatches = 0;
+			windowCost = 0;
+			windowLatency = 0;
+			saturated = inFlight >= limit;
+		}
+	}
+
+	/**
+	 * Records an operation which could not be measured batch by batch, such as weaving,
+	 * as a single sample of work done at the current limit. The windows of the batches
+	 * being measured at the same time are left untouched.
+	 */
+	synchronized void recordRun(long files, long bytes, long nanos) {
+		final long cost = Math.max(bytes, 0) + files * FILE_COST;
+		nanos = Math.max(nanos, 1);
+		adjust(cost / (nanos / 1e9), nanos * (double) limit / Math.max(cost, 1), true);
+	}
+
+	/**
+	 * @param saturated whether as many batches as allowed were in flight during the sample.
+	 * If not, the limit is not what held the throughput back, and it is not raised.
+	 */
+	private void adjust(double throughput, double latency, boolean saturated) {
+		final int previous = limit;
+		bestLatency = Math.min(latency, bestLatency);
+		int next;
+		if(latency > bestLatency * LATENCY_TOLERANCE) {
+			next = previous / 2;
+		}
+		else if(lastThroughput < 0 || throughput > lastThroughput * (1 + THROUGHPUT_TOLERANCE)) {
+			next = previous + 1;
+		}
+		else if(throughput >= lastThroughput * (1 - THROUGHPUT_TOLERANCE)) {
+			next = previous * 3 / 4;
+		}
+		else if(lastChange < 0) {
+			next = previous + 1;
+		}
+		else {
+			next = previous / 2;
+		}
+		if(next > previous && !saturated) {
+			next = previous;
+		}
+		limit = clamp(next);
+		lastChange = Integer.compare(limit, previous);
+		if(limit != previous) {
+			LOGGER.debug("Concurrency on " + store + ": " + previous + " -> " + limit + " (" + Math.round(throughput / (1 << 20)) + " MiB/s)");
+			notifyAll();
+		}
+		lastThroughput = throughput;
+	}
+
+	private static int clamp(int limit) {
+		return Math.max(1, Math.min(limit, MAX_LIMIT));
+	}
+
+	@Override
+	public String toString() {
+		return store + ": " + limit;
+	}
+
+}
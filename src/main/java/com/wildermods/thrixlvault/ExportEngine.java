@@ -0,0 +1,281 @@
+package com.wildermods.thrixlvault;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
+import com.wildermods.masshash.Hash;
+import com.wildermods.masshash.exception.IntegrityException;
+import com.wildermods.thrixlvault.utils.FileUtil;
+
+/**
+ * Copies the files of a {@link ChrysalisizedVault} out of its blob store.
+ *
+ * <p>
+ * The export happens in two phases. First, every directory of the exported tree is created
+ * up front, each one exactly once. Then the blobs are copied in parallel on the vault's
+ * {@link BlobScheduler}, using {@link FileChannel#transferTo} so the bytes are moved by the
+ * operating system ({@code sendfile} or {@code copy_file_range} on Linux) without passing
+ * through the Java heap.
+ * </p>
+ *
+ * <p>
+ * A blob used by several files is read from the blob store once. The remaining copies are
+ * cloned from the first exported file, which is on the destination file system and usually
+ * still in the page cache.
+ * </p>
+ *
+ * <p>
+ * Instead of copying, files may also be {@link ExportMode linked} into the blob store.
+ * </p>
+ *
+ * <p>
+ * With {@link ExportOptions#verifyOnWrite(boolean) verify on write}, each blob is instead
+ * read once and written to all of its copies at the same time, while being hashed.
+ * </p>
+ */
+public final class ExportEngine {
+
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final ChrysalisizedVault vault;
+	private final Chrysalis chrysalis;
+	private final ExportOptions options;
+	private final Marker marker;
+
+	public ExportEngine(ChrysalisizedVault vault) {
+		this(vault, new ExportOptions());
+	}
+
+	public ExportEngine(ChrysalisizedVault vault, ExportOptions options) {
+		this.vault = vault;
+		this.chrysalis = vault.getChrysalis();
+		this.options = options;
+		this.marker = MarkerManager.getMarker(vault.name());
+	}
+
+	/**
+	 * Exports every file of the vault's chrysalis into {@code destDir}. Existing files are
+	 * not overwritten.
+	 *
+	 * @param destDir the directory to export to
+	 * @return the mode the files were exported with, which is {@link ExportMode#COPY} if
+	 * they could not be hard linked
+	 *
+	 * @throws IOException if the directory tree cannot be created
+	 * @throws InterruptedException if the export is interrupted
+	 * @throws ExecutionException if a file cannot be exported
+	 */
+	public ExportMode export(Path destDir) throws IOException, InterruptedException, ExecutionException {
+		int directories = createDirectories(destDir);
+		LOGGER.info(marker, "Created " + directories + " directories in " + destDir);
+
+		ExportMode mode = options.getMode();
+		if(mode == ExportMode.HARD_LINK && !Files.getFileStore(destDir).equals(Files.getFileStore(vault.blobDir))) {
+			LOGGER.warn(marker, destDir + " is not on the same file store as " + vault.blobDir + ". Files will be copied instead of hard linked.");
+			mode = ExportMode.COPY;
+		}
+		final ExportMode effectiveMode = mode;
+		
+		vault.computeOverBlobs("Exporting " + vault.name() + " to " + destDir, destDir, (hash, blobDir, chrysalis) -> {
+			exportBlob(hash, vault.getBlobFile(blobDir, hash).toAbsolutePath(), destDir, effectiveMode);
+		});
+		return effectiveMode;
+	}
+
+	/**
+	 * Creates every directory containing an exported file. Directories are created in
+	 * sorted order, so each parent exists before its children are created.
+	 *
+	 * @return the number of distinct directories
+	 */
+	int createDirectories(Path destDir) throws IOException {
+		final Set<Path> directories = new TreeSet<>();
+		synchronized(chrysalis.blobs()) {
+			for(Path file : chrysalis.blobs().values()) {
+				Path parent = file.getParent();
+				if(parent != null) {
+					directories.add(parent);
+				}
+			}
+		}
+		Files.createDirectories(destDir);
+		for(Path directory : directories) {
+			Files.createDirectories(destDir.resolve(directory));
+		}
+		return directories.size();
+	}
+
+	private void exportBlob(Hash hash, Path blobFile, Path destDir, ExportMode mode) throws IOException, IntegrityException {
+		final List<Path> files;
+		synchronized(chrysalis.blobs()) {
+			files = new ArrayList<>(chrysalis.blobs().get(hash));
+		}
+
+		final List<Path> copies = new ArrayList<>();
+		final List<Path> links = new ArrayList<>();
+		for(Path relativeDest : files) {
+			boolean copied = mode == ExportMode.COPY || chrysalis.isExecutable(relativeDest) || options.getCopyOnWrite().test(relativeDest);
+			(copied ? copies : links).add(relativeDest);
+		}
+
+		if(options.verifiesOnWrite()) {
+			copyVerified(hash, blobFile, destDir, copies);
+		}
+		else {
+			Path firstCopy = null;
+			for(Path relativeDest : copies) {
+				Path dest = destDir.resolve(relativeDest);
+				copy(firstCopy != null ? firstCopy : blobFile, dest);
+				if(firstCopy == null) {
+					firstCopy = dest;
+				}
+			}
+		}
+		for(Path relativeDest : copies) {
+			if(chrysalis.isExecutable(relativeDest)) {
+				FileUtil.setExecutable(destDir.resolve(relativeDest));
+			}
+		}
+
+		for(Path relativeDest : links) {
+			Path dest = destDir.resolve(relativeDest);
+			if(mode == ExportMode.HARD_LINK) {
+				Files.createLink(dest, blobFile);
+			}
+			else {
+				if(Files.notExists(blobFile)) {
+					throw new NoSuchFileException(blobFile.toString());
+				}
+				Files.createSymbolicLink(dest, blobFile);
+			}
+		}
+	}
+
+	/**
+	 * Reads {@code blobFile} once, writing every buffer to all of the {@code copies} and
+	 * hashing it on the way. When there are no copies, the blob is only hashed, which
+	 * verifies the content the linked files will point to.
+	 *
+	 * @throws IntegrityException if the blob does not match its hash. The copies are
+	 * deleted before this is thrown.
+	 */
+	private void copyVerified(Hash hash, Path blobFile, Path destDir, List<Path> copies) throws IOException, IntegrityException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(chrysalis.getBlobFactory().algorithm());
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		final List<Path> created = new ArrayList<>(copies.size());
+		boolean verified = false;
+		try {
+			try(FileChannel in = FileChannel.open(blobFile, StandardOpenOption.READ)) {
+				final List<FileChannel> outs = new ArrayList<>(copies.size());
+				try {
+					for(Path relativeDest : copies) {
+						Path dest = destDir.resolve(relativeDest);
+						outs.add(FileChannel.open(dest, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW));
+						created.add(dest);
+					}
+					ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, in.size() + 1));
+					while(in.read(buffer) != -1) {
+						buffer.flip();
+						digest.update(buffer.array(), 0, buffer.limit());
+						for(FileChannel out : outs) {
+							buffer.rewind();
+							while(buffer.hasRemaining()) {
+								out.write(buffer);
+							}
+						}
+						buffer.clear();
+					}
+				}
+				finally {
+					for(FileChannel out : outs) {
+						out.close();
+					}
+				}
+			}
+
+			String actual = HexFormat.of().formatHex(digest.digest());
+			if(!actual.equalsIgnoreCase(hash.hash())) {
+				throw new IntegrityException("Corrupted blob - Expected hash " + hash.hash() + " but got " + actual + " (" + blobFile + ")");
+			}
+			verified = true;
+		}
+		finally {
+			if(!verified) {
+				for(Path dest : created) {
+					Files.deleteIfExists(dest);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies {@code source} to a new file at {@code dest} through {@link FileChannel#transferTo}.
+	 * If a transfer makes no progress, the rest of the file is copied through a buffer.
+	 *
+	 * @throws java.nio.file.FileAlreadyExistsException if {@code dest} already exists
+	 */
+	static void copy(Path source, Path dest) throws IOException {
+		try(
+			FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(dest, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)
+		) {
+			final long size = in.size();
+			long position = 0;
+			while(position < size) {
+				long transferred = in.transferTo(position, size - position, out);
+				if(transferred <= 0) {
+					//some channels and file systems cannot transfer at all, or stop transferring partway
+					copy(in, out, position, size, source, dest);
+					return;
+				}
+				position += transferred;
+			}
+		}
+	}
+
+	/**
+	 * Copies the bytes of {@code in} from {@code position} to {@code size} to the current
+	 * position of {@code out}, reading them into a buffer.
+	 */
+	static void copy(FileChannel in, FileChannel out, long position, long size, Path source, Path dest) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, size - position));
+		while(position < size) {
+			buffer.clear().limit((int) Math.min(buffer.capacity(), size - position));
+			int read = in.read(buffer, position);
+			if(read <= 0) {
+				throw new IOException(source + " was truncated while being copied to " + dest);
+			}
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			position += read;
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.wildermods.thrixlvault;
+
+/**
+ * How {@link ExportEngine} materializes the files of an exported version.
+ *
+ * <p>
+ * Linked exports are nearly instant, but every exported file then shares its content
+ * with the blob store. Writing to a linked file would corrupt the blob for every version
+ * that uses it, so files which will be modified must be exported with
+ * {@link ExportOptions#copyOnWrite(java.util.function.Predicate) copy on write}.
+ * </p>
+ */
+public enum ExportMode {
+
+	/**
+	 * Copies every file out of the blob store. The export is independent of the vault.
+	 */
+	COPY,
+
+	/**
+	 * Hard links every file to its blob. The destination must be on the same file store
+	 * as the vault, otherwise files are copied instead.
+	 */
+	HARD_LINK,
+
+	/**
+	 * Creates a symbolic link to the absolute path of each blob. Works across file stores,
+	 * but the export breaks if the vault is moved, and creating symbolic links may require
+	 * additional privileges on Windows.
+	 */
+	SYMLINK;
+
+}
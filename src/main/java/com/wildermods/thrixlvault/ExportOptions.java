@@ -0,0 +1,125 @@
+package com.wildermods.thrixlvault;
+
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Options for {@link ChrysalisizedVault#export(Path, ExportOptions)}.
+ */
+public class ExportOptions {
+
+	private ExportMode mode = ExportMode.COPY;
+	private Predicate<Path> copyOnWrite = (path) -> false;
+	private boolean verifyBlobs = false;
+	private boolean verifyExport = true;
+	private VerificationLevel exportLevel; //null picks the level from the mode
+	private boolean verifyOnWrite = false;
+
+	/**
+	 * Sets how files are materialized. Defaults to {@link ExportMode#COPY}.
+	 */
+	public ExportOptions mode(ExportMode mode) {
+		this.mode = Objects.requireNonNull(mode);
+		return this;
+	}
+
+	/**
+	 * Sets which files are always copied, regardless of the {@link #mode(ExportMode) mode},
+	 * because they are known to be modified after the export (configuration files, save
+	 * data...). Paths are relative to the export directory.
+	 * <p>
+	 * Executable files are always copied by linking modes as well, as setting their
+	 * permissions would otherwise change the permissions of the blob.
+	 * </p>
+	 */
+	public ExportOptions copyOnWrite(Predicate<Path> copyOnWrite) {
+		this.copyOnWrite = Objects.requireNonNull(copyOnWrite);
+		return this;
+	}
+
+	/**
+	 * Sets whether the vault's blobs are verified before exporting. Defaults to false.
+	 */
+	public ExportOptions verifyBlobs(boolean verifyBlobs) {
+		this.verifyBlobs = verifyBlobs;
+		return this;
+	}
+
+	/**
+	 * Sets whether the exported files are verified after exporting. Defaults to true.
+	 * <p>
+	 * Unless {@link #verifyExport(VerificationLevel) a level is set}, copied exports are
+	 * verified {@link VerificationLevel#FULL fully}, while linked exports are only checked
+	 * at the {@link VerificationLevel#METADATA metadata} level, as a linked file is the blob
+	 * itself and hashing it again would only verify the blob store.
+	 * </p>
+	 */
+	public ExportOptions verifyExport(boolean verifyExport) {
+		this.verifyExport = verifyExport;
+		return this;
+	}
+
+	/**
+	 * Verifies the exported files at the given level after exporting, whatever the
+	 * {@link #mode(ExportMode) mode}.
+	 */
+	public ExportOptions verifyExport(VerificationLevel level) {
+		this.exportLevel = Objects.requireNonNull(level);
+		this.verifyExport = true;
+		return this;
+	}
+
+	/**
+	 * Sets whether every blob is hashed while it is being exported. Defaults to false.
+	 * <p>
+	 * Each blob is then read exactly once and written to all of its copies from the same
+	 * buffer, and the export fails if its hash does not match. This gives the guarantee of
+	 * {@link #verifyBlobs(boolean) verifying the blobs} and {@link #verifyExport(boolean) the
+	 * export} without reading everything two more times, so both are skipped when enabled.
+	 * </p>
+	 */
+	public ExportOptions verifyOnWrite(boolean verifyOnWrite) {
+		this.verifyOnWrite = verifyOnWrite;
+		return this;
+	}
+
+	public ExportMode getMode() {
+		return mode;
+	}
+
+	public Predicate<Path> getCopyOnWrite() {
+		return copyOnWrite;
+	}
+
+	public boolean verifiesBlobs() {
+		return verifyBlobs;
+	}
+
+	public boolean verifiesExport() {
+		return verifyExport;
+	}
+
+	public boolean verifiesOnWrite() {
+		return verifyOnWrite;
+	}
+
+	/**
+	 * @return the level the exported files are verified at, if {@link #verifiesExport()}
+	 */
+	public VerificationLevel getExportVerification() {
+		return getExportVerification(mode);
+	}
+
+	/**
+	 * @param mode the mode the files were actually exported with, which is
+	 * {@link ExportMode#COPY} when hard links were not possible
+	 */
+	VerificationLevel getExportVerification(ExportMode mode) {
+		if(exportLevel != null) {
+			return exportLevel;
+		}
+		return mode == ExportMode.COPY ? VerificationLevel.FULL : VerificationLevel.METADATA;
+	}
+
+}
@@ -0,0 +1,172 @@
+package com.wildermods.thrixlvault;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The entries of a jar stored as a blob, read directly from the blob file.
+ *
+ * <p>
+ * Blobs never change, so a jar is indexed once per process however many versions or
+ * {@link VaultClassLoader}s use it. The names of its entries are kept in memory, which
+ * answers the many lookups of a class path that miss without touching the disk. Indices
+ * are cached through {@link SoftReference}s, so the garbage collector may reclaim them
+ * under memory pressure.
+ * </p>
+ *
+ * <p>
+ * Reading an entry needs the jar to be open. At most {@link #MAX_OPEN} jars are kept open,
+ * the least recently read one being closed first, and a closed jar is reopened when it is
+ * read again. This keeps the number of file descriptors bounded when hundreds of versions
+ * are analyzed in the same process.
+ * </p>
+ */
+final class JarIndex {
+
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	static final int MAX_INDICES = 4096;
+	static final int MAX_OPEN = 64;
+
+	//both only accessed while holding the lock of INDICES
+	private static final LinkedHashMap<Path, SoftReference<JarIndex>> INDICES = new LinkedHashMap<>(16, 0.75f, true);
+	private static final LinkedHashMap<JarIndex, Boolean> OPEN = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final Path file;
+	private final Set<String> names;
+	private ZipFile zip; //only accessed while holding the lock of this index
+
+	private JarIndex(Path file, ZipFile zip) {
+		this.file = file;
+		this.zip = zip;
+		Set<String> names = new HashSet<>();
+		for(Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+			names.add(entries.nextElement().getName());
+		}
+		this.names = Collections.unmodifiableSet(names);
+	}
+
+	/**
+	 * @return the index of the jar stored in {@code blobFile}, indexing it if it is not cached
+	 * @throws IOException if the blob cannot be read as a jar
+	 */
+	static JarIndex of(Path blobFile) throws IOException {
+		synchronized(INDICES) {
+			SoftReference<JarIndex> reference = INDICES.get(blobFile);
+			JarIndex index = reference == null ? null : reference.get();
+			if(index != null) {
+				return index;
+			}
+		}
+		//index outside of the lock, so other jars can still be read meanwhile
+		ZipFile zip = new ZipFile(blobFile.toFile());
+		JarIndex index;
+		try {
+			index = new JarIndex(blobFile, zip);
+		}
+		catch(RuntimeException e) {
+			zip.close();
+			throw e;
+		}
+		synchronized(INDICES) {
+			INDICES.put(blobFile, new SoftReference<>(index));
+			if(INDICES.size() > MAX_INDICES) {
+				Iterator<SoftReference<JarIndex>> eldest = INDICES.values().iterator();
+				eldest.next();
+				eldest.remove();
+			}
+		}
+		index.opened();
+		return index;
+	}
+
+	/**
+	 * @return every entry name of the jar, directories included
+	 */
+	Set<String> names() {
+		return names;
+	}
+
+	boolean contains(String name) {
+		return names.contains(name);
+	}
+
+	/**
+	 * @return the content of the entry, or null if the jar has no such entry
+	 * @throws IOException if the jar cannot be read
+	 */
+	byte[] read(String name) throws IOException {
+		if(!names.contains(name)) {
+			return null;
+		}
+		final byte[] data;
+		synchronized(this) {
+			if(zip == null) {
+				zip = new ZipFile(file.toFile());
+			}
+			ZipEntry entry = zip.getEntry(name);
+			if(entry == null) {
+				return null;
+			}
+			try(InputStream in = zip.getInputStream(entry)) {
+				data = in.readAllBytes();
+			}
+		}
+		opened();
+		return data;
+	}
+
+	/**
+	 * Marks this jar as the most recently used, closing the least recently used open jar
+	 * if too many are open.
+	 */
+	private void opened() {
+		JarIndex evicted = null;
+		synchronized(INDICES) {
+			OPEN.put(this, Boolean.TRUE);
+			if(OPEN.size() > MAX_OPEN) {
+				Iterator<JarIndex> eldest = OPEN.keySet().iterator();
+				evicted = eldest.next();
+				eldest.remove();
+			}
+		}
+		//closed without holding the lock of INDICES, as readers take it while holding their own
+		if(evicted != null) {
+			evicted.close();
+		}
+	}
+
+	/**
+	 * Closes the jar, which is reopened if it is read again.
+	 */
+	private synchronized void close() {
+		if(zip != null) {
+			try {
+				zip.close();
+			}
+			catch(IOException e) {
+				LOGGER.warn("Could not close " + file, e);
+			}
+			zip = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return file + " (" + names.size() + " entries)";
+	}
+
+}
@@ -0,0 +1,160 @@
+package com.wildermods.thrixlvault;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * An immutable snapshot of the progress of a vault operation, published to
+ * {@link ProgressListener}s.
+ *
+ * <p>
+ * Totals are -1 when they are not known in advance, as when weaving a directory, or when
+ * the chrysalis predates size tracking. No ETA can be estimated in that case.
+ * </p>
+ */
+public final class Progress {
+
+	private final String operation;
+	private final long blobsDone;
+	private final long blobsTotal;
+	private final long bytesDone;
+	private final long bytesTotal;
+	private final Duration elapsed;
+	private final double throughput;
+	private final double blobThroughput;
+	private final boolean finished;
+
+	Progress(String operation, long blobsDone, long blobsTotal, long bytesDone, long bytesTotal, Duration elapsed, double throughput, double blobThroughput, boolean finished) {
+		this.operation = operation;
+		this.blobsDone = blobsDone;
+		this.blobsTotal = blobsTotal;
+		this.bytesDone = bytesDone;
+		this.bytesTotal = bytesTotal;
+		this.elapsed = elapsed;
+		this.throughput = throughput;
+		this.blobThroughput = blobThroughput;
+		this.finished = finished;
+	}
+
+	/**
+	 * @return a description of the operation, such as {@code "Verifying blobs of 1.0+123"}
+	 */
+	public String getOperation() {
+		return operation;
+	}
+
+	public long getBlobsDone() {
+		return blobsDone;
+	}
+
+	/**
+	 * @return the number of blobs the operation processes, or -1 if unknown
+	 */
+	public long getBlobsTotal() {
+		return blobsTotal;
+	}
+
+	public long getBytesDone() {
+		return bytesDone;
+	}
+
+	/**
+	 * @return the number of bytes the operation processes, or -1 if unknown
+	 */
+	public long getBytesTotal() {
+		return bytesTotal;
+	}
+
+	public Duration getElapsed() {
+		return elapsed;
+	}
+
+	/**
+	 * @return the bytes processed per second since the previous snapshot
+	 */
+	public double getThroughput() {
+		return throughput;
+	}
+
+	/**
+	 * @return the blobs processed per second since the previous snapshot
+	 */
+	public double getBlobThroughput() {
+		return blobThroughput;
+	}
+
+	/**
+	 * @return true if this is the last snapshot of the operation, published when it ended
+	 * successfully or not
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * @return the completed fraction of the operation between 0 and 1, by bytes if their total
+	 * is known and by blobs otherwise, or -1 if neither total is known
+	 */
+	public double getFraction() {
+		if(bytesTotal > 0) {
+			return Math.min(1d, (double) bytesDone / bytesTotal);
+		}
+		if(blobsTotal > 0) {
+			return Math.min(1d, (double) blobsDone / blobsTotal);
+		}
+		return finished ? 1d : -1d;
+	}
+
+	/**
+	 * Estimates the remaining time from the average rate of the operation so far, which is
+	 * steadier than the current {@link #getThroughput() throughput}.
+	 *
+	 * @return the estimated time remaining, or an empty optional if no total is known or
+	 * nothing was processed yet
+	 */
+	public Optional<Duration> getEta() {
+		if(finished) {
+			return Optional.of(Duration.ZERO);
+		}
+		double fraction = getFraction();
+		if(fraction <= 0) {
+			return Optional.empty();
+		}
+		return Optional.of(Duration.ofNanos((long) (elapsed.toNanos() * (1 - fraction) / fraction)));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(operation).append(": ");
+		builder.append(blobsDone);
+		if(blobsTotal >= 0) {
+			builder.append('/').append(blobsTotal);
+		}
+		builder.append(" blobs, ").append(bytes(bytesDone));
+		if(bytesTotal >= 0) {
+			builder.append('/').append(bytes(bytesTotal));
+		}
+		if(finished) {
+			builder.append(", finished in ").append(duration(elapsed));
+		}
+		else {
+			builder.append(", ").append(bytes((long) throughput)).append("/s");
+			getEta().ifPresent((eta) -> builder.append(", ETA ").append(duration(eta)));
+		}
+		return builder.toString();
+	}
+
+	private static String bytes(long bytes) {
+		if(bytes < 1024) {
+			return bytes + " B";
+		}
+		int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+		return String.format("%.1f %siB", bytes / (double) (1L << (unit * 10)), "KMGTPE".charAt(unit - 1));
+	}
+
+	private static String duration(Duration duration) {
+		long seconds = duration.getSeconds();
+		return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+	}
+
+}
@@ -0,0 +1,20 @@
+package com.wildermods.thrixlvault;
+
+/**
+ * Receives periodic {@link Progress} snapshots of long running vault operations, such as
+ * verifying, exporting or weaving a version.
+ *
+ * <p>
+ * Listeners are registered with {@link Vault#setProgressListener(ProgressListener)}. They are
+ * called from a single sampling thread, once every {@link Vault#getProgressInterval() interval}
+ * while an operation runs and once more when it ends, so they never slow down the workers
+ * and do not need to be thread-safe. They should return quickly, as a slow listener delays
+ * the snapshots of every other operation.
+ * </p>
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+	void onProgress(Progress progress);
+
+}
@@ -0,0 +1,164 @@
+package com.wildermods.thrixlvault;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Counts the blobs and bytes processed by a vault operation, and publishes {@link Progress}
+ * snapshots of them to a {@link ProgressListener}.
+ *
+ * <p>
+ * Workers only increment striped {@link LongAdder}s, which do not contend with each other.
+ * The counters are summed by a shared sampling thread once per interval, so the cost of
+ * reporting progress does not grow with the number of blobs or workers. Closing the tracker
+ * publishes a final, {@link Progress#isFinished() finished} snapshot on the same thread, so
+ * listeners are only ever called from it, one snapshot at a time.
+ * </p>
+ *
+ * <p>
+ * A tracker without a listener only counts.
+ * </p>
+ */
+final class ProgressTracker implements AutoCloseable {
+
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private static final String SAMPLER_NAME = "thrixlvault-progress";
+	private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, SAMPLER_NAME);
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final String operation;
+	private final long blobsTotal;
+	private final long bytesTotal;
+	private final ProgressListener listener;
+	private final LongAdder blobs = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final long start = System.nanoTime();
+	private final ScheduledFuture<?> sampling;
+
+	//only accessed while holding the lock of this tracker
+	private long lastSample = start;
+	private long lastBlobs;
+	private long lastBytes;
+	private boolean closed;
+
+	/**
+	 * @param blobsTotal the number of blobs the operation will process, or -1 if unknown
+	 * @param bytesTotal the number of bytes the operation will process, or -1 if unknown
+	 * @param listener the listener to publish snapshots to, or null to only count
+	 * @param interval the time between two snapshots
+	 */
+	ProgressTracker(String operation, long blobsTotal, long bytesTotal, ProgressListener listener, Duration interval) {
+		this.operation = operation;
+		this.blobsTotal = blobsTotal;
+		this.bytesTotal = bytesTotal;
+		this.listener = listener;
+		if(listener != null) {
+			long nanos = Math.max(interval.toNanos(), 1);
+			this.sampling = SAMPLER.scheduleAtFixedRate(() -> publish(false), nanos, nanos, TimeUnit.NANOSECONDS);
+		}
+		else {
+			this.sampling = null;
+		}
+	}
+
+	/**
+	 * Records processed blobs and bytes. Safe to call from any number of threads.
+	 */
+	void add(long blobs, long bytes) {
+		this.blobs.add(blobs);
+		if(bytes > 0) {
+			this.bytes.add(bytes);
+		}
+	}
+
+	/**
+	 * @return a snapshot of the current progress, measuring throughput since the
+	 * previous snapshot
+	 */
+	synchronized Progress snapshot() {
+		return snapshot(false);
+	}
+
+	private synchronized Progress snapshot(boolean finished) {
+		long now = System.nanoTime();
+		long blobsDone = blobs.sum();
+		long bytesDone = bytes.sum();
+		double seconds = Math.max(now - lastSample, 1) / 1e9;
+		Progress progress = new Progress(
+			operation,
+			blobsDone,
+			blobsTotal,
+			bytesDone,
+			bytesTotal,
+			Duration.ofNanos(now - start),
+			(bytesDone - lastBytes) / seconds,
+			(blobsDone - lastBlobs) / seconds,
+			finished
+		);
+		lastSample = now;
+		lastBlobs = blobsDone;
+		lastBytes = bytesDone;
+		return progress;
+	}
+
+	private synchronized void publish(boolean finished) {
+		if(closed) {
+			return;
+		}
+		closed = finished;
+		try {
+			listener.onProgress(snapshot(finished));
+		}
+		catch(Throwable t) {
+			//an exception would cancel the periodic sampling
+			LOGGER.warn("Progress listener failed for " + operation, t);
+		}
+	}
+
+	/**
+	 * Stops sampling, and publishes the final snapshot from the sampling thread, waiting
+	 * until it was delivered.
+	 */
+	@Override
+	public void close() {
+		if(listener != null) {
+			sampling.cancel(false);
+			if(Thread.currentThread().getName().equals(SAMPLER_NAME)) {
+				publish(true); //closed by a listener, waiting would never end
+				return;
+			}
+			Future<?> published = SAMPLER.submit(() -> publish(true));
+			boolean interrupted = false;
+			while(true) {
+				try {
+					published.get();
+					break;
+				}
+				catch(InterruptedException e) {
+					interrupted = true;
+				}
+				catch(ExecutionException e) {
+					LOGGER.warn("Could not publish the final progress of " + operation, e.getCause());
+					break;
+				}
+			}
+			if(interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,48 @@
+package com.wildermods.thrixlvault;
+
+import java.nio.file.Path;
+
+import com.wildermods.thrixlvault.steam.IVaultable;
+
+/**
+ * A version identified only by the directory its chrysalis is stored in, relative to the
+ * vault directory. Used where a vault is browsed without knowing which game, depot or
+ * manifest its versions came from.
+ */
+public final class StoredVersion implements IVaultable {
+
+	private final Path artifactPath;
+
+	/**
+	 * @param artifactPath the directory of the version, relative to the vault directory
+	 */
+	public StoredVersion(Path artifactPath) {
+		this.artifactPath = artifactPath;
+	}
+
+	@Override
+	public String name() {
+		return artifactPath.toString();
+	}
+
+	@Override
+	public Path artifactPath() {
+		return artifactPath;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof StoredVersion && ((StoredVersion) o).artifactPath.equals(artifactPath);
+	}
+
+	@Override
+	public int hashCode() {
+		return artifactPath.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return name();
+	}
+
+}
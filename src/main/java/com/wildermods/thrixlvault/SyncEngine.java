@@ -0,0 +1,394 @@
+package com.wildermods.thrixlvault;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.wildermods.masshash.Hash;
+import com.wildermods.masshash.exception.IntegrityException;
+import com.wildermods.thrixlvault.utils.FileUtil;
+import com.wildermods.thrixlvault.utils.XXHash64;
+
+/**
+ * Brings an existing install directory in line with the {@link Chrysalis} of a
+ * {@link ChrysalisizedVault}, touching only the files which differ.
+ *
+ * <p>
+ * Files missing from the directory are added, files whose content differs are replaced,
+ * and files the target version does not contain are deleted, along with directories left
+ * empty. Every other file is left untouched.
+ * </p>
+ *
+ * <p>
+ * Deciding whether a file differs is done as cheaply as possible:
+ * <ol>
+ *   <li>a file whose size differs from the recorded blob size is replaced without being read,</li>
+ *   <li>if the caller knows which version the directory held, its chrysalis is trusted,</li>
+ *   <li>otherwise the stat cache written by the previous sync is trusted for files whose
+ *       size and modification time did not change,</li>
+ *   <li>and only the remaining files are read, using their checksum when one is recorded.</li>
+ * </ol>
+ * </p>
+ *
+ * <p>
+ * Replaced files are written to a temporary file and moved into place, so a file is always
+ * either in its old or its new state. An interrupted sync can simply be run again.
+ * </p>
+ */
+public final class SyncEngine {
+
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/** The name of the stat cache written into synchronized directories. */
+	public static final String STAT_CACHE = ".thrixlvault-sync.json";
+
+	private final ChrysalisizedVault vault;
+	private final Chrysalis target;
+	private final Marker marker;
+
+	public SyncEngine(ChrysalisizedVault vault) {
+		if(vault.isScoped()) {
+			throw new IllegalStateException("Cannot sync using a vault scoped to " + vault.getScope() + " of " + vault.getArtifact());
+		}
+		this.vault = vault;
+		this.target = vault.getChrysalis();
+		this.marker = MarkerManager.getMarker(vault.name());
+	}
+
+	/**
+	 * Synchronizes {@code destDir} with the target version.
+	 *
+	 * @param destDir the install directory, which is created if it does not exist
+	 * @param source the chrysalis of the version {@code destDir} is known to contain, or
+	 * null if unknown
+	 * @return what was changed
+	 *
+	 * @throws IOException if the directory cannot be read or modified
+	 * @throws InterruptedException if the sync is interrupted
+	 * @throws ExecutionException if a file cannot be checked or written
+	 */
+	public Result sync(Path destDir, Chrysalis source) throws IOException, InterruptedException, ExecutionException {
+		LOGGER.info(marker, "Synchronizing " + destDir + " with " + vault.getArtifact());
+		final Map<Path, Hash> expected = index(target);
+		final Map<Path, Hash> known = source == null ? Collections.emptyMap() : index(source);
+		final Map<String, StatEntry> statCache = readStatCache(destDir);
+		final Result result = new Result();
+
+		//Sort existing files into unchanged, changed and unwanted ones
+		final List<Path> existing = listFiles(destDir);
+		final Set<Path> present = ConcurrentHashMap.newKeySet();
+		final Set<Path> unwanted = ConcurrentHashMap.newKeySet();
+		final Set<Path> trusted = ConcurrentHashMap.newKeySet();
+		vault.getScheduler().run(existing, (path) -> -1, (path) -> {
+			Hash hash = expected.get(path);
+			if(hash == null) {
+				unwanted.add(path);
+			}
+			else if(isCurrent(destDir.resolve(path), path, hash, known, statCache, trusted)) {
+				present.add(path);
+			}
+		});
+
+		for(Path path : unwanted) {
+			Files.delete(destDir.resolve(path));
+			result.deleted.incrementAndGet();
+		}
+
+		//Write every expected file which is not already present, grouped by hash
+		final SetMultimap<Hash, Path> missing = HashMultimap.create();
+		final Set<Path> existingSet = new HashSet<>(existing);
+		for(Map.Entry<Path, Hash> entry : expected.entrySet()) {
+			if(!present.contains(entry.getKey())) {
+				missing.put(entry.getValue(), entry.getKey());
+			}
+		}
+		createDirectories(destDir, missing.values());
+		vault.getScheduler().run(missing.keySet(), (hash) -> target.size(hash).orElse(-1), (hash) -> {
+			Path blobFile = vault.getBlobFile(hash);
+			for(Path path : missing.get(hash)) {
+				replace(blobFile, destDir.resolve(path), target.isExecutable(path));
+				(existingSet.contains(path) ? result.replaced : result.added).incrementAndGet();
+			}
+		});
+		result.unchanged.set(present.size());
+
+		pruneDirectories(destDir, unwanted, expected.keySet());
+		writeStatCache(destDir, expected, trusted);
+
+		LOGGER.info(marker, result);
+		return result;
+	}
+
+	private boolean isCurrent(Path file, Path path, Hash hash, Map<Path, Hash> known, Map<String, StatEntry> statCache, Set<Path> trusted) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		if(!attributes.isRegularFile()) {
+			return false; //symbolic links from linked exports are replaced by real files
+		}
+		OptionalLong size = target.size(hash);
+		if(size.isPresent() && size.getAsLong() != attributes.size()) {
+			return false;
+		}
+		Hash knownHash = known.get(path);
+		if(knownHash != null) {
+			if(knownHash.equals(hash)) {
+				trusted.add(path);
+				return true;
+			}
+			return false;
+		}
+		StatEntry stat = statCache.get(key(path));
+		if(stat != null && stat.matches(attributes)) {
+			return stat.hash.equals(hash.hash());
+		}
+		OptionalLong checksum = target.checksum(hash);
+		if(checksum.isPresent()) {
+			return XXHash64.hash(file) == checksum.getAsLong();
+		}
+		try {
+			target.getBlobFactory().blob(file, hash).verify();
+			return true;
+		}
+		catch(IntegrityException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Replaces {@code dest} with a copy of {@code blobFile}. The copy is written next to
+	 * {@code dest} and moved over it, so hard links to the old file are never written through.
+	 */
+	private static void replace(Path blobFile, Path dest, boolean executable) throws IOException {
+		Path temp = dest.resolveSibling(dest.getFileName() + ".thrixlvault.tmp");
+		try {
+			Files.deleteIfExists(temp);
+			ExportEngine.copy(blobFile, temp);
+			if(executable) {
+				FileUtil.setExecutable(temp);
+			}
+			try {
+				Files.move(temp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp, dest, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static Map<Path, Hash> index(Chrysalis chrysalis) {
+		Map<Path, Hash> index = new HashMap<>();
+		synchronized(chrysalis.blobs()) {
+			for(Map.Entry<Hash, Path> entry : chrysalis.blobs().entries()) {
+				index.put(entry.getValue(), entry.getKey());
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Lists every file in {@code destDir} relative to it, except the stat cache.
+	 */
+	private static List<Path> listFiles(Path destDir) throws IOException {
+		final List<Path> files = new ArrayList<>();
+		if(Files.notExists(destDir)) {
+			return files;
+		}
+		final Path statCache = destDir.resolve(STAT_CACHE);
+		Files.walkFileTree(destDir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if(!file.equals(statCache)) {
+					files.add(destDir.relativize(file));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return files;
+	}
+
+	private static void createDirectories(Path destDir, Iterable<Path> files) throws IOException {
+		Set<Path> directories = new TreeSet<>();
+		for(Path file : files) {
+			if(file.getParent() != null) {
+				directories.add(file.getParent());
+			}
+		}
+		Files.createDirectories(destDir);
+		for(Path directory : directories) {
+			Path dir = destDir.resolve(directory);
+			if(Files.isSymbolicLink(dir) || (Files.exists(dir) && !Files.isDirectory(dir))) {
+				Files.delete(dir);
+			}
+			Files.createDirectories(dir);
+		}
+	}
+
+	/**
+	 * Deletes the directories which contained deleted files and are now empty, unless the
+	 * target version contains them.
+	 */
+	private static void pruneDirectories(Path destDir, Set<Path> deleted, Set<Path> expected) throws IOException {
+		Set<Path> keep = new HashSet<>();
+		for(Path file : expected) {
+			for(Path parent = file.getParent(); parent != null && keep.add(parent); parent = parent.getParent());
+		}
+		TreeSet<Path> candidates = new TreeSet<>(Collections.reverseOrder());
+		for(Path file : deleted) {
+			for(Path parent = file.getParent(); parent != null && !keep.contains(parent); parent = parent.getParent()) {
+				candidates.add(parent);
+			}
+		}
+		for(Path directory : candidates) { //children sort after their parents, so they are deleted first
+			try {
+				Files.deleteIfExists(destDir.resolve(directory));
+			}
+			catch(DirectoryNotEmptyException e) {
+				//contains files the sync does not manage
+			}
+		}
+	}
+
+	private static String key(Path path) {
+		return path.toString().replace('\\', '/');
+	}
+
+	private Map<String, StatEntry> readStatCache(Path destDir) {
+		Path file = destDir.resolve(STAT_CACHE);
+		Map<String, StatEntry> cache = new HashMap<>();
+		if(Files.notExists(file)) {
+			return cache;
+		}
+		try(Reader reader = Files.newBufferedReader(file); JsonReader in = new JsonReader(reader)) {
+			in.beginObject();
+			while(in.hasNext()) {
+				String path = in.nextName();
+				in.beginArray();
+				long size = in.nextLong();
+				long modified = in.nextLong();
+				String hash = in.nextString();
+				in.endArray();
+				cache.put(path, new StatEntry(size, modified, hash));
+			}
+			in.endObject();
+		}
+		catch(IOException | RuntimeException e) {
+			LOGGER.warn(marker, "Ignoring unreadable stat cache " + file, e);
+			cache.clear();
+		}
+		return cache;
+	}
+
+	/**
+	 * Records the size and modification time of every file whose content is known to be
+	 * correct. Files which were only trusted because of a known source are left out, so they
+	 * are checked by the next sync which does not know the source.
+	 */
+	private static void writeStatCache(Path destDir, Map<Path, Hash> files, Set<Path> trusted) throws IOException {
+		Path file = destDir.resolve(STAT_CACHE);
+		Path temp = file.resolveSibling(STAT_CACHE + ".tmp");
+		try {
+			try(Writer writer = Files.newBufferedWriter(temp); JsonWriter out = new JsonWriter(writer)) {
+				out.beginObject();
+				for(Map.Entry<Path, Hash> entry : new TreeMap<>(files).entrySet()) {
+					if(trusted.contains(entry.getKey())) {
+						continue;
+					}
+					BasicFileAttributes attributes = Files.readAttributes(destDir.resolve(entry.getKey()), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					out.name(key(entry.getKey())).beginArray();
+					out.value(attributes.size());
+					out.value(attributes.lastModifiedTime().toMillis());
+					out.value(entry.getValue().hash());
+					out.endArray();
+				}
+				out.endObject();
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static final class StatEntry {
+		private final long size;
+		private final long modified;
+		private final String hash;
+
+		private StatEntry(long size, long modified, String hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+
+		private boolean matches(BasicFileAttributes attributes) {
+			return size == attributes.size() && modified == attributes.lastModifiedTime().toMillis();
+		}
+	}
+
+	/**
+	 * What a {@link SyncEngine#sync(Path, Chrysalis) sync} changed.
+	 */
+	public static final class Result {
+		private final AtomicInteger added = new AtomicInteger();
+		private final AtomicInteger replaced = new AtomicInteger();
+		private final AtomicInteger deleted = new AtomicInteger();
+		private final AtomicInteger unchanged = new AtomicInteger();
+
+		private Result() {}
+
+		public int getAdded() {
+			return added.get();
+		}
+
+		public int getReplaced() {
+			return replaced.get();
+		}
+
+		public int getDeleted() {
+			return deleted.get();
+		}
+
+		public int getUnchanged() {
+			return unchanged.get();
+		}
+
+		@Override
+		public String toString() {
+			return "Sync complete: " + getAdded() + " added, " + getReplaced() + " replaced, " + getDeleted() + " deleted, " + getUnchanged() + " unchanged";
+		}
+	}
+
+}
@@ -1,8 +1,12 @@
 package com.wildermods.thrixlvault;
 
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Objects;
 
 import com.wildermods.thrixlvault.exception.MissingVersionException;
 import com.wildermods.thrixlvault.steam.IVaultable;
@@ -35,6 +39,14 @@ public class Vault {
 	public final Path vaultDir;
 	public final Path blobDir;
 	
+	private volatile ChrysalisFormat format = ChrysalisFormat.JSON;
+	private volatile ChrysalisCache cache = ChrysalisCache.shared();
+	private volatile BlobCache blobCache;
+	private volatile BlobScheduler scheduler = BlobScheduler.shared();
+	private volatile ProgressListener progressListener;
+	private volatile Duration progressInterval = Duration.ofSeconds(1);
+	private volatile AdaptiveConcurrency concurrency;
+	
 	public Vault(Path vaultDir) throws IOException {
 		this.vaultDir = vaultDir;
 		this.blobDir = vaultDir.resolve("blobs");
@@ -47,6 +59,183 @@ public class Vault {
 		return new ChrysalisizedVault(version, this);
 	}
 	
+	/**
+	 * Loads only the part of a version located under the given relative path, such as
+	 * the game jar or the {@code scripts} directory. Entries outside of the scope are
+	 * skipped while the chrysalis is parsed.
+	 * 
+	 * @param version the version to load
+	 * @param scope the relative path of the file or directory to load
+	 * @return a vault whose operations only cover the given subtree
+	 */
+	public ChrysalisizedVault chrysalisize(IVaultable version, Path scope) throws IOException, MissingVersionException {
+		return new ChrysalisizedVault(version, this, scope);
+	}
+	
+	/**
+	 * Selects the format new chrysalis files are written in. Existing files are read
+	 * regardless of their format.
+	 */
+	public Vault setFormat(ChrysalisFormat format) {
+		this.format = format;
+		return this;
+	}
+	
+	public ChrysalisFormat getFormat() {
+		return format;
+	}
+	
+	/**
+	 * Selects the cache parsed chrysalises are looked up in when this vault is
+	 * {@link #chrysalisize(IVaultable) chrysalisized}. Defaults to the
+	 * {@link ChrysalisCache#shared() process-wide cache}.
+	 * 
+	 * @param cache the cache to use, or null to parse the chrysalis file every time
+	 */
+	public Vault setCache(ChrysalisCache cache) {
+		this.cache = cache;
+		return this;
+	}
+	
+	public ChrysalisCache getCache() {
+		return cache;
+	}
+	
+	/**
+	 * Selects the cache the content of small blobs is kept in when read through
+	 * {@link ChrysalisizedVault#map(Hash)} or {@link ChrysalisizedVault#newByteChannel(Hash)}.
+	 * Disabled by default.
+	 * 
+	 * @param blobCache the cache to use, or null to read every blob from disk
+	 */
+	public Vault setBlobCache(BlobCache blobCache) {
+		this.blobCache = blobCache;
+		return this;
+	}
+	
+	public BlobCache getBlobCache() {
+		return blobCache;
+	}
+	
+	/**
+	 * Selects the scheduler blob operations of this vault's chrysalisized versions run on.
+	 * Defaults to the {@link BlobScheduler#shared() process-wide scheduler}.
+	 */
+	public Vault setScheduler(BlobScheduler scheduler) {
+		this.scheduler = Objects.requireNonNull(scheduler);
+		return this;
+	}
+	
+	public BlobScheduler getScheduler() {
+		return scheduler;
+	}
+	
+	/**
+	 * Sets whether blob operations of this vault's chrysalisized versions tune how many
+	 * batches they keep in flight while they run, instead of using as many as the
+	 * {@link #getScheduler() scheduler} allows. Verifying, exporting and weaving learn a
+	 * limit for every file store they work on, shared with the other vaults of the process
+	 * on the same file store, and save it in {@code concurrency.json} in the vault directory
+	 * so that later runs start from it. Disabled by default.
+	 */
+	public Vault setAdaptiveConcurrency(boolean adaptive) {
+		if(!adaptive) {
+			this.concurrency = null;
+		}
+		else if(this.concurrency == null) {
+			this.concurrency = new AdaptiveConcurrency(vaultDir);
+		}
+		return this;
+	}
+	
+	public boolean isAdaptiveConcurrency() {
+		return concurrency != null;
+	}
+	
+	void setAdaptiveConcurrency(AdaptiveConcurrency concurrency) {
+		this.concurrency = concurrency;
+	}
+	
+	AdaptiveConcurrency getAdaptiveConcurrency() {
+		return concurrency;
+	}
+	
+	/**
+	 * @return the controller tuning operations on the file store of {@code path}, or null
+	 * if adaptive concurrency is disabled
+	 */
+	ConcurrencyController getConcurrencyController(Path path) throws IOException {
+		final AdaptiveConcurrency concurrency = this.concurrency;
+		return concurrency == null ? null : concurrency.controller(path);
+	}
+	
+	/**
+	 * @return the scheduler to run blob operations on the file store of {@code path} on
+	 */
+	BlobScheduler getScheduler(Path path) throws IOException {
+		final ConcurrencyController controller = getConcurrencyController(path);
+		return controller == null ? scheduler : scheduler.adaptive(controller);
+	}
+	
+	/**
+	 * Saves the concurrency learned by the operations of this vault, if any.
+	 */
+	void saveConcurrency() {
+		final AdaptiveConcurrency concurrency = this.concurrency;
+		if(concurrency != null) {
+			concurrency.save();
+		}
+	}
+	
+	/**
+	 * Sets the listener receiving the progress of long running operations of this vault's
+	 * chrysalisized versions: verifying, exporting and weaving.
+	 * 
+	 * @param listener the listener, or null to not report progress
+	 */
+	public Vault setProgressListener(ProgressListener listener) {
+		this.progressListener = listener;
+		return this;
+	}
+	
+	public ProgressListener getProgressListener() {
+		return progressListener;
+	}
+	
+	/**
+	 * Sets the time between two progress snapshots. Defaults to one second.
+	 */
+	public Vault setProgressInterval(Duration interval) {
+		if(interval.isNegative() || interval.isZero()) {
+			throw new IllegalArgumentException("Progress interval must be positive: " + interval);
+		}
+		this.progressInterval = interval;
+		return this;
+	}
+	
+	public Duration getProgressInterval() {
+		return progressInterval;
+	}
+	
+	/**
+	 * Starts tracking the progress of an operation, reporting to this vault's listener.
+	 */
+	ProgressTracker trackProgress(String operation, long blobs, long bytes) {
+		return new ProgressTracker(operation, blobs, bytes, progressListener, progressInterval);
+	}
+	
+	/**
+	 * Loads the chrysalis of an artifact through this vault's cache, if any.
+	 */
+	Chrysalis readChrysalis(IVaultable artifact, Path scope) throws IOException {
+		final Path chrysalisFile = getChrysalisFile(artifact);
+		final ChrysalisCache cache = this.cache;
+		if(cache == null) {
+			return Chrysalis.fromFile(chrysalisFile, scope);
+		}
+		return cache.get(chrysalisFile, scope);
+	}
+	
 	public Path getVaultDir() {
 		return vaultDir;
 	}
@@ -59,8 +248,97 @@ public class Vault {
 		return Files.exists(getChrysalisFile(artifact));
 	}
 
+	/**
+	 * Returns the chrysalis file of the given artifact. If the artifact has been weaved,
+	 * this is its existing file in whatever format it was written in, preferring this
+	 * vault's format. Otherwise it is the file the chrysalis would be written to.
+	 */
 	public Path getChrysalisFile(IVaultable artifact) {
-		return vaultDir.resolve(artifact.artifactPath()).resolve("blobs.json");
+		Path preferred = getChrysalisFile(artifact, format);
+		if(Files.exists(preferred)) {
+			return preferred;
+		}
+		for(ChrysalisFormat other : ChrysalisFormat.values()) {
+			Path file = getChrysalisFile(artifact, other);
+			if(Files.exists(file)) {
+				return file;
+			}
+		}
+		return preferred;
+	}
+	
+	/**
+	 * @return the location of the artifact's chrysalis file when written in the given format
+	 */
+	public Path getChrysalisFile(IVaultable artifact, ChrysalisFormat format) {
+		return vaultDir.resolve(artifact.artifactPath()).resolve(format.fileName());
+	}
+	
+	/**
+	 * Writes the chrysalis of an artifact in this vault's format, and removes any
+	 * chrysalis file of the artifact in another format so the two can never disagree.
+	 * <p>
+	 * The file is {@link #writeAtomically(ChrysalisFormat, Chrysalis, Path) written atomically}.
+	 * </p>
+	 *
+	 * @return the written file
+	 */
+	Path writeChrysalis(IVaultable artifact, Chrysalis chrysalis) throws IOException {
+		final ChrysalisFormat format = this.format;
+		Path chrysalisFile = getChrysalisFile(artifact, format);
+		Path parent = chrysalisFile.getParent();
+		if (parent != null && !Files.exists(parent)) {
+			Files.createDirectories(parent);
+		}
+		
+		writeAtomically(format, chrysalis, chrysalisFile);
+		
+		for(ChrysalisFormat other : ChrysalisFormat.values()) {
+			if(!other.fileName().equals(format.fileName())) {
+				Files.deleteIfExists(getChrysalisFile(artifact, other));
+			}
+		}
+		invalidate(artifact);
+		return chrysalisFile;
+	}
+	
+	/**
+	 * Writes a chrysalis to a temporary file next to {@code chrysalisFile} and then moves
+	 * it into place, so readers never observe a partially written chrysalis.
+	 */
+	static void writeAtomically(ChrysalisFormat format, Chrysalis chrysalis, Path chrysalisFile) throws IOException {
+		Path temp = getTempFile(chrysalisFile);
+		try {
+			format.write(chrysalis, temp);
+			try {
+				Files.move(temp, chrysalisFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp, chrysalisFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	/**
+	 * @return the temporary file a chrysalis file is written to before being moved into place
+	 */
+	static Path getTempFile(Path chrysalisFile) {
+		return chrysalisFile.resolveSibling(chrysalisFile.getFileName() + ".tmp");
+	}
+	
+	/**
+	 * Removes the chrysalis of an artifact from this vault's cache, in every format.
+	 */
+	void invalidate(IVaultable artifact) {
+		final ChrysalisCache cache = this.cache;
+		if(cache != null) {
+			for(ChrysalisFormat format : ChrysalisFormat.values()) {
+				cache.invalidate(getChrysalisFile(artifact, format));
+			}
+		}
 	}
 	
 	@Override
@@ -0,0 +1,346 @@
+package com.wildermods.thrixlvault;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+
+import com.wildermods.masshash.Hash;
+import com.wildermods.thrixlvault.fs.VaultFileSystemProvider;
+
+/**
+ * Loads classes and resources of a version straight from the blob store of its vault,
+ * without exporting the version to disk.
+ *
+ * <p>
+ * The class path is made of paths relative to the root of the version. A path naming a jar
+ * is read through a {@link JarIndex}, which is shared by every loader of every version using
+ * the same blob, so a jar is only indexed once per process. Any other path is a directory of
+ * the version whose files are looked up through the {@link Chrysalis}.
+ * </p>
+ *
+ * <p>
+ * Resources are located by {@code thrixlvault} URLs, read by the loader itself. The URL of a
+ * file in a directory is the URI of the file in the {@link VaultFileSystemProvider file system}
+ * of the version. The URL of a jar entry appends {@code !/} and the entry name to the URI of
+ * the jar.
+ * </p>
+ *
+ * <p>
+ * Signatures and multi-release entries of jars are ignored, and packages are defined without
+ * reading the manifest.
+ * </p>
+ */
+public class VaultClassLoader extends ClassLoader {
+
+	static {
+		registerAsParallelCapable();
+	}
+
+	private final ChrysalisizedVault vault;
+	private final Map<String, Hash> files = new HashMap<>();
+	private final List<Root> roots = new ArrayList<>();
+
+	/**
+	 * @param vault the version to load from
+	 * @param classpath the jars and directories to load from, relative to the root of the version,
+	 * in the order they are searched
+	 * @param parent the loader classes and resources are looked up in first
+	 *
+	 * @throws NoSuchFileException if a jar of the class path is not a file of the version
+	 * @throws IOException if a jar cannot be indexed
+	 */
+	public VaultClassLoader(ChrysalisizedVault vault, Collection<Path> classpath, ClassLoader parent) throws IOException {
+		super(vault.name(), parent);
+		this.vault = vault;
+		final Chrysalis chrysalis = vault.getChrysalis();
+		synchronized(chrysalis.blobs()) {
+			for(Map.Entry<Hash, Path> entry : chrysalis.blobs().entries()) {
+				files.put(name(entry.getValue()), entry.getKey());
+			}
+		}
+		final String base = VaultFileSystemProvider.toUri(vault, vault.getArtifact()).toString() + "!/";
+		for(Path path : classpath) {
+			final String name = name(path);
+			if(name.endsWith(".jar")) {
+				Hash hash = files.get(name);
+				if(hash == null) {
+					throw new NoSuchFileException(name, null, "Not a file of " + vault.getArtifact());
+				}
+				roots.add(new JarRoot(base + encode(name) + "!/", JarIndex.of(vault.getBlobFile(hash))));
+			}
+			else {
+				String directory = name.isEmpty() ? "" : name + "/";
+				roots.add(new DirectoryRoot(base + encode(directory), directory));
+			}
+		}
+	}
+
+	/**
+	 * Creates a loader whose class path is every jar of the version, in the sorted order of
+	 * their paths.
+	 *
+	 * @throws IOException if a jar cannot be indexed
+	 */
+	public static VaultClassLoader ofJars(ChrysalisizedVault vault, ClassLoader parent) throws IOException {
+		final TreeMap<String, Path> jars = new TreeMap<>();
+		final Chrysalis chrysalis = vault.getChrysalis();
+		synchronized(chrysalis.blobs()) {
+			for(Path path : chrysalis.blobs().values()) {
+				String name = name(path);
+				if(name.endsWith(".jar")) {
+					jars.put(name, path);
+				}
+			}
+		}
+		return new VaultClassLoader(vault, jars.values(), parent);
+	}
+
+	public ChrysalisizedVault getVault() {
+		return vault;
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		final String entry = name.replace('.', '/') + ".class";
+		for(Root root : roots) {
+			final byte[] bytes;
+			try {
+				bytes = root.read(entry);
+			}
+			catch(IOException e) {
+				throw new ClassNotFoundException(name, e);
+			}
+			if(bytes != null) {
+				definePackage(name);
+				return defineClass(name, bytes, 0, bytes.length, root.domain);
+			}
+		}
+		throw new ClassNotFoundException(name);
+	}
+
+	private void definePackage(String className) {
+		int end = className.lastIndexOf('.');
+		if(end < 0) {
+			return;
+		}
+		String name = className.substring(0, end);
+		if(getDefinedPackage(name) == null) {
+			try {
+				definePackage(name, null, null, null, null, null, null, null);
+			}
+			catch(IllegalArgumentException e) {
+				//defined by another thread meanwhile
+			}
+		}
+	}
+
+	@Override
+	protected URL findResource(String name) {
+		for(Root root : roots) {
+			if(root.contains(name)) {
+				return root.url(name);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected Enumeration<URL> findResources(String name) {
+		List<URL> urls = new ArrayList<>();
+		for(Root root : roots) {
+			if(root.contains(name)) {
+				urls.add(root.url(name));
+			}
+		}
+		return Collections.enumeration(urls);
+	}
+
+	@Override
+	public InputStream getResourceAsStream(String name) {
+		InputStream in = getParent() == null ? null : getParent().getResourceAsStream(name);
+		if(in != null) {
+			return in;
+		}
+		//read directly rather than through a URL connection
+		for(Root root : roots) {
+			try {
+				byte[] bytes = root.read(name);
+				if(bytes != null) {
+					return new ByteArrayInputStream(bytes);
+				}
+			}
+			catch(IOException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + vault.getArtifact() + "]";
+	}
+
+	/**
+	 * @return {@code path} as a resource name, its names separated by {@code /}
+	 */
+	private static String name(Path path) {
+		StringJoiner name = new StringJoiner("/");
+		for(Path part : path) {
+			name.add(part.toString());
+		}
+		return name.toString();
+	}
+
+	private static String encode(String path) {
+		try {
+			return new URI(null, null, "/" + path, null).getRawPath().substring(1);
+		}
+		catch(URISyntaxException e) {
+			throw new IllegalArgumentException(path, e);
+		}
+	}
+
+	private static String decode(String raw) {
+		return URI.create("x:/" + raw).getPath().substring(1);
+	}
+
+	/**
+	 * A jar or directory of the class path. Also opens the URLs of its resources.
+	 */
+	private abstract class Root extends URLStreamHandler {
+
+		private final String prefix;
+		private final ProtectionDomain domain;
+
+		private Root(String prefix) {
+			this.prefix = prefix;
+			this.domain = new ProtectionDomain(new CodeSource(url(""), (CodeSigner[]) null), null, VaultClassLoader.this, null);
+		}
+
+		abstract boolean contains(String name);
+
+		/**
+		 * @return the content of the resource, or null if this root does not contain it
+		 */
+		abstract byte[] read(String name) throws IOException;
+
+		URL url(String name) {
+			try {
+				return new URL(null, prefix + encode(name), this);
+			}
+			catch(MalformedURLException e) {
+				throw new IllegalArgumentException(name, e);
+			}
+		}
+
+		@Override
+		protected URLConnection openConnection(URL url) throws IOException {
+			final String spec = url.toString();
+			if(!spec.startsWith(prefix)) {
+				throw new FileNotFoundException(spec);
+			}
+			final String name = decode(spec.substring(prefix.length()));
+			return new URLConnection(url) {
+
+				private byte[] bytes;
+
+				@Override
+				public void connect() throws IOException {
+					if(!connected) {
+						bytes = read(name);
+						if(bytes == null) {
+							throw new FileNotFoundException(spec);
+						}
+						connected = true;
+					}
+				}
+
+				@Override
+				public InputStream getInputStream() throws IOException {
+					connect();
+					return new ByteArrayInputStream(bytes);
+				}
+
+				@Override
+				public long getContentLengthLong() {
+					try {
+						connect();
+						return bytes.length;
+					}
+					catch(IOException e) {
+						return -1;
+					}
+				}
+
+			};
+		}
+
+	}
+
+	private final class JarRoot extends Root {
+
+		private final JarIndex jar;
+
+		private JarRoot(String prefix, JarIndex jar) {
+			super(prefix);
+			this.jar = jar;
+		}
+
+		@Override
+		boolean contains(String name) {
+			return jar.contains(name);
+		}
+
+		@Override
+		byte[] read(String name) throws IOException {
+			return jar.read(name);
+		}
+
+	}
+
+	private final class DirectoryRoot extends Root {
+
+		private final String directory;
+
+		private DirectoryRoot(String prefix, String directory) {
+			super(prefix);
+			this.directory = directory;
+		}
+
+		@Override
+		boolean contains(String name) {
+			return files.containsKey(directory + name);
+		}
+
+		@Override
+		byte[] read(String name) throws IOException {
+			Hash hash = files.get(directory + name);
+			return hash == null ? null : Files.readAllBytes(vault.getBlobFile(hash));
+		}
+
+	}
+
+}
@@ -0,0 +1,290 @@
+package com.wildermods.thrixlvault;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.SetMultimap;
+import com.wildermods.masshash.BlobFactory;
+import com.wildermods.masshash.Hash;
+import com.wildermods.thrixlvault.exception.DatabaseError;
+import com.wildermods.thrixlvault.steam.IVaultable;
+
+/**
+ * Verifies the blobs of many versions of a {@link Vault} at once.
+ *
+ * <p>
+ * Most blobs are shared by many versions, so verifying versions one by one with
+ * {@link ChrysalisizedVault#verifyBlobs(VerificationLevel)} reads a popular blob once per
+ * version using it. The verifier instead takes the union of the blobs of every version,
+ * verifies each distinct blob exactly once in parallel on the vault's {@link BlobScheduler},
+ * and then maps every failure back to all of the versions which use the blob.
+ * </p>
+ *
+ * <p>
+ * Only the blob metadata needed for verification is kept while the chrysalises are loaded,
+ * so memory use grows with the number of distinct blobs rather than the number of versions.
+ * </p>
+ */
+public class VaultVerifier {
+
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private final Vault vault;
+	private VerificationLevel level = VerificationLevel.FULL;
+
+	public VaultVerifier(Vault vault) {
+		this.vault = vault;
+	}
+
+	/**
+	 * Sets how thoroughly each blob is checked. Defaults to {@link VerificationLevel#FULL}.
+	 */
+	public VaultVerifier level(VerificationLevel level) {
+		this.level = level;
+		return this;
+	}
+
+	/**
+	 * Verifies the blobs of every version which has a chrysalis in the vault.
+	 *
+	 * @return the verification report. Versions are identified by their directory in the vault.
+	 *
+	 * @throws IOException if the vault cannot be searched for chrysalis files
+	 * @throws InterruptedException if the verification is interrupted
+	 * @throws ExecutionException if a verification task fails unexpectedly
+	 */
+	public Report verifyAll() throws IOException, InterruptedException, ExecutionException {
+		return verify(findVersions());
+	}
+
+	/**
+	 * Verifies the blobs of the given versions. A version whose chrysalis cannot be loaded
+	 * is reported as unreadable, and does not prevent the other versions from being verified.
+	 *
+	 * @param versions the versions to verify
+	 * @return the verification report
+	 *
+	 * @throws InterruptedException if the verification is interrupted
+	 * @throws ExecutionException if a verification task fails unexpectedly
+	 */
+	public Report verify(Collection<? extends IVaultable> versions) throws InterruptedException, ExecutionException {
+		final Set<IVaultable> distinct = new LinkedHashSet<>(versions);
+		final Report report = new Report(distinct);
+		final SetMultimap<Hash, IVaultable> users = Multimaps.synchronizedSetMultimap(HashMultimap.create());
+		final Map<Hash, BlobFactory> factories = new ConcurrentHashMap<>();
+		final Map<Hash, Long> sizes = new ConcurrentHashMap<>();
+		final Map<Hash, Long> checksums = new ConcurrentHashMap<>();
+
+		LOGGER.info("Loading " + distinct.size() + " versions from " + vault.vaultDir);
+		vault.getScheduler().run(distinct, this::chrysalisSize, (version) -> {
+			final Chrysalis chrysalis;
+			try {
+				chrysalis = vault.chrysalisize(version).getChrysalis();
+			}
+			catch(Throwable t) {
+				LOGGER.error("Could not load " + version, t);
+				report.unreadable.put(version, t);
+				return;
+			}
+			final BlobFactory factory = chrysalis.getBlobFactory();
+			synchronized(chrysalis.blobs()) {
+				for(Hash hash : chrysalis.blobs().keySet()) {
+					users.put(hash, version);
+					factories.putIfAbsent(hash, factory);
+					chrysalis.size(hash).ifPresent((size) -> sizes.putIfAbsent(hash, size));
+					chrysalis.checksum(hash).ifPresent((checksum) -> checksums.putIfAbsent(hash, checksum));
+				}
+			}
+		});
+
+		final Set<Hash> blobs = Set.copyOf(users.keySet());
+		report.blobs = blobs.size();
+		LOGGER.info("Verifying " + blobs.size() + " distinct blobs used by " + (distinct.size() - report.unreadable.size()) + " versions (" + level + ")");
+		long bytes = sizes.size() < blobs.size() ? -1 : sizes.values().stream().mapToLong(Long::longValue).sum();
+		final BlobScheduler scheduler;
+		try {
+			scheduler = vault.getScheduler(vault.blobDir);
+		}
+		catch(IOException e) {
+			throw new ExecutionException(e);
+		}
+		try(ProgressTracker progress = vault.trackProgress("Verifying " + blobs.size() + " blobs of " + distinct.size() + " versions", blobs.size(), bytes)) {
+			scheduler.run(blobs, (hash) -> sizes.getOrDefault(hash, -1L), BlobLocality.keys(vault, blobs), (hash) -> {
+				DatabaseError problem = ChrysalisizedVault.verifyBlob(
+					factories.get(hash),
+					hash,
+					optional(sizes.get(hash)),
+					optional(checksums.get(hash)),
+					vault.blobDir.resolve(hash.hash()),
+					level
+				);
+				if(problem != null) {
+					LOGGER.error(problem.getMessage());
+					report.failures.put(hash, problem);
+				}
+				progress.add(1, sizes.getOrDefault(hash, 0L));
+			});
+		}
+		finally {
+			vault.saveConcurrency();
+		}
+
+		ImmutableSetMultimap.Builder<IVaultable, Hash> failuresByVersion = ImmutableSetMultimap.builder();
+		for(Hash hash : report.failures.keySet()) {
+			for(IVaultable version : users.get(hash)) {
+				failuresByVersion.put(version, hash);
+			}
+		}
+		report.failuresByVersion = failuresByVersion.build();
+
+		LOGGER.info(report);
+		return report;
+	}
+
+	private long chrysalisSize(IVaultable version) {
+		try {
+			return Files.size(vault.getChrysalisFile(version));
+		}
+		catch(IOException e) {
+			return -1;
+		}
+	}
+
+	private static OptionalLong optional(Long value) {
+		return value == null ? OptionalLong.empty() : OptionalLong.of(value);
+	}
+
+	/**
+	 * Finds every directory of the vault containing a chrysalis file.
+	 */
+	private Set<IVaultable> findVersions() throws IOException {
+		final Set<String> names = Stream.of(ChrysalisFormat.values()).map(ChrysalisFormat::fileName).collect(Collectors.toSet());
+		final Set<IVaultable> versions = new LinkedHashSet<>();
+		Files.walkFileTree(vault.vaultDir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				return dir.equals(vault.blobDir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if(names.contains(file.getFileName().toString()) && !file.getParent().equals(vault.vaultDir)) {
+					versions.add(new StoredVersion(vault.vaultDir.relativize(file.getParent())));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return versions;
+	}
+
+	/**
+	 * The outcome of a {@link VaultVerifier} run.
+	 */
+	public static final class Report {
+
+		private final Set<IVaultable> versions;
+		private final Map<IVaultable, Throwable> unreadable = new ConcurrentHashMap<>();
+		private final Map<Hash, DatabaseError> failures = new ConcurrentHashMap<>();
+		private volatile int blobs;
+		private volatile SetMultimap<IVaultable, Hash> failuresByVersion = ImmutableSetMultimap.of();
+
+		private Report(Set<IVaultable> versions) {
+			this.versions = Collections.unmodifiableSet(versions);
+		}
+
+		/**
+		 * @return every version which was requested to be verified
+		 */
+		public Set<IVaultable> getVersions() {
+			return versions;
+		}
+
+		/**
+		 * @return the number of distinct blobs verified
+		 */
+		public int getBlobs() {
+			return blobs;
+		}
+
+		/**
+		 * @return the blobs which are missing or corrupted, and what is wrong with each of them
+		 */
+		public Map<Hash, DatabaseError> getFailures() {
+			return Collections.unmodifiableMap(failures);
+		}
+
+		/**
+		 * @return the failed blobs of every version using at least one of them
+		 */
+		public SetMultimap<IVaultable, Hash> getFailuresByVersion() {
+			return failuresByVersion;
+		}
+
+		/**
+		 * @return the versions whose chrysalis could not be loaded, and why
+		 */
+		public Map<IVaultable, Throwable> getUnreadable() {
+			return Collections.unmodifiableMap(unreadable);
+		}
+
+		/**
+		 * @return every version which is unreadable or uses a failed blob
+		 */
+		public Set<IVaultable> getFailedVersions() {
+			Set<IVaultable> failed = new LinkedHashSet<>();
+			for(IVaultable version : versions) {
+				if(unreadable.containsKey(version) || failuresByVersion.containsKey(version)) {
+					failed.add(version);
+				}
+			}
+			return failed;
+		}
+
+		public boolean isSuccessful() {
+			return failures.isEmpty() && unreadable.isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder("Vault verification report: ");
+			builder.append(versions.size()).append(" versions, ");
+			builder.append(blobs).append(" distinct blobs verified, ");
+			builder.append(failures.size()).append(" failed");
+			if(!unreadable.isEmpty()) {
+				builder.append(", ").append(unreadable.size()).append(" versions could not be loaded");
+			}
+			for(IVaultable version : getFailedVersions()) {
+				builder.append("\n\t").append(version.name()).append(": ");
+				if(unreadable.containsKey(version)) {
+					builder.append("unreadable (").append(unreadable.get(version)).append(")");
+				}
+				else {
+					builder.append(failuresByVersion.get(version).size()).append(" failed blobs");
+				}
+			}
+			return builder.toString();
+		}
+
+	}
+
+}
@@ -0,0 +1,31 @@
+package com.wildermods.thrixlvault;
+
+/**
+ * Determines how thoroughly {@link ChrysalisizedVault} checks blobs and exported resources.
+ * <p>
+ * Cheaper levels are useful for frequent sanity passes over a whole vault, while
+ * {@link #FULL} verification can be scheduled separately.
+ * </p>
+ */
+public enum VerificationLevel {
+
+	/**
+	 * Checks that every file exists and has the size recorded in the {@link Chrysalis}.
+	 * Only file metadata is read. If the chrysalis predates size tracking, only
+	 * existence is checked.
+	 */
+	METADATA,
+
+	/**
+	 * Reads every file and compares its fast {@link com.wildermods.thrixlvault.utils.XXHash64 XXH64}
+	 * checksum against the {@link Chrysalis}. Blobs without a recorded checksum are
+	 * verified at the {@link #FULL} level instead.
+	 */
+	CHECKSUM,
+
+	/**
+	 * Reads every file and compares its cryptographic hash against the {@link Chrysalis}.
+	 */
+	FULL;
+
+}
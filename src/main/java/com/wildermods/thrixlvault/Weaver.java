@@ -3,10 +3,8 @@ package com.wildermods.thrixlvault;
 import java.io.IOException;
 import java.nio.file.CopyOption;
 import java.nio.file.Files;
-import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
@@ -24,6 +22,7 @@ import com.wildermods.masshash.exception.IntegrityException;
 import com.wildermods.thrixlvault.exception.VersionAlreadyWeavedException;
 import com.wildermods.thrixlvault.steam.IDownload;
 import com.wildermods.thrixlvault.steam.IVaultable;
+import com.wildermods.thrixlvault.utils.ParallelDirectoryWalker;
 
 
 /**
@@ -87,8 +86,25 @@ public class Weaver implements IVaultable {
      * @throws IntegrityException if an integrity violation occurs
      */
 	public Weaver(Vault vault, IVaultable artifact, Path sourcesDir, boolean force) throws IOException, IntegrityException {
+		this(vault, artifact, sourcesDir, force, false);
+	}
+	
+    /**
+     * Constructs a new {@code Weaver} with the option to force overwrite an existing weaved version,
+     * and to record a fast {@link com.wildermods.thrixlvault.utils.XXHash64 XXH64} checksum for every
+     * blob next to its cryptographic hash.
+     *
+     * @param vault the vault weave into
+     * @param version the version string to associate with the weaved result
+     * @param sourcesDir the directory to scan for files
+     * @param force whether to overwrite existing data
+     * @param checksums whether to record secondary checksums for {@link VerificationLevel#CHECKSUM} verification
+     * @throws IOException if an I/O error occurs
+     * @throws IntegrityException if an integrity violation occurs
+     */
+	public Weaver(Vault vault, IVaultable artifact, Path sourcesDir, boolean force, boolean checksums) throws IOException, IntegrityException {
 		this.artifact = artifact;
-		this.vault = weave(sourcesDir, vault, force);
+		this.vault = weave(sourcesDir, vault, force, checksums);
 		this.marker = MarkerManager.getMarker(artifact.name());
 	}
 	
@@ -129,45 +145,64 @@ public class Weaver implements IVaultable {
      * @param sourceDir the source directory to scan
      * @param vault the vault receiving the blobs and manifest
      * @param force whether to overwrite existing files
+     * @param checksums whether to record secondary checksums
      * @return a new {@link ChrysalisizedVault} instance
      * @throws IOException if an I/O error occurs
      * @throws IntegrityException if an integrity issue is found
      */
-	private ChrysalisizedVault weave(Path sourceDir, Vault vault, boolean force) throws IOException, IntegrityException {
-		if(!force && Files.exists(vault.getChrysalisFile(this))) {
+	private ChrysalisizedVault weave(Path sourceDir, Vault vault, boolean force, boolean checksums) throws IOException, IntegrityException {
+		if(!force && vault.hasChrysalis(this)) {
 			throw new VersionAlreadyWeavedException(artifact.name() + " in " + vault.getChrysalisFile(this));
 		}
 		
 		AtomicLong preExistingBlobs = new AtomicLong();
 		AtomicLong overwrittenBlobs = new AtomicLong();
 		final Set<Path> writtenBlobs = ConcurrentHashMap.newKeySet();
-		final OpenOption[] openOptions = !force ? new StandardOpenOption[] {StandardOpenOption.CREATE_NEW} : new StandardOpenOption[] {StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING};
 		final CopyOption[] copyOptions = !force ? new StandardCopyOption[0] : new StandardCopyOption[]{StandardCopyOption.REPLACE_EXISTING};
-		Chrysalis chrysalis = Chrysalis.fromDir(sourceDir, (p, blob) -> {
-			Path blobPath = vault.blobDir.resolve(blob.hash());
-			p.set(sourceDir.relativize(p.get())); //set the path output to be relativized
-			final boolean exists = Files.exists(blobPath);
-			
-			if(!force && exists) {
-				preExistingBlobs.addAndGet(1);
-			}
-			else {
+		final Chrysalis chrysalis;
+		final ConcurrencyController concurrency = vault.getConcurrencyController(sourceDir);
+		final ParallelDirectoryWalker walker = new ParallelDirectoryWalker(sourceDir);
+		if(concurrency != null) {
+			walker.parallelism(concurrency.getLimit());
+		}
+		final long start = System.nanoTime();
+		try(ProgressTracker progress = vault.trackProgress("Weaving " + artifact.name() + " from " + sourceDir, -1, -1)) {
+			chrysalis = Chrysalis.fromDir(walker, checksums, (p, blob) -> {
+				Path blobPath = vault.blobDir.resolve(blob.hash());
 				try {
-					if(writtenBlobs.add(blobPath)) {
-						if(exists) {
-							overwrittenBlobs.addAndGet(1);
-						}
-						
-						Files.copy(blob.dataStream(), blobPath, copyOptions);
-					}
-					else {
-						LOGGER.warn(marker, "Skipping concurrent write of " + blobPath);
-					}
+					progress.add(1, Files.size(p.get()));
 				} catch (IOException e) {
 					throw new RuntimeException(e);
 				}
+				p.set(sourceDir.relativize(p.get())); //set the path output to be relativized
+				final boolean exists = Files.exists(blobPath);
+			
+				if(!force && exists) {
+					preExistingBlobs.addAndGet(1);
+				}
+				else {
+					try {
+						if(writtenBlobs.add(blobPath)) {
+							if(exists) {
+								overwrittenBlobs.addAndGet(1);
+							}
+						
+							Files.copy(blob.dataStream(), blobPath, copyOptions);
+						}
+						else {
+							LOGGER.warn(marker, "Skipping concurrent write of " + blobPath);
+						}
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+			if(concurrency != null) {
+				Progress done = progress.snapshot();
+				concurrency.recordRun(done.getBlobsDone(), done.getBytesDone(), System.nanoTime() - start);
+				vault.saveConcurrency();
 			}
-		});
+		}
 
 		LOGGER.info(marker, "");
 		LOGGER.info(marker, "===================WEAVER RESULTS===================");
@@ -180,18 +215,12 @@ public class Weaver implements IVaultable {
 		LOGGER.info(marker, "====================================================");
 		LOGGER.info(marker, "");
 		
-		//Serialize and write the chrysalis to the version-specific JSON file
+		//Serialize and write the chrysalis to the version-specific file
 		try {
-			Path chrysalisFile = vault.getChrysalisFile(this);
-			Path parent = chrysalisFile.getParent();
-			
-			if (parent != null && !Files.exists(parent)) {
-				Files.createDirectories(parent);
-			}
-			Files.writeString(chrysalisFile, GSON.toJson(chrysalis), openOptions);
+			Path chrysalisFile = vault.writeChrysalis(this, chrysalis);
 			LOGGER.info(marker, "Wrote weaved version to: " + chrysalisFile);
 		} catch (IOException e) {
-			throw new IOException("Failed to write weaved data to JSON", e);
+			throw new IOException("Failed to write weaved data to " + vault.getFormat(), e);
 		}
 		
 		return vault.chrysalisize(this);
@@ -0,0 +1,91 @@
+package com.wildermods.thrixlvault.fs;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.wildermods.masshash.Hash;
+
+/**
+ * The attributes of a file or directory of a {@link VaultFileSystem}. The file key of a
+ * file is the hash of its blob, which files with identical content share.
+ */
+final class VaultFileAttributes implements BasicFileAttributes {
+
+	private final FileTime time;
+	private final Hash hash;
+	private final long size;
+
+	/**
+	 * @param hash the blob of the file, or null for a directory
+	 */
+	VaultFileAttributes(FileTime time, Hash hash, long size) {
+		this.time = time;
+		this.hash = hash;
+		this.size = size;
+	}
+
+	@Override
+	public FileTime lastModifiedTime() {
+		return time;
+	}
+
+	@Override
+	public FileTime lastAccessTime() {
+		return time;
+	}
+
+	@Override
+	public FileTime creationTime() {
+		return time;
+	}
+
+	@Override
+	public boolean isRegularFile() {
+		return hash != null;
+	}
+
+	@Override
+	public boolean isDirectory() {
+		return hash == null;
+	}
+
+	@Override
+	public boolean isSymbolicLink() {
+		return false;
+	}
+
+	@Override
+	public boolean isOther() {
+		return false;
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public Object fileKey() {
+		return hash == null ? null : hash.hash();
+	}
+
+	/**
+	 * @return the attributes by their name in the {@code basic} view
+	 */
+	Map<String, Object> toMap() {
+		Map<String, Object> attributes = new LinkedHashMap<>();
+		attributes.put("lastModifiedTime", lastModifiedTime());
+		attributes.put("lastAccessTime", lastAccessTime());
+		attributes.put("creationTime", creationTime());
+		attributes.put("size", size());
+		attributes.put("isRegularFile", isRegularFile());
+		attributes.put("isDirectory", isDirectory());
+		attributes.put("isSymbolicLink", isSymbolicLink());
+		attributes.put("isOther", isOther());
+		attributes.put("fileKey", fileKey());
+		return attributes;
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.wildermods.thrixlvault.fs;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileStoreAttributeView;
+
+import com.wildermods.masshash.Hash;
+import com.wildermods.thrixlvault.Chrysalis;
+
+/**
+ * The only file store of a {@link VaultFileSystem}. Its total space is the size of the
+ * distinct blobs of the version, and it has no space left.
+ */
+final class VaultFileStore extends FileStore {
+
+	private final VaultFileSystem fileSystem;
+
+	VaultFileStore(VaultFileSystem fileSystem) {
+		this.fileSystem = fileSystem;
+	}
+
+	@Override
+	public String name() {
+		return fileSystem.getVault().name();
+	}
+
+	@Override
+	public String type() {
+		return VaultFileSystemProvider.SCHEME;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	public long getTotalSpace() throws IOException {
+		Chrysalis chrysalis = fileSystem.getVault().getChrysalis();
+		long total = 0;
+		synchronized(chrysalis.blobs()) {
+			for(Hash hash : chrysalis.blobs().keySet()) {
+				total += fileSystem.size(hash);
+			}
+		}
+		return total;
+	}
+
+	@Override
+	public long getUsableSpace() {
+		return 0;
+	}
+
+	@Override
+	public long getUnallocatedSpace() {
+		return 0;
+	}
+
+	@Override
+	public boolean supportsFileAttributeView(Class<? extends FileAttributeView> type) {
+		return type == BasicFileAttributeView.class;
+	}
+
+	@Override
+	public boolean supportsFileAttributeView(String name) {
+		return name.equals("basic");
+	}
+
+	@Override
+	public <V extends FileStoreAttributeView> V getFileStoreAttributeView(Class<V> type) {
+		return null;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws IOException {
+		switch(attribute) {
+			case "totalSpace":
+				return getTotalSpace();
+			case "usableSpace":
+				return getUsableSpace();
+			case "unallocatedSpace":
+				return getUnallocatedSpace();
+			default:
+				throw new UnsupportedOperationException("Unsupported file store attribute " + attribute);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name() + " (" + type() + ")";
+	}
+
+}
@@ -0,0 +1,279 @@
+package com.wildermods.thrixlvault.fs;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.StringJoiner;
+import java.util.TreeSet;
+
+import com.wildermods.masshash.Hash;
+import com.wildermods.thrixlvault.Chrysalis;
+import com.wildermods.thrixlvault.ChrysalisizedVault;
+
+/**
+ * A read-only view of the files of a {@link ChrysalisizedVault}, created by the
+ * {@link VaultFileSystemProvider}.
+ *
+ * <p>
+ * The directory tree comes from the version's {@link Chrysalis}, and is indexed the first
+ * time it is needed, so opening a file system costs nothing up front. File content is read
+ * straight from the blob store when a file is opened. Every file and directory carries the
+ * modification time of the version's chrysalis file.
+ * </p>
+ */
+public final class VaultFileSystem extends FileSystem {
+
+	private final VaultFileSystemProvider provider;
+	private final ChrysalisizedVault vault;
+	private final String uri;
+	private final VaultPath root;
+	private final VaultFileStore store;
+	private volatile boolean open = true;
+	private volatile Index index;
+	private volatile FileTime time;
+
+	VaultFileSystem(VaultFileSystemProvider provider, ChrysalisizedVault vault, String uri) {
+		this.provider = provider;
+		this.vault = vault;
+		this.uri = uri;
+		this.root = new VaultPath(this, "/");
+		this.store = new VaultFileStore(this);
+	}
+
+	/**
+	 * @return the version this file system presents
+	 */
+	public ChrysalisizedVault getVault() {
+		return vault;
+	}
+
+	@Override
+	public VaultFileSystemProvider provider() {
+		return provider;
+	}
+
+	/**
+	 * Closes this file system. Channels and streams already opened stay readable.
+	 */
+	@Override
+	public void close() {
+		if(open) {
+			open = false;
+			provider.remove(uri, this);
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	public String getSeparator() {
+		return "/";
+	}
+
+	@Override
+	public Iterable<Path> getRootDirectories() {
+		return Collections.singleton(root);
+	}
+
+	@Override
+	public Iterable<FileStore> getFileStores() {
+		return Collections.singleton(store);
+	}
+
+	@Override
+	public Set<String> supportedFileAttributeViews() {
+		return Collections.singleton("basic");
+	}
+
+	@Override
+	public Path getPath(String first, String... more) {
+		StringJoiner path = new StringJoiner("/");
+		path.add(first);
+		for(String name : more) {
+			if(!name.isEmpty()) {
+				path.add(name);
+			}
+		}
+		return new VaultPath(this, path.toString());
+	}
+
+	@Override
+	public PathMatcher getPathMatcher(String syntaxAndPattern) {
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher(syntaxAndPattern);
+		FileSystem local = FileSystems.getDefault();
+		return (path) -> matcher.matches(local.getPath(path.toString()));
+	}
+
+	@Override
+	public UserPrincipalLookupService getUserPrincipalLookupService() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public WatchService newWatchService() {
+		throw new UnsupportedOperationException("Vault file systems are read-only and cannot be watched");
+	}
+
+	@Override
+	public String toString() {
+		return uri;
+	}
+
+	VaultPath getRoot() {
+		return root;
+	}
+
+	VaultFileStore getStore() {
+		return store;
+	}
+
+	URI toUri(String absolutePath) {
+		return VaultFileSystemProvider.toUri(uri, absolutePath);
+	}
+
+	void ensureOpen() {
+		if(!open) {
+			throw new ClosedFileSystemException();
+		}
+	}
+
+	/**
+	 * @return the blob of the file at {@code path}, or null if it is a directory
+	 * @throws NoSuchFileException if there is no such file or directory
+	 */
+	Hash lookup(VaultPath path) throws NoSuchFileException {
+		ensureOpen();
+		String key = key(path);
+		Index index = index();
+		Hash hash = index.files.get(key);
+		if(hash == null && !index.directories.containsKey(key)) {
+			throw new NoSuchFileException(path.toString());
+		}
+		return hash;
+	}
+
+	/**
+	 * @return the names of the entries of the directory at {@code path}, or null if it is
+	 * not a directory
+	 * @throws NoSuchFileException if there is no such file or directory
+	 */
+	SortedSet<String> list(VaultPath path) throws NoSuchFileException {
+		lookup(path);
+		SortedSet<String> children = index().directories.get(key(path));
+		return children == null ? null : Collections.unmodifiableSortedSet(children);
+	}
+
+	boolean isExecutable(VaultPath path) {
+		return index().executables.contains(key(path));
+	}
+
+	/**
+	 * @return the blob file storing the content of the file at {@code path}
+	 * @throws NoSuchFileException if there is no such file
+	 * @throws IOException if {@code path} is a directory
+	 */
+	Path blobFile(VaultPath path) throws IOException {
+		Hash hash = lookup(path);
+		if(hash == null) {
+			throw new IOException(path + " is a directory");
+		}
+		return vault.getBlobFile(hash);
+	}
+
+	long size(Hash hash) throws IOException {
+		OptionalLong size = vault.getChrysalis().size(hash);
+		return size.isPresent() ? size.getAsLong() : Files.size(vault.getBlobFile(hash));
+	}
+
+	/**
+	 * @return the time of every file and directory, which is when the version was woven
+	 */
+	FileTime time() {
+		FileTime time = this.time;
+		if(time == null) {
+			try {
+				time = Files.getLastModifiedTime(vault.getChrysalisFile());
+			}
+			catch(IOException e) {
+				time = FileTime.fromMillis(0);
+			}
+			this.time = time;
+		}
+		return time;
+	}
+
+	private static String key(VaultPath path) {
+		return path.toAbsolutePath().normalize().toString();
+	}
+
+	private Index index() {
+		Index index = this.index;
+		if(index == null) {
+			synchronized(this) {
+				index = this.index;
+				if(index == null) {
+					index = new Index(vault.getChrysalis());
+					this.index = index;
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * The directory tree of a chrysalis, keyed by absolute path.
+	 */
+	private static final class Index {
+
+		private final Map<String, Hash> files = new HashMap<>();
+		private final Map<String, SortedSet<String>> directories = new HashMap<>();
+		private final Set<String> executables = new HashSet<>();
+
+		private Index(Chrysalis chrysalis) {
+			directories.put("/", new TreeSet<>());
+			synchronized(chrysalis.blobs()) {
+				for(Map.Entry<Hash, Path> entry : chrysalis.blobs().entries()) {
+					Path path = entry.getValue();
+					StringJoiner key = new StringJoiner("/", "/", "");
+					String parent = "/";
+					for(Path name : path) {
+						directories.computeIfAbsent(parent, (k) -> new TreeSet<>()).add(name.toString());
+						key.add(name.toString());
+						parent = key.toString();
+					}
+					files.put(parent, entry.getKey());
+					if(chrysalis.isExecutable(path)) {
+						executables.add(parent);
+					}
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,479 @@
+package com.wildermods.thrixlvault.fs;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.wildermods.masshash.Hash;
+import com.wildermods.thrixlvault.ChrysalisizedVault;
+import com.wildermods.thrixlvault.StoredVersion;
+import com.wildermods.thrixlvault.Vault;
+import com.wildermods.thrixlvault.exception.MissingVersionException;
+import com.wildermods.thrixlvault.steam.IVaultable;
+
+/**
+ * Presents the versions stored in a {@link Vault} as read-only file systems, so that tools
+ * can browse and read a version with the regular {@link Files} API without exporting it.
+ *
+ * <p>
+ * A version is identified by a URI of the form
+ * {@code thrixlvault:<vault directory URI>!/<version directory>}, such as
+ * {@code thrixlvault:file:///home/me/thrixlvault!/wildermyth/1.16+559}, and a file inside
+ * of it by appending {@code !} and its absolute path:
+ * {@code thrixlvault:file:///home/me/thrixlvault!/wildermyth/1.16+559!/scripts/main.json}.
+ * </p>
+ *
+ * <p>
+ * File systems are created with {@link java.nio.file.FileSystems#newFileSystem(URI, Map)}, where the
+ * optional {@value #VERSION} entry of the environment supplies the {@link IVaultable} of the
+ * version, or directly from a loaded version with {@link #newFileSystem(ChrysalisizedVault)}.
+ * Channels opened on a file read its blob lazily, and are seekable.
+ * </p>
+ */
+public final class VaultFileSystemProvider extends FileSystemProvider {
+
+	public static final String SCHEME = "thrixlvault";
+
+	/**
+	 * The environment entry supplying the {@link IVaultable} of the version to open. Without
+	 * it the version is identified only by its directory.
+	 */
+	public static final String VERSION = "version";
+
+	private static final Map<String, VaultFileSystem> FILE_SYSTEMS = new ConcurrentHashMap<>();
+	private static volatile VaultFileSystemProvider fallback;
+
+	/**
+	 * Creates a file system presenting an already loaded version.
+	 *
+	 * @throws FileSystemAlreadyExistsException if a file system for the version is open
+	 */
+	public static VaultFileSystem newFileSystem(ChrysalisizedVault vault) {
+		return installed().register(vault);
+	}
+
+	/**
+	 * @return the URI of the file system presenting {@code version} of {@code vault}
+	 */
+	public static URI toUri(Vault vault, IVaultable version) {
+		return URI.create(key(vault.vaultDir, version.artifactPath()));
+	}
+
+	/**
+	 * @return the installed instance of this provider, which {@link Path#of(URI)} resolves
+	 * paths with, or a private instance if the provider is not installed
+	 */
+	private static VaultFileSystemProvider installed() {
+		for(FileSystemProvider provider : FileSystemProvider.installedProviders()) {
+			if(provider instanceof VaultFileSystemProvider) {
+				return (VaultFileSystemProvider) provider;
+			}
+		}
+		if(fallback == null) {
+			fallback = new VaultFileSystemProvider();
+		}
+		return fallback;
+	}
+
+	@Override
+	public String getScheme() {
+		return SCHEME;
+	}
+
+	@Override
+	public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+		final Location location = Location.of(uri);
+		final Object version = env.get(VERSION);
+		final IVaultable artifact;
+		if(version == null) {
+			artifact = new StoredVersion(location.vaultDir.getFileSystem().getPath(location.artifact));
+		}
+		else if(version instanceof IVaultable) {
+			artifact = (IVaultable) version;
+			if(!key(location.vaultDir, artifact.artifactPath()).equals(location.key)) {
+				throw new IllegalArgumentException(artifact + " is not stored at " + uri);
+			}
+		}
+		else {
+			throw new IllegalArgumentException(VERSION + " must be an " + IVaultable.class.getSimpleName() + ", got " + version);
+		}
+		if(FILE_SYSTEMS.containsKey(location.key)) {
+			throw new FileSystemAlreadyExistsException(location.key);
+		}
+		if(!Files.isDirectory(location.vaultDir)) {
+			throw new NoSuchFileException(location.vaultDir.toString(), null, "Not a vault");
+		}
+		final Vault vault = new Vault(location.vaultDir);
+		try {
+			return register(vault.chrysalisize(artifact));
+		}
+		catch(MissingVersionException e) {
+			NoSuchFileException missing = new NoSuchFileException(vault.getChrysalisFile(artifact).toString(), null, "No such version");
+			missing.initCause(e);
+			throw missing;
+		}
+	}
+
+	private VaultFileSystem register(ChrysalisizedVault vault) {
+		final String key = key(vault.vaultDir, vault.artifactPath());
+		final VaultFileSystem fileSystem = new VaultFileSystem(this, vault, key);
+		if(FILE_SYSTEMS.putIfAbsent(key, fileSystem) != null) {
+			throw new FileSystemAlreadyExistsException(key);
+		}
+		return fileSystem;
+	}
+
+	void remove(String key, VaultFileSystem fileSystem) {
+		FILE_SYSTEMS.remove(key, fileSystem);
+	}
+
+	@Override
+	public VaultFileSystem getFileSystem(URI uri) {
+		VaultFileSystem fileSystem = FILE_SYSTEMS.get(Location.of(uri).key);
+		if(fileSystem == null) {
+			throw new FileSystemNotFoundException(uri.toString());
+		}
+		return fileSystem;
+	}
+
+	@Override
+	public Path getPath(URI uri) {
+		return getFileSystem(uri).getPath(Location.of(uri).path);
+	}
+
+	@Override
+	public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attributes) throws IOException {
+		return newFileChannel(path, options, attributes);
+	}
+
+	@Override
+	public FileChannel newFileChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attributes) throws IOException {
+		final VaultPath file = check(path);
+		if(options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND) || options.contains(StandardOpenOption.DELETE_ON_CLOSE)) {
+			throw new ReadOnlyFileSystemException();
+		}
+		final Path blobFile = file.getFileSystem().blobFile(file);
+		try {
+			return FileChannel.open(blobFile, StandardOpenOption.READ);
+		}
+		catch(NoSuchFileException e) {
+			throw new NoSuchFileException(path.toString(), blobFile.toString(), "Missing blob");
+		}
+	}
+
+	@Override
+	public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter) throws IOException {
+		final VaultPath directory = check(dir);
+		final SortedSet<String> names = directory.getFileSystem().list(directory);
+		if(names == null) {
+			throw new NotDirectoryException(dir.toString());
+		}
+		return new VaultDirectoryStream(directory, names, filter);
+	}
+
+	@Override
+	public void createDirectory(Path dir, FileAttribute<?>... attributes) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public void delete(Path path) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public void copy(Path source, Path target, CopyOption... options) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public void move(Path source, Path target, CopyOption... options) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public boolean isSameFile(Path path, Path other) throws IOException {
+		if(path.equals(other)) {
+			return true;
+		}
+		if(!(other instanceof VaultPath) || check(path).getFileSystem() != ((VaultPath) other).getFileSystem()) {
+			return false;
+		}
+		return path.toRealPath().equals(other.toRealPath());
+	}
+
+	@Override
+	public boolean isHidden(Path path) {
+		Path name = check(path).getFileName();
+		return name != null && name.toString().startsWith(".");
+	}
+
+	@Override
+	public FileStore getFileStore(Path path) throws IOException {
+		final VaultPath file = check(path);
+		file.getFileSystem().lookup(file);
+		return file.getFileSystem().getStore();
+	}
+
+	@Override
+	public void checkAccess(Path path, AccessMode... modes) throws IOException {
+		final VaultPath file = check(path);
+		final Hash hash = file.getFileSystem().lookup(file);
+		for(AccessMode mode : modes) {
+			if(mode == AccessMode.WRITE) {
+				throw new AccessDeniedException(path.toString(), null, "Read-only file system");
+			}
+			if(mode == AccessMode.EXECUTE && hash != null && !file.getFileSystem().isExecutable(file)) {
+				throw new AccessDeniedException(path.toString(), null, "Not executable");
+			}
+		}
+	}
+
+	@Override
+	public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+		final VaultPath file = check(path);
+		if(type != BasicFileAttributeView.class) {
+			return null;
+		}
+		return type.cast(new BasicFileAttributeView() {
+			@Override
+			public String name() {
+				return "basic";
+			}
+
+			@Override
+			public BasicFileAttributes readAttributes() throws IOException {
+				return attributes(file);
+			}
+
+			@Override
+			public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+				throw new ReadOnlyFileSystemException();
+			}
+		});
+	}
+
+	@Override
+	public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options) throws IOException {
+		if(type != BasicFileAttributes.class) {
+			throw new UnsupportedOperationException("Unsupported file attributes " + type.getName());
+		}
+		return type.cast(attributes(check(path)));
+	}
+
+	@Override
+	public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+		final VaultPath file = check(path);
+		String names = attributes;
+		int colon = attributes.indexOf(':');
+		if(colon >= 0) {
+			String view = attributes.substring(0, colon);
+			if(!view.equals("basic")) {
+				throw new UnsupportedOperationException("Unsupported file attribute view " + view);
+			}
+			names = attributes.substring(colon + 1);
+		}
+		final Map<String, Object> all = attributes(file).toMap();
+		if(names.equals("*")) {
+			return all;
+		}
+		final Map<String, Object> selected = new LinkedHashMap<>();
+		for(String name : names.split(",")) {
+			if(!all.containsKey(name)) {
+				throw new IllegalArgumentException("Unknown basic attribute " + name);
+			}
+			selected.put(name, all.get(name));
+		}
+		return selected;
+	}
+
+	@Override
+	public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	private static VaultFileAttributes attributes(VaultPath path) throws IOException {
+		final VaultFileSystem fileSystem = path.getFileSystem();
+		final Hash hash = fileSystem.lookup(path);
+		return new VaultFileAttributes(fileSystem.time(), hash, hash == null ? 0 : fileSystem.size(hash));
+	}
+
+	private static VaultPath check(Path path) {
+		if(!(path instanceof VaultPath)) {
+			throw new ProviderMismatchException(path == null ? "null" : path.getClass().getName());
+		}
+		VaultPath vaultPath = (VaultPath) path;
+		vaultPath.getFileSystem().ensureOpen();
+		return vaultPath;
+	}
+
+	/**
+	 * @return the URI of the file system presenting the version stored in
+	 * {@code artifactPath} of the vault in {@code vaultDir}
+	 */
+	private static String key(Path vaultDir, Path artifactPath) {
+		String vault = vaultDir.toAbsolutePath().normalize().toUri().toString();
+		if(vault.endsWith("/")) {
+			vault = vault.substring(0, vault.length() - 1);
+		}
+		StringJoiner artifact = new StringJoiner("/");
+		for(Path name : artifactPath) {
+			artifact.add(name.toString());
+		}
+		return SCHEME + ":" + vault + "!/" + encode(artifact.toString());
+	}
+
+	static URI toUri(String key, String absolutePath) {
+		return URI.create(key + "!/" + encode(absolutePath.substring(1)));
+	}
+
+	/**
+	 * @return {@code path} with the characters which are not allowed in a URI quoted
+	 */
+	private static String encode(String path) {
+		try {
+			return new URI(null, null, "/" + path, null).getRawPath().substring(1);
+		}
+		catch(URISyntaxException e) {
+			throw new IllegalArgumentException(path, e);
+		}
+	}
+
+	private static String decode(String raw) {
+		return URI.create("x:/" + raw).getPath().substring(1);
+	}
+
+	/**
+	 * A parsed {@code thrixlvault} URI.
+	 */
+	private static final class Location {
+
+		private final Path vaultDir;
+		private final String artifact;
+		private final String path;
+		private final String key;
+
+		private Location(Path vaultDir, String artifact, String path) {
+			this.vaultDir = vaultDir;
+			this.artifact = artifact;
+			this.path = path;
+			this.key = key(vaultDir, vaultDir.getFileSystem().getPath(artifact));
+		}
+
+		private static Location of(URI uri) {
+			if(!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+				throw new IllegalArgumentException("Not a " + SCHEME + " URI: " + uri);
+			}
+			final String ssp = uri.getRawSchemeSpecificPart();
+			final int vaultEnd = ssp.indexOf("!/");
+			if(vaultEnd < 0) {
+				throw new IllegalArgumentException("URI does not name a version: " + uri);
+			}
+			final String rest = ssp.substring(vaultEnd + 2);
+			final int artifactEnd = rest.indexOf('!');
+			final String artifact = decode(artifactEnd < 0 ? rest : rest.substring(0, artifactEnd));
+			final String path = artifactEnd < 0 ? "/" : decode(rest.substring(artifactEnd + 2));
+			if(artifact.isEmpty()) {
+				throw new IllegalArgumentException("URI does not name a version: " + uri);
+			}
+			return new Location(Path.of(URI.create(ssp.substring(0, vaultEnd))), artifact, "/" + path);
+		}
+
+	}
+
+	/**
+	 * The entries of a directory, filtered while they are iterated.
+	 */
+	private static final class VaultDirectoryStream implements DirectoryStream<Path> {
+
+		private final VaultPath directory;
+		private final Iterator<String> names;
+		private final DirectoryStream.Filter<? super Path> filter;
+		private boolean iterated;
+		private volatile boolean closed;
+
+		private VaultDirectoryStream(VaultPath directory, SortedSet<String> names, DirectoryStream.Filter<? super Path> filter) {
+			this.directory = directory;
+			this.names = names.iterator();
+			this.filter = filter;
+		}
+
+		@Override
+		public synchronized Iterator<Path> iterator() {
+			if(closed || iterated) {
+				throw new IllegalStateException(closed ? "Directory stream is closed" : "Directory stream was already iterated");
+			}
+			iterated = true;
+			return new Iterator<Path>() {
+				private Path next;
+
+				@Override
+				public boolean hasNext() {
+					while(next == null && !closed && names.hasNext()) {
+						Path entry = directory.resolve(names.next());
+						try {
+							if(filter == null || filter.accept(entry)) {
+								next = entry;
+							}
+						}
+						catch(IOException e) {
+							throw new DirectoryIteratorException(e);
+						}
+					}
+					return next != null;
+				}
+
+				@Override
+				public Path next() {
+					if(!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					Path entry = next;
+					next = null;
+					return entry;
+				}
+			};
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+	}
+
+}
@@ -0,0 +1,301 @@
+package com.wildermods.thrixlvault.fs;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.StringJoiner;
+
+/**
+ * A path of a {@link VaultFileSystem}. Paths use {@code /} as their separator and follow
+ * the same rules as paths of the default file system on Unix: the empty path has a single
+ * empty name, and redundant separators are removed.
+ */
+final class VaultPath implements Path {
+
+	private static final String[] NO_NAMES = new String[0];
+
+	private final VaultFileSystem fileSystem;
+	private final String path;
+	private volatile String[] names;
+
+	VaultPath(VaultFileSystem fileSystem, String path) {
+		this.fileSystem = fileSystem;
+		this.path = clean(path);
+	}
+
+	private static String clean(String path) {
+		StringBuilder cleaned = new StringBuilder(path.length());
+		char previous = 0;
+		for(int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if(c == '\0') {
+				throw new InvalidPathException(path, "Nul character not allowed", i);
+			}
+			if(c == '/' && previous == '/') {
+				continue;
+			}
+			cleaned.append(c);
+			previous = c;
+		}
+		if(cleaned.length() > 1 && previous == '/') {
+			cleaned.setLength(cleaned.length() - 1);
+		}
+		return cleaned.toString();
+	}
+
+	private String[] names() {
+		String[] names = this.names;
+		if(names == null) {
+			if(path.isEmpty()) {
+				names = new String[] {""};
+			}
+			else if(path.equals("/")) {
+				names = NO_NAMES;
+			}
+			else {
+				names = (isAbsolute() ? path.substring(1) : path).split("/");
+			}
+			this.names = names;
+		}
+		return names;
+	}
+
+	private static VaultPath check(Path path) {
+		Objects.requireNonNull(path);
+		if(!(path instanceof VaultPath)) {
+			throw new ProviderMismatchException(path.getClass().getName());
+		}
+		return (VaultPath) path;
+	}
+
+	private VaultPath of(String path) {
+		return new VaultPath(fileSystem, path);
+	}
+
+	private VaultPath join(String[] names, int begin, int end, boolean absolute) {
+		StringJoiner joined = new StringJoiner("/", absolute ? "/" : "", "");
+		for(int i = begin; i < end; i++) {
+			joined.add(names[i]);
+		}
+		return of(joined.toString());
+	}
+
+	@Override
+	public VaultFileSystem getFileSystem() {
+		return fileSystem;
+	}
+
+	@Override
+	public boolean isAbsolute() {
+		return path.startsWith("/");
+	}
+
+	@Override
+	public Path getRoot() {
+		return isAbsolute() ? fileSystem.getRoot() : null;
+	}
+
+	@Override
+	public Path getFileName() {
+		String[] names = names();
+		if(names.length == 0) {
+			return null;
+		}
+		if(names.length == 1 && !isAbsolute()) {
+			return this;
+		}
+		return of(names[names.length - 1]);
+	}
+
+	@Override
+	public Path getParent() {
+		String[] names = names();
+		if(names.length == 0 || (names.length == 1 && !isAbsolute())) {
+			return null;
+		}
+		return join(names, 0, names.length - 1, isAbsolute());
+	}
+
+	@Override
+	public int getNameCount() {
+		return names().length;
+	}
+
+	@Override
+	public Path getName(int index) {
+		String[] names = names();
+		if(index < 0 || index >= names.length) {
+			throw new IllegalArgumentException("Invalid name index " + index + " of " + path);
+		}
+		return of(names[index]);
+	}
+
+	@Override
+	public Path subpath(int beginIndex, int endIndex) {
+		String[] names = names();
+		if(beginIndex < 0 || beginIndex >= names.length || endIndex <= beginIndex || endIndex > names.length) {
+			throw new IllegalArgumentException("Invalid subpath [" + beginIndex + ", " + endIndex + ") of " + path);
+		}
+		return join(names, beginIndex, endIndex, false);
+	}
+
+	@Override
+	public boolean startsWith(Path other) {
+		if(!(Objects.requireNonNull(other) instanceof VaultPath)) {
+			return false;
+		}
+		VaultPath that = (VaultPath) other;
+		if(that.fileSystem != fileSystem || that.isAbsolute() != isAbsolute()) {
+			return false;
+		}
+		String[] names = names();
+		String[] prefix = that.names();
+		if(prefix.length > names.length) {
+			return false;
+		}
+		return Arrays.equals(names, 0, prefix.length, prefix, 0, prefix.length);
+	}
+
+	@Override
+	public boolean endsWith(Path other) {
+		if(!(Objects.requireNonNull(other) instanceof VaultPath)) {
+			return false;
+		}
+		VaultPath that = (VaultPath) other;
+		if(that.fileSystem != fileSystem) {
+			return false;
+		}
+		if(that.isAbsolute()) {
+			return that.path.equals(path);
+		}
+		String[] names = names();
+		String[] suffix = that.names();
+		if(suffix.length > names.length) {
+			return false;
+		}
+		return Arrays.equals(names, names.length - suffix.length, names.length, suffix, 0, suffix.length);
+	}
+
+	@Override
+	public Path normalize() {
+		Deque<String> normalized = new ArrayDeque<>();
+		for(String name : names()) {
+			if(name.equals(".") || name.isEmpty()) {
+				continue;
+			}
+			if(name.equals("..")) {
+				if(!normalized.isEmpty() && !normalized.peekLast().equals("..")) {
+					normalized.removeLast();
+					continue;
+				}
+				if(isAbsolute()) {
+					continue; //the parent of the root is the root
+				}
+			}
+			normalized.addLast(name);
+		}
+		return join(normalized.toArray(NO_NAMES), 0, normalized.size(), isAbsolute());
+	}
+
+	@Override
+	public Path resolve(Path other) {
+		VaultPath that = check(other);
+		if(that.isAbsolute()) {
+			return that;
+		}
+		if(that.path.isEmpty()) {
+			return this;
+		}
+		if(path.isEmpty()) {
+			return that;
+		}
+		return of(path.equals("/") ? "/" + that.path : path + "/" + that.path);
+	}
+
+	@Override
+	public Path relativize(Path other) {
+		VaultPath that = check(other);
+		if(that.isAbsolute() != isAbsolute()) {
+			throw new IllegalArgumentException("Cannot relativize " + that + " against " + this);
+		}
+		if(that.equals(this)) {
+			return of("");
+		}
+		if(path.isEmpty()) {
+			return that;
+		}
+		//like the default file system, ignore redundant names
+		VaultPath base = (VaultPath) normalize();
+		that = (VaultPath) that.normalize();
+		String[] from = base.names();
+		String[] to = that.names();
+		int common = 0;
+		while(common < from.length && common < to.length && from[common].equals(to[common])) {
+			common++;
+		}
+		StringJoiner relative = new StringJoiner("/");
+		for(int i = common; i < from.length; i++) {
+			if(from[i].equals("..")) {
+				throw new IllegalArgumentException("Unable to compute a relative path from " + this + " to " + that);
+			}
+			relative.add("..");
+		}
+		for(int i = common; i < to.length; i++) {
+			relative.add(to[i]);
+		}
+		return of(relative.toString());
+	}
+
+	@Override
+	public URI toUri() {
+		return fileSystem.toUri(((VaultPath) toAbsolutePath()).path);
+	}
+
+	@Override
+	public Path toAbsolutePath() {
+		return isAbsolute() ? this : of("/" + path);
+	}
+
+	@Override
+	public Path toRealPath(LinkOption... options) throws IOException {
+		Path real = toAbsolutePath().normalize();
+		fileSystem.provider().checkAccess(real);
+		return real;
+	}
+
+	@Override
+	public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+		throw new UnsupportedOperationException("Vault file systems are read-only and cannot be watched");
+	}
+
+	@Override
+	public int compareTo(Path other) {
+		return path.compareTo(check(other).path);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof VaultPath && ((VaultPath) o).fileSystem == fileSystem && ((VaultPath) o).path.equals(path);
+	}
+
+	@Override
+	public int hashCode() {
+		return path.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+
+}
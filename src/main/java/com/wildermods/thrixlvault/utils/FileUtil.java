@@ -8,6 +8,9 @@ import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
 
 import org.apache.commons.io.file.PathUtils;
 
@@ -47,7 +50,38 @@ public class FileUtil {
 			throw new IOException("copied directory " + source + " to " + dest + " but content not equal");
 		}
 	}
+	/**
+	 * @return true if the file is marked as executable by its owner. Always false on
+	 * file systems that do not support POSIX permissions.
+	 */
+	public static boolean isExecutable(Path path) throws IOException {
+		PosixFileAttributeView view = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+		if(view == null) {
+			return false;
+		}
+		return view.readAttributes().permissions().contains(PosixFilePermission.OWNER_EXECUTE);
+	}
 	
-	
+	/**
+	 * Grants execute permission to everyone who may read the file. Does nothing on
+	 * file systems that do not support POSIX permissions.
+	 */
+	public static void setExecutable(Path path) throws IOException {
+		PosixFileAttributeView view = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+		if(view == null) {
+			return;
+		}
+		Set<PosixFilePermission> permissions = view.readAttributes().permissions();
+		if(permissions.contains(PosixFilePermission.OWNER_READ)) {
+			permissions.add(PosixFilePermission.OWNER_EXECUTE);
+		}
+		if(permissions.contains(PosixFilePermission.GROUP_READ)) {
+			permissions.add(PosixFilePermission.GROUP_EXECUTE);
+		}
+		if(permissions.contains(PosixFilePermission.OTHERS_READ)) {
+			permissions.add(PosixFilePermission.OTHERS_EXECUTE);
+		}
+		view.setPermissions(permissions);
+	}
 	
 }
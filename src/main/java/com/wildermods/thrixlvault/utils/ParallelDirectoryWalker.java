@@ -0,0 +1,387 @@
+package com.wildermods.thrixlvault.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Walks a directory tree in parallel using a work-stealing {@link ForkJoinPool}.
+ * <p>
+ * Every directory is listed by its own fork-join task, so deep or wide trees on
+ * high latency storage (network mounts, spinning disks) are enumerated concurrently
+ * instead of one directory at a time as {@link Files#walk(Path, java.nio.file.FileVisitOption...)}
+ * does. Each {@link DirectoryStream} is closed as soon as its directory has been listed.
+ * </p>
+ *
+ * <p>
+ * Only files are reported; directories are descended into but never emitted. When links
+ * are not followed, a symbolic link is reported if it resolves to a regular file, which
+ * mirrors walking with {@code Files.walk} and filtering with {@link Files#isRegularFile}.
+ * </p>
+ *
+ * <p>
+ * Files can be consumed either with {@link #walk(Consumer)}, which blocks until the
+ * whole tree has been visited, or with {@link #stream()}, which emits files while the
+ * tree is still being enumerated so that downstream work (such as hashing) can start
+ * immediately.
+ * </p>
+ */
+public class ParallelDirectoryWalker {
+
+	private static final Path END = Path.of("");
+	private static final int MAX_BATCH = 256;
+
+	private final Path root;
+	private volatile boolean followLinks = false;
+	private volatile int parallelism = Runtime.getRuntime().availableProcessors();
+	private volatile BiPredicate<Path, BasicFileAttributes> fileFilter = (path, attributes) -> true;
+	private volatile BiPredicate<Path, BasicFileAttributes> directoryFilter = (path, attributes) -> true;
+
+	/**
+	 * Creates a walker rooted at the given directory.
+	 *
+	 * @param root the directory to walk
+	 */
+	public ParallelDirectoryWalker(Path root) {
+		this.root = root;
+	}
+
+	/**
+	 * Sets whether symbolic links should be followed. When enabled, linked directories
+	 * are descended into, and a directory linking to one of its own ancestors causes the
+	 * walk to fail with a {@link FileSystemLoopException}. As with {@code Files.walk}, a
+	 * directory reached through several links which do not form a cycle is walked once
+	 * per link.
+	 */
+	public ParallelDirectoryWalker followLinks(boolean followLinks) {
+		this.followLinks = followLinks;
+		return this;
+	}
+
+	/**
+	 * Sets the number of threads used to list directories.
+	 */
+	public ParallelDirectoryWalker parallelism(int parallelism) {
+		if(parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be positive, got " + parallelism);
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Sets the filter deciding which files are reported.
+	 */
+	public ParallelDirectoryWalker filter(BiPredicate<Path, BasicFileAttributes> fileFilter) {
+		this.fileFilter = fileFilter;
+		return this;
+	}
+
+	/**
+	 * Sets the filter deciding which directories are descended into. The root
+	 * directory is always walked.
+	 */
+	public ParallelDirectoryWalker directoryFilter(BiPredicate<Path, BasicFileAttributes> directoryFilter) {
+		this.directoryFilter = directoryFilter;
+		return this;
+	}
+
+	public Path getRoot() {
+		return root;
+	}
+
+	public boolean followsLinks() {
+		return followLinks;
+	}
+
+	/**
+	 * Walks the tree and invokes {@code consumer} for every file found. The consumer is
+	 * called concurrently from the walker's threads and must be thread-safe.
+	 *
+	 * @param consumer the callback invoked for every file
+	 * @throws IOException if the tree cannot be walked
+	 * @throws RuntimeException if a filter or {@code consumer} throws it
+	 */
+	public void walk(Consumer<Path> consumer) throws IOException {
+		Walk walk = new Walk(consumer);
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(walk.task);
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		walk.rethrow();
+	}
+
+	/**
+	 * Starts walking the tree in the background and returns a stream that emits files
+	 * as they are discovered.
+	 * <p>
+	 * The returned stream must be closed. Closing it before it is exhausted cancels the
+	 * remaining walk. If the walk fails, the failure is rethrown from the stream as an
+	 * {@link UncheckedIOException}, or as thrown if a filter throws an unchecked exception.
+	 * </p>
+	 *
+	 * @return a stream of all files in the tree
+	 */
+	public Stream<Path> stream() {
+		final BlockingQueue<Path> queue = new LinkedBlockingQueue<>();
+		final Walk walk = new Walk(queue::add);
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		pool.execute(walk.task);
+
+		return StreamSupport.stream(new QueueSpliterator(queue, walk), false).onClose(() -> {
+			walk.cancel();
+			pool.shutdownNow();
+		});
+	}
+
+	private final class Walk {
+
+		private final Consumer<Path> sink;
+		private final boolean followLinks = ParallelDirectoryWalker.this.followLinks;
+		private final LinkOption[] linkOptions = followLinks ? new LinkOption[0] : new LinkOption[] {LinkOption.NOFOLLOW_LINKS};
+		private final BiPredicate<Path, BasicFileAttributes> fileFilter = ParallelDirectoryWalker.this.fileFilter;
+		private final BiPredicate<Path, BasicFileAttributes> directoryFilter = ParallelDirectoryWalker.this.directoryFilter;
+		private final AtomicReference<Throwable> failure = new AtomicReference<>();
+		private final ForkJoinTask<Void> task;
+		private volatile boolean cancelled = false;
+
+		private Walk(Consumer<Path> sink) {
+			this.sink = sink;
+			this.task = new DirectoryTask(root, null);
+		}
+
+		private void cancel() {
+			cancelled = true;
+		}
+
+		private boolean isDone() {
+			return task.isDone();
+		}
+
+		private void fail(Throwable t) {
+			if(!failure.compareAndSet(null, t)) {
+				failure.get().addSuppressed(t);
+			}
+			cancelled = true;
+		}
+
+		/**
+		 * Rethrows the first failure of the walk, if any, with the later ones suppressed.
+		 */
+		private void rethrow() throws IOException {
+			Throwable t = failure.get();
+			if(t instanceof IOException) {
+				throw (IOException) t;
+			}
+			if(t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			}
+			if(t instanceof Error) {
+				throw (Error) t;
+			}
+			if(t != null) {
+				throw new IOException(t);
+			}
+		}
+
+		/**
+		 * @return the ancestry of the directory's subdirectories, or null if links are
+		 * not followed
+		 * @throws FileSystemLoopException if the directory is one of its own ancestors
+		 */
+		private Ancestor enter(Path dir, BasicFileAttributes attributes, Ancestor parent) throws IOException {
+			if(!followLinks) {
+				return null;
+			}
+			Object key = attributes.fileKey();
+			if(key == null) {
+				key = dir.toRealPath();
+			}
+			for(Ancestor ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+				if(ancestor.key.equals(key)) {
+					throw new FileSystemLoopException(dir.toString());
+				}
+			}
+			return new Ancestor(key, parent);
+		}
+
+		@SuppressWarnings("serial")
+		private final class DirectoryTask extends RecursiveAction {
+
+			private final Path dir;
+			private Ancestor ancestry;
+
+			private DirectoryTask(Path dir, Ancestor ancestry) {
+				this.dir = dir;
+				this.ancestry = ancestry;
+			}
+
+			@Override
+			protected void compute() {
+				if(cancelled) {
+					return;
+				}
+				List<DirectoryTask> subtasks = new ArrayList<>();
+				try {
+					if(dir == root) {
+						ancestry = enter(dir, Files.readAttributes(dir, BasicFileAttributes.class, linkOptions), null);
+					}
+					try(DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+						for(Path entry : entries) {
+							if(cancelled) {
+								break;
+							}
+							BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class, linkOptions);
+							if(attributes.isDirectory()) {
+								if(directoryFilter.test(entry, attributes)) {
+									DirectoryTask subtask = new DirectoryTask(entry, enter(entry, attributes, ancestry));
+									subtask.fork();
+									subtasks.add(subtask);
+								}
+							}
+							else if(isFile(entry, attributes) && fileFilter.test(entry, attributes)) {
+								sink.accept(entry);
+							}
+						}
+					}
+				}
+				catch(UncheckedIOException e) {
+					fail(e.getCause());
+				}
+				catch(Throwable t) {
+					//recorded so the stream rethrows it, instead of silently ending early
+					fail(t);
+				}
+				for(DirectoryTask subtask : subtasks) {
+					subtask.join();
+				}
+			}
+
+			private boolean isFile(Path entry, BasicFileAttributes attributes) {
+				if(attributes.isRegularFile()) {
+					return true;
+				}
+				return attributes.isSymbolicLink() && Files.isRegularFile(entry);
+			}
+
+		}
+
+	}
+
+	/**
+	 * The file key of a directory being walked and of its ancestors, used to detect cycles
+	 * when following links. Shared by the subdirectories of a directory.
+	 */
+	private static final class Ancestor {
+
+		private final Object key;
+		private final Ancestor parent;
+
+		private Ancestor(Object key, Ancestor parent) {
+			this.key = key;
+			this.parent = parent;
+		}
+
+	}
+
+	/**
+	 * Pulls files out of the walker's queue. Splitting hands out whatever has been
+	 * discovered so far, so parallel consumers start working without waiting for
+	 * a large fixed-size batch to fill.
+	 */
+	private static final class QueueSpliterator implements Spliterator<Path> {
+
+		private final BlockingQueue<Path> queue;
+		private final Walk walk;
+		private boolean exhausted = false;
+
+		private QueueSpliterator(BlockingQueue<Path> queue, Walk walk) {
+			this.queue = queue;
+			this.walk = walk;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Path> action) {
+			Path next = next();
+			if(next == END) {
+				return false;
+			}
+			action.accept(next);
+			return true;
+		}
+
+		@Override
+		public Spliterator<Path> trySplit() {
+			Path first = next();
+			if(first == END) {
+				return null;
+			}
+			List<Path> batch = new ArrayList<>();
+			batch.add(first);
+			queue.drainTo(batch, MAX_BATCH - 1);
+			return Spliterators.spliterator(batch, characteristics());
+		}
+
+		private synchronized Path next() {
+			if(exhausted) {
+				return END;
+			}
+			try {
+				while(true) {
+					Path path = queue.poll(10, TimeUnit.MILLISECONDS);
+					if(path != null) {
+						return path;
+					}
+					if(walk.isDone() && queue.isEmpty()) {
+						exhausted = true;
+						walk.rethrow();
+						return END;
+					}
+				}
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				walk.cancel();
+				throw new UncheckedIOException(new IOException("Directory walk interrupted", e));
+			}
+			catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public long estimateSize() {
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.NONNULL | Spliterator.DISTINCT;
+		}
+
+	}
+
+}
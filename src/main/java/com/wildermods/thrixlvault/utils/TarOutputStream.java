@@ -0,0 +1,213 @@
+package com.wildermods.thrixlvault.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A minimal writer of POSIX ustar archives.
+ *
+ * <p>
+ * Only regular files and directories are supported, and every entry is owned by uid and
+ * gid 0 with empty user and group names, so the archive only depends on the entries written.
+ * Names which do not fit a ustar header are recorded in a pax extended header.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+public final class TarOutputStream extends FilterOutputStream {
+
+	private static final int BLOCK = 512;
+
+	private final byte[] header = new byte[BLOCK];
+	private long remaining = -1;
+	private long written;
+	private boolean finished;
+
+	public TarOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	/**
+	 * Writes a directory entry. A trailing {@code /} is appended to the name if missing.
+	 */
+	public void putDirectory(String name, int mode, long mtime) throws IOException {
+		putEntry(name.endsWith("/") ? name : name + "/", 0, mode, mtime, '5');
+		closeEntry();
+	}
+
+	/**
+	 * Starts a regular file entry. Exactly {@code size} bytes must be written before
+	 * the entry is {@link #closeEntry() closed}.
+	 */
+	public void putFile(String name, long size, int mode, long mtime) throws IOException {
+		putEntry(name, size, mode, mtime, '0');
+	}
+
+	/**
+	 * Ends the current entry, padding it to a full block.
+	 *
+	 * @throws IOException if fewer bytes than the declared size were written
+	 */
+	public void closeEntry() throws IOException {
+		if(remaining > 0) {
+			throw new IOException("Tar entry closed with " + remaining + " bytes missing");
+		}
+		int padding = (int) (-written & (BLOCK - 1));
+		out.write(new byte[padding]);
+		remaining = -1;
+		written = 0;
+	}
+
+	/**
+	 * Writes the end of archive marker, without closing the underlying stream.
+	 */
+	public void finish() throws IOException {
+		if(!finished) {
+			if(remaining != -1) {
+				closeEntry();
+			}
+			out.write(new byte[BLOCK * 2]);
+			out.flush();
+			finished = true;
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		checkRemaining(1);
+		out.write(b);
+		remaining--;
+		written++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkRemaining(len);
+		out.write(b, off, len);
+		remaining -= len;
+		written += len;
+	}
+
+	@Override
+	public void close() throws IOException {
+		finish();
+		super.close();
+	}
+
+	private void checkRemaining(long len) throws IOException {
+		if(len > remaining) {
+			throw new IOException("Write of " + len + " bytes exceeds the size of the tar entry");
+		}
+	}
+
+	private void putEntry(String name, long size, int mode, long mtime, char type) throws IOException {
+		if(finished) {
+			throw new IOException("Tar archive already finished");
+		}
+		if(remaining != -1) {
+			closeEntry();
+		}
+
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		String prefix = "";
+		if(bytes.length > 100) {
+			int split = splitPoint(bytes);
+			if(split < 0) {
+				writePaxName(name);
+				bytes = Arrays.copyOf(bytes, 100);
+			}
+			else {
+				prefix = new String(bytes, 0, split, StandardCharsets.UTF_8);
+				bytes = Arrays.copyOfRange(bytes, split + 1, bytes.length);
+			}
+		}
+
+		writeHeader(bytes, prefix.getBytes(StandardCharsets.UTF_8), size, mode, mtime, type);
+		remaining = size;
+		written = 0;
+	}
+
+	/**
+	 * @return the index of the {@code /} at which the name can be split into a ustar
+	 * prefix and name, or -1 if there is none
+	 */
+	private static int splitPoint(byte[] name) {
+		for(int i = Math.min(name.length - 2, 155); i > 0; i--) {
+			if(name[i] == '/' && name.length - i - 1 <= 100) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void writePaxName(String name) throws IOException {
+		byte[] record = paxRecord("path", name);
+		writeHeader("././@PaxHeader".getBytes(StandardCharsets.US_ASCII), new byte[0], record.length, 0644, 0, 'x');
+		out.write(record);
+		out.write(new byte[-record.length & (BLOCK - 1)]);
+	}
+
+	/**
+	 * Builds a pax record, {@code "<length> <key>=<value>\n"}, whose length includes
+	 * its own digits.
+	 */
+	private static byte[] paxRecord(String key, String value) {
+		int content = 3 + key.getBytes(StandardCharsets.UTF_8).length + value.getBytes(StandardCharsets.UTF_8).length; //' ', '=' and '\n'
+		int length = content + 1;
+		while(length != content + Integer.toString(length).length()) {
+			length = content + Integer.toString(length).length();
+		}
+		return (length + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+	}
+
+	private void writeHeader(byte[] name, byte[] prefix, long size, int mode, long mtime, char type) throws IOException {
+		Arrays.fill(header, (byte) 0);
+		System.arraycopy(name, 0, header, 0, Math.min(name.length, 100));
+		octal(mode, 100, 8);
+		octal(0, 108, 8); //uid
+		octal(0, 116, 8); //gid
+		if(size < 077777777777L) {
+			octal(size, 124, 12);
+		}
+		else { //base-256, for entries of 8 GiB or more
+			for(int i = 135; i > 124; i--, size >>>= 8) {
+				header[i] = (byte) size;
+			}
+			header[124] = (byte) 0x80;
+		}
+		octal(mtime, 136, 12);
+		header[156] = (byte) type;
+		System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+		header[263] = '0';
+		header[264] = '0';
+		System.arraycopy(prefix, 0, header, 345, Math.min(prefix.length, 155));
+
+		Arrays.fill(header, 148, 156, (byte) ' ');
+		long checksum = 0;
+		for(byte b : header) {
+			checksum += b & 0xFF;
+		}
+		octal(checksum, 148, 7);
+		header[155] = ' ';
+		out.write(header);
+	}
+
+	/**
+	 * Writes {@code value} as a zero padded, NUL terminated octal number.
+	 */
+	private void octal(long value, int offset, int length) {
+		String digits = Long.toOctalString(value);
+		int width = length - 1;
+		for(int i = 0; i < width; i++) {
+			int digit = i - (width - digits.length());
+			header[offset + i] = (byte) (digit < 0 ? '0' : digits.charAt(digit));
+		}
+		header[offset + width] = 0;
+	}
+
+}
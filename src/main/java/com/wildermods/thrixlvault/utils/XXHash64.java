@@ -0,0 +1,210 @@
+package com.wildermods.thrixlvault.utils;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A pure Java, streaming implementation of the 64 bit xxHash algorithm (XXH64).
+ * <p>
+ * XXH64 is not a cryptographic hash. It is used as a fast secondary checksum to
+ * detect accidental corruption (bit rot, truncated writes) at close to memory
+ * bandwidth, while the cryptographic digest recorded in the {@code Chrysalis}
+ * remains the authority on content identity.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+public final class XXHash64 {
+
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+	private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final long seed;
+	private final byte[] pending = new byte[32];
+	private int pendingLength;
+	private long totalLength;
+	private long v1;
+	private long v2;
+	private long v3;
+	private long v4;
+
+	public XXHash64() {
+		this(0);
+	}
+
+	public XXHash64(long seed) {
+		this.seed = seed;
+		reset();
+	}
+
+	public XXHash64 reset() {
+		v1 = seed + PRIME1 + PRIME2;
+		v2 = seed + PRIME2;
+		v3 = seed;
+		v4 = seed - PRIME1;
+		pendingLength = 0;
+		totalLength = 0;
+		return this;
+	}
+
+	public XXHash64 update(byte[] data) {
+		return update(data, 0, data.length);
+	}
+
+	public XXHash64 update(byte[] data, int offset, int length) {
+		totalLength += length;
+		int end = offset + length;
+
+		if(pendingLength + length < 32) {
+			System.arraycopy(data, offset, pending, pendingLength, length);
+			pendingLength += length;
+			return this;
+		}
+
+		if(pendingLength > 0) {
+			int fill = 32 - pendingLength;
+			System.arraycopy(data, offset, pending, pendingLength, fill);
+			consumeStripe(pending, 0);
+			offset += fill;
+			pendingLength = 0;
+		}
+
+		for(int limit = end - 32; offset <= limit; offset += 32) {
+			consumeStripe(data, offset);
+		}
+
+		pendingLength = end - offset;
+		System.arraycopy(data, offset, pending, 0, pendingLength);
+		return this;
+	}
+
+	public XXHash64 update(ByteBuffer data) {
+		if(data.hasArray()) {
+			int length = data.remaining();
+			update(data.array(), data.arrayOffset() + data.position(), length);
+			data.position(data.position() + length);
+			return this;
+		}
+		byte[] chunk = new byte[Math.min(data.remaining(), BUFFER_SIZE)];
+		while(data.hasRemaining()) {
+			int length = Math.min(chunk.length, data.remaining());
+			data.get(chunk, 0, length);
+			update(chunk, 0, length);
+		}
+		return this;
+	}
+
+	/**
+	 * Returns the hash of all data supplied so far. Does not reset the state, so
+	 * more data may be appended afterwards.
+	 */
+	public long digest() {
+		long hash;
+		if(totalLength >= 32) {
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			hash = mergeRound(hash, v1);
+			hash = mergeRound(hash, v2);
+			hash = mergeRound(hash, v3);
+			hash = mergeRound(hash, v4);
+		}
+		else {
+			hash = seed + PRIME5;
+		}
+
+		hash += totalLength;
+
+		int offset = 0;
+		for(; offset + 8 <= pendingLength; offset += 8) {
+			hash ^= round(0, (long) LONG.get(pending, offset));
+			hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+		}
+		if(offset + 4 <= pendingLength) {
+			hash ^= ((int) INT.get(pending, offset) & 0xFFFFFFFFL) * PRIME1;
+			hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+			offset += 4;
+		}
+		for(; offset < pendingLength; offset++) {
+			hash ^= (pending[offset] & 0xFF) * PRIME5;
+			hash = Long.rotateLeft(hash, 11) * PRIME1;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+		hash *= PRIME3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+
+	private void consumeStripe(byte[] data, int offset) {
+		v1 = round(v1, (long) LONG.get(data, offset));
+		v2 = round(v2, (long) LONG.get(data, offset + 8));
+		v3 = round(v3, (long) LONG.get(data, offset + 16));
+		v4 = round(v4, (long) LONG.get(data, offset + 24));
+	}
+
+	private static long round(long acc, long input) {
+		acc += input * PRIME2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * PRIME1;
+	}
+
+	private static long mergeRound(long acc, long value) {
+		acc ^= round(0, value);
+		return acc * PRIME1 + PRIME4;
+	}
+
+	/**
+	 * Computes the hash of the given data with a seed of 0.
+	 */
+	public static long hash(byte[] data) {
+		return new XXHash64().update(data).digest();
+	}
+
+	/**
+	 * Computes the hash of the given file's contents with a seed of 0.
+	 *
+	 * @throws IOException if the file cannot be read
+	 */
+	public static long hash(Path file) throws IOException {
+		XXHash64 hash = new XXHash64();
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while(channel.read(buffer) != -1) {
+				buffer.flip();
+				hash.update(buffer);
+				buffer.clear();
+			}
+		}
+		return hash.digest();
+	}
+
+	/**
+	 * @return the hash formatted as 16 lowercase hexadecimal digits
+	 */
+	public static String toHex(long hash) {
+		String hex = Long.toHexString(hash);
+		return "0000000000000000".substring(hex.length()) + hex;
+	}
+
+	public static long fromHex(String hex) {
+		return Long.parseUnsignedLong(hex, 16);
+	}
+
+}
@@ -0,0 +1,194 @@
+package com.wildermods.thrixlvault;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrowsExactly;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class BlobSchedulerTests {
+
+	private final BlobScheduler scheduler = BlobScheduler.fixed(4).setBatchSize(8);
+
+	private static List<Integer> items(int count) {
+		return IntStream.range(0, count).boxed().collect(Collectors.toList());
+	}
+
+	@Test
+	void processesEveryItemOnce() throws InterruptedException, ExecutionException {
+		ConcurrentHashMap<Integer, AtomicInteger> seen = new ConcurrentHashMap<>();
+		scheduler.run(items(10_000), (i) -> -1, (i) -> seen.computeIfAbsent(i, (k) -> new AtomicInteger()).incrementAndGet());
+		assertEquals(10_000, seen.size());
+		assertTrue(seen.values().stream().allMatch((count) -> count.get() == 1));
+	}
+
+	@Test
+	void boundsBatchesInFlight() throws InterruptedException, ExecutionException {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		BlobScheduler bounded = new BlobScheduler(scheduler.getExecutor(), 2).setBatchSize(1);
+		bounded.run(items(200), (i) -> -1, (i) -> {
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			Thread.sleep(1);
+			running.decrementAndGet();
+		});
+		assertTrue(maxRunning.get() <= 2, "Ran " + maxRunning.get() + " batches at once");
+	}
+
+	@Test
+	void followsConcurrencyController() throws InterruptedException, ExecutionException {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		AtomicInteger processed = new AtomicInteger();
+		ConcurrencyController controller = new ConcurrencyController("test", 2);
+		scheduler.adaptive(controller).setBatchSize(1).run(items(100), (i) -> -1, (i) -> {
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			Thread.sleep(1);
+			processed.incrementAndGet();
+			running.decrementAndGet();
+		});
+		assertEquals(100, processed.get());
+		assertTrue(maxRunning.get() <= 2, "Ran " + maxRunning.get() + " batches at once");
+	}
+
+	@Test
+	void sharesConcurrencyControllerBetweenRuns() throws InterruptedException, ExecutionException {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		AtomicInteger processed = new AtomicInteger();
+		ConcurrencyController controller = new ConcurrencyController("test", 2);
+		BlobScheduler other = BlobScheduler.fixed(4);
+		try {
+			//two runs on the same file store share its limit, rather than each getting its own
+			CompletableFuture<Void> first = CompletableFuture.runAsync(() -> run(scheduler.adaptive(controller), running, maxRunning, processed));
+			CompletableFuture<Void> second = CompletableFuture.runAsync(() -> run(other.adaptive(controller), running, maxRunning, processed));
+			CompletableFuture.allOf(first, second).get();
+		}
+		finally {
+			((ExecutorService) other.getExecutor()).shutdownNow();
+		}
+		assertEquals(200, processed.get());
+		assertEquals(0, controller.getInFlight());
+		assertTrue(maxRunning.get() <= 2, "Ran " + maxRunning.get() + " batches at once");
+	}
+
+	private static void run(BlobScheduler scheduler, AtomicInteger running, AtomicInteger maxRunning, AtomicInteger processed) {
+		try {
+			scheduler.setBatchSize(1).run(items(100), (i) -> -1, (i) -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				Thread.sleep(1);
+				processed.incrementAndGet();
+				running.decrementAndGet();
+			});
+		}
+		catch(InterruptedException | ExecutionException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	@Test
+	void batchesBySize() throws InterruptedException, ExecutionException {
+		AtomicInteger batches = new AtomicInteger();
+		BlobScheduler sized = new BlobScheduler((task) -> {
+			batches.incrementAndGet();
+			scheduler.getExecutor().execute(task);
+		}, 4).setBatchSize(1000).setBatchBytes(100);
+		AtomicInteger items = new AtomicInteger();
+		sized.run(items(50), (i) -> 10, (i) -> items.incrementAndGet());
+		assertEquals(50, items.get());
+		assertEquals(5, batches.get());
+		
+		batches.set(0);
+		sized.run(items(3), (i) -> 1000, (i) -> items.incrementAndGet());
+		assertEquals(3, batches.get());
+	}
+
+	@Test
+	void dispatchesLargestFirst() throws InterruptedException, ExecutionException {
+		List<Integer> order = new ArrayList<>();
+		List<Integer> items = items(100);
+		Collections.shuffle(items, new Random(0));
+
+		//four items per batch in flight are picked, so 25 batches pick every item
+		BlobScheduler wide = new BlobScheduler(Runnable::run, 25).setBatchSize(1);
+		assertSame(BlobScheduler.Order.ITERATION, wide.getOrder());
+		wide.run(items, (i) -> i, order::add);
+		assertEquals(items, order);
+
+		order.clear();
+		wide.setOrder(BlobScheduler.Order.LARGEST_FIRST).run(items, (i) -> i, order::add);
+		assertEquals(IntStream.range(0, 100).map((i) -> 99 - i).boxed().collect(Collectors.toList()), order);
+
+		//only the four largest are picked, the others follow in iteration order
+		order.clear();
+		new BlobScheduler(Runnable::run, 1).setBatchSize(1).setOrder(BlobScheduler.Order.LARGEST_FIRST).run(items, (i) -> i, order::add);
+		List<Integer> expected = new ArrayList<>(List.of(99, 98, 97, 96));
+		items.stream().filter((i) -> i < 96).forEach(expected::add);
+		assertEquals(expected, order);
+	}
+
+	@Test
+	void dispatchesByLocality() throws InterruptedException, ExecutionException, IOException {
+		List<Integer> order = new ArrayList<>();
+		BlobScheduler serial = new BlobScheduler(Runnable::run, 1).setBatchSize(1).setOrder(BlobScheduler.Order.LOCALITY);
+		List<Integer> items = items(100);
+		Collections.shuffle(items, new Random(0));
+		serial.run(items, (i) -> 100 - i, (i) -> i % 10 * 10 + i / 10, order::add);
+		assertEquals(IntStream.range(0, 100).map((i) -> i % 10 * 10 + i / 10).boxed().collect(Collectors.toList()), order);
+
+		order.clear();
+		serial.run(items, (i) -> 100 - i, order::add);
+		assertEquals(items, order);
+
+		Path dir = Files.createTempDirectory("thrixlvault");
+		try {
+			BlobScheduler device = BlobScheduler.forDevice(dir, 1);
+			assertSame(BlobScheduler.Order.LOCALITY, device.getOrder());
+			assertSame(device, BlobScheduler.forDevice(dir.getParent(), 2));
+		}
+		finally {
+			Files.delete(dir);
+		}
+	}
+
+	@Test
+	void failsFast() {
+		IOException failure = new IOException("blob 5 is corrupt");
+		AtomicInteger processed = new AtomicInteger();
+		ExecutionException e = assertThrowsExactly(ExecutionException.class, () -> {
+			scheduler.run(items(100_000), (i) -> -1, (i) -> {
+				processed.incrementAndGet();
+				if(i == 5) {
+					throw failure;
+				}
+			});
+		});
+		assertSame(failure, e.getCause());
+		assertTrue(processed.get() < 100_000, "Processed " + processed.get() + " items after failing");
+	}
+
+	@AfterAll
+	void shutdown() {
+		((ExecutorService) scheduler.getExecutor()).shutdownNow();
+	}
+
+}
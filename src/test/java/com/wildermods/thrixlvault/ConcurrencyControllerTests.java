@@ -0,0 +1,105 @@
+package com.wildermods.thrixlvault;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.file.PathUtils;
+import org.junit.jupiter.api.Test;
+
+import com.wildermods.masshash.exception.IntegrityException;
+
+public class ConcurrencyControllerTests {
+
+	private static final long MIB = 1 << 20;
+
+	/**
+	 * Simulates a device serving up to {@code saturation} batches of one MiB at the same
+	 * time in 300ms each. Beyond that, batches queue and take proportionally longer.
+	 */
+	private static int simulate(ConcurrencyController controller, int saturation, int windows) {
+		final long service = TimeUnit.MILLISECONDS.toNanos(300);
+		long now = 0;
+		int highest = 0;
+		for(int window = 0; window < windows; window++) {
+			int limit = controller.getLimit();
+			highest = Math.max(highest, limit);
+			long latency = service * Math.max(limit, saturation) / saturation;
+			for(int batch = 0; batch < limit; batch++) {
+				try {
+					controller.acquire();
+				}
+				catch(InterruptedException e) {
+					throw new AssertionError(e);
+				}
+			}
+			for(int batch = 0; batch < limit; batch++) {
+				controller.record(1, MIB, now, now + latency);
+				controller.release();
+			}
+			now += latency;
+		}
+		return highest;
+	}
+
+	@Test
+	void growsUntilSaturation() {
+		ConcurrencyController controller = new ConcurrencyController("test", 1);
+		int highest = simulate(controller, 8, 200);
+		assertTrue(highest >= 8, "Never reached the saturation point, highest limit was " + highest);
+		assertTrue(controller.getLimit() <= 16, "Limit ran away to " + controller.getLimit());
+	}
+
+	@Test
+	void backsOffWhenOverloaded() {
+		ConcurrencyController controller = new ConcurrencyController("test", 64);
+		simulate(controller, 2, 1);
+		simulate(controller, 2, 20);
+		assertTrue(controller.getLimit() <= 8, "Limit stayed at " + controller.getLimit());
+	}
+
+	@Test
+	void persistsLearnedLimits() throws IOException {
+		Path vaultDir = Files.createTempDirectory("thrixlvault");
+		try {
+			AdaptiveConcurrency concurrency = new AdaptiveConcurrency(vaultDir);
+			ConcurrencyController controller = concurrency.controller(vaultDir.resolve("does/not/exist"));
+			simulate(controller, 64, 50);
+			int learned = controller.getLimit();
+			concurrency.save();
+			assertTrue(Files.exists(vaultDir.resolve(AdaptiveConcurrency.FILE_NAME)));
+
+			assertTrue(Files.readString(vaultDir.resolve(AdaptiveConcurrency.FILE_NAME)).contains(":" + learned));
+
+			//every vault of the process on the same file store tunes the same controller
+			assertSame(controller, new AdaptiveConcurrency(vaultDir.resolve("other")).controller(vaultDir));
+		}
+		finally {
+			PathUtils.deleteDirectory(vaultDir);
+		}
+	}
+
+	@Test
+	void weavingIsTuned() throws IOException, IntegrityException {
+		Path dir = Files.createTempDirectory("thrixlvault");
+		try {
+			Path source = Files.createDirectories(dir.resolve("source"));
+			for(int i = 0; i < 64; i++) {
+				Files.writeString(source.resolve(i + ".txt"), "file " + i);
+			}
+			Vault vault = new Vault(dir.resolve("vault")).setAdaptiveConcurrency(true);
+			ChrysalisizedVault weaved = new Weaver(vault, new StoredVersion(Path.of("tuned")), source).getChrysalisizedVault();
+			assertEquals(64, weaved.getChrysalis().blobs().size());
+			assertTrue(Files.exists(vault.vaultDir.resolve(AdaptiveConcurrency.FILE_NAME)));
+		}
+		finally {
+			PathUtils.deleteDirectory(dir);
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.wildermods.thrixlvault;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.file.PathUtils;
+import org.junit.jupiter.api.Test;
+
+import com.wildermods.thrixlvault.utils.ParallelDirectoryWalker;
+
+public class ParallelDirectoryWalkerTests {
+
+	static Path sourceDir = Paths.get("./src", "test", "resources");
+
+	private static Set<Path> expected() throws IOException {
+		try(Stream<Path> files = Files.walk(sourceDir)) {
+			return files.filter(Files::isRegularFile).collect(Collectors.toSet());
+		}
+	}
+
+	@Test
+	void walkMatchesFilesWalk() throws IOException {
+		Set<Path> found = ConcurrentHashMap.newKeySet();
+		new ParallelDirectoryWalker(sourceDir).walk(found::add);
+		assertEquals(expected(), found);
+	}
+
+	@Test
+	void streamMatchesFilesWalk() throws IOException {
+		try(Stream<Path> files = new ParallelDirectoryWalker(sourceDir).stream()) {
+			assertEquals(expected(), files.parallel().collect(Collectors.toSet()));
+		}
+	}
+
+	@Test
+	void filtersApply() throws IOException {
+		ParallelDirectoryWalker walker = new ParallelDirectoryWalker(sourceDir)
+			.filter((path, attributes) -> path.toString().endsWith(".json"))
+			.directoryFilter((path, attributes) -> !path.getFileName().toString().equals("duplicate"));
+
+		try(Stream<Path> files = walker.stream()) {
+			Set<Path> found = files.collect(Collectors.toSet());
+			assertTrue(!found.isEmpty());
+			for(Path file : found) {
+				assertTrue(file.toString().endsWith(".json"), file.toString());
+				assertTrue(!file.toString().contains("duplicate"), file.toString());
+			}
+		}
+	}
+
+	@Test
+	void filterFailuresAreRethrown() throws IOException {
+		ParallelDirectoryWalker walker = new ParallelDirectoryWalker(sourceDir).filter((path, attributes) -> {
+			throw new IllegalStateException("filter failed");
+		});
+		assertThrows(IllegalStateException.class, () -> walker.walk((path) -> {}));
+		try(Stream<Path> files = walker.stream()) {
+			assertThrows(IllegalStateException.class, () -> files.count());
+		}
+	}
+
+	@Test
+	void followsLinksLikeFilesWalk() throws IOException {
+		Path dir = Files.createTempDirectory("thrixlvault");
+		try {
+			Path shared = Files.createDirectories(dir.resolve("shared"));
+			Files.writeString(shared.resolve("file.txt"), "shared");
+			try {
+				//two links to the same directory form a diamond, not a cycle
+				Files.createSymbolicLink(dir.resolve("first"), shared);
+				Files.createSymbolicLink(dir.resolve("second"), shared);
+			}
+			catch(UnsupportedOperationException | IOException e) {
+				assumeTrue(false, "Symbolic links are not supported: " + e);
+			}
+			Set<Path> expected;
+			try(Stream<Path> files = Files.walk(dir, FileVisitOption.FOLLOW_LINKS)) {
+				expected = files.filter(Files::isRegularFile).collect(Collectors.toSet());
+			}
+			Set<Path> found = ConcurrentHashMap.newKeySet();
+			new ParallelDirectoryWalker(dir).followLinks(true).walk(found::add);
+			assertEquals(3, found.size());
+			assertEquals(expected, found);
+
+			Files.createSymbolicLink(shared.resolve("loop"), dir);
+			assertThrows(FileSystemLoopException.class, () -> new ParallelDirectoryWalker(dir).followLinks(true).walk((path) -> {}));
+		}
+		finally {
+			PathUtils.deleteDirectory(dir);
+		}
+	}
+
+	@Test
+	void missingRootFails() {
+		ParallelDirectoryWalker walker = new ParallelDirectoryWalker(sourceDir.resolve("doesNotExist"));
+		assertThrows(NoSuchFileException.class, () -> walker.walk((path) -> {}));
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.wildermods.thrixlvault;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrowsExactly;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.wildermods.thrixlvault.utils.TarOutputStream;
+
+public class TarOutputStreamTests {
+
+	/**
+	 * Reads back the regular files of a ustar archive, checking every header checksum.
+	 * Directories map to null.
+	 */
+	static Map<String, byte[]> read(byte[] tar) {
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		String paxPath = null;
+		int offset = 0;
+		while(tar[offset] != 0) {
+			byte[] header = Arrays.copyOfRange(tar, offset, offset + 512);
+			long checksum = 0;
+			for(int i = 0; i < 512; i++) {
+				checksum += (i >= 148 && i < 156) ? ' ' : header[i] & 0xFF;
+			}
+			assertEquals(checksum, Long.parseLong(string(header, 148, 7), 8), "header checksum");
+			assertEquals("ustar", string(header, 257, 6));
+
+			String name = string(header, 0, 100);
+			String prefix = string(header, 345, 155);
+			if(!prefix.isEmpty()) {
+				name = prefix + "/" + name;
+			}
+			int size = Integer.parseInt(string(header, 124, 12), 8);
+			byte[] data = Arrays.copyOfRange(tar, offset + 512, offset + 512 + size);
+			offset += 512 + ((size + 511) / 512) * 512;
+
+			switch(header[156]) {
+				case 'x':
+					String record = new String(data, StandardCharsets.UTF_8);
+					paxPath = record.substring(record.indexOf("path=") + 5, record.length() - 1);
+					continue;
+				case '5':
+					entries.put(name, null);
+					break;
+				default:
+					entries.put(paxPath != null ? paxPath : name, data);
+			}
+			paxPath = null;
+		}
+		return entries;
+	}
+
+	private static String string(byte[] header, int offset, int length) {
+		int end = offset;
+		while(end < offset + length && header[end] != 0) {
+			end++;
+		}
+		return new String(header, offset, end - offset, StandardCharsets.UTF_8).trim();
+	}
+
+	@Test
+	void roundTrip() throws IOException {
+		String prefixed = "a".repeat(120) + "/" + "b".repeat(90);
+		String pax = "c".repeat(300);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(TarOutputStream tar = new TarOutputStream(bytes)) {
+			tar.putDirectory("dir", 0755, 0);
+			for(String name : new String[] {"dir/file.txt", prefixed, pax}) {
+				byte[] data = name.getBytes(StandardCharsets.UTF_8);
+				tar.putFile(name, data.length, 0644, 0);
+				tar.write(data);
+				tar.closeEntry();
+			}
+		}
+		assertEquals(0, bytes.size() % 512);
+
+		Map<String, byte[]> entries = read(bytes.toByteArray());
+		assertEquals(Arrays.asList("dir/", "dir/file.txt", prefixed, pax), Arrays.asList(entries.keySet().toArray()));
+		assertArrayEquals(pax.getBytes(StandardCharsets.UTF_8), entries.get(pax));
+	}
+
+	@Test
+	void enforcesEntrySize() throws IOException {
+		TarOutputStream tar = new TarOutputStream(new ByteArrayOutputStream());
+		tar.putFile("file", 2, 0644, 0);
+		assertThrowsExactly(IOException.class, () -> tar.write(new byte[3]));
+		tar.write(1);
+		assertThrowsExactly(IOException.class, () -> tar.closeEntry());
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.wildermods.thrixlvault;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrowsExactly;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.apache.commons.io.file.PathUtils;
+import org.junit.jupiter.api.Test;
+
+import com.wildermods.masshash.exception.IntegrityException;
+
+public class VaultClassLoaderTests {
+
+	private static final byte[] JAR_RESOURCE = "from the jar".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] DIRECTORY_RESOURCE = "from the directory".getBytes(StandardCharsets.UTF_8);
+
+	public static class Probe implements Supplier<String> {
+
+		@Override
+		public String get() {
+			return "probe";
+		}
+
+	}
+
+	@Test
+	void loadsFromBlobs() throws Exception {
+		Path dir = Files.createTempDirectory("thrixlvault");
+		try {
+			ChrysalisizedVault vault = weave(dir);
+			String probe = Probe.class.getName();
+
+			VaultClassLoader jars = vault.newClassLoader(ClassLoader.getPlatformClassLoader());
+			Class<?> loaded = jars.loadClass(probe);
+			assertSame(jars, loaded.getClassLoader());
+			assertNotEquals(Probe.class, loaded);
+			assertEquals("probe", ((Supplier<?>)loaded.getDeclaredConstructor().newInstance()).get());
+			assertSame(loaded, jars.loadClass(probe));
+			assertEquals(Probe.class.getPackageName(), loaded.getPackageName());
+			try(InputStream in = jars.getResourceAsStream("probe.txt")) {
+				assertArrayEquals(JAR_RESOURCE, in.readAllBytes());
+			}
+			assertNull(jars.getResource("data.txt"));
+			assertThrowsExactly(ClassNotFoundException.class, () -> jars.loadClass(VaultClassLoaderTests.class.getName()));
+
+			VaultClassLoader mixed = new VaultClassLoader(vault, List.of(Path.of("res"), Path.of("lib", "probe.jar")), null);
+			List<URL> urls = Collections.list(mixed.getResources("probe.txt"));
+			assertEquals(2, urls.size());
+			try(InputStream in = urls.get(0).openStream()) {
+				assertArrayEquals(DIRECTORY_RESOURCE, in.readAllBytes());
+			}
+			try(InputStream in = urls.get(1).openStream()) {
+				assertArrayEquals(JAR_RESOURCE, in.readAllBytes());
+			}
+			assertSame(mixed, mixed.loadClass(probe).getClassLoader());
+
+			//the index of the jar is shared by every loader using its blob
+			Path jar = vault.getBlobFile(vault.getChrysalis().blobs().entries().stream().filter((entry) -> entry.getValue().endsWith("probe.jar")).findAny().get().getKey());
+			assertSame(JarIndex.of(jar), JarIndex.of(jar));
+
+			assertThrowsExactly(NoSuchFileException.class, () -> new VaultClassLoader(vault, List.of(Path.of("missing.jar")), null));
+		}
+		finally {
+			PathUtils.deleteDirectory(dir);
+		}
+	}
+
+	private ChrysalisizedVault weave(Path dir) throws IOException, IntegrityException {
+		Path source = dir.resolve("source");
+		Files.createDirectories(source.resolve("lib"));
+		Files.createDirectories(source.resolve("res"));
+		try(JarOutputStream jar = new JarOutputStream(Files.newOutputStream(source.resolve("lib").resolve("probe.jar")))) {
+			String entry = Probe.class.getName().replace('.', '/') + ".class";
+			jar.putNextEntry(new JarEntry(entry));
+			try(InputStream in = getClass().getClassLoader().getResourceAsStream(entry)) {
+				in.transferTo(jar);
+			}
+			jar.putNextEntry(new JarEntry("probe.txt"));
+			jar.write(JAR_RESOURCE);
+		}
+		try(OutputStream out = Files.newOutputStream(source.resolve("res").resolve("probe.txt"))) {
+			out.write(DIRECTORY_RESOURCE);
+		}
+		return new Weaver(new Vault(dir.resolve("vault")), new StoredVersion(Path.of("probe")), source).getChrysalisizedVault();
+	}
+
+}
@@ -1,22 +1,56 @@
 package com.wildermods.thrixlvault;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrowsExactly;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assumptions.assumeFalse;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.ReadOnlyFileSystemException;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -32,13 +66,17 @@ import org.junit.jupiter.api.extension.TestWatcher;
 
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonWriter;
 import com.wildermods.masshash.Blob;
 import com.wildermods.masshash.Hash;
 import com.wildermods.masshash.exception.IntegrityException;
 import com.wildermods.thrixlvault.exception.DatabaseIntegrityError;
+import com.wildermods.thrixlvault.exception.DatabaseMissingBlobError;
 import com.wildermods.thrixlvault.exception.UnknownVersionException;
+import com.wildermods.thrixlvault.fs.VaultFileSystemProvider;
 import com.wildermods.thrixlvault.steam.IVaultable;
 import com.wildermods.thrixlvault.utils.OS;
+import com.wildermods.thrixlvault.utils.XXHash64;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
@@ -279,6 +317,714 @@ public class WeaverTests {
 		
 	}
 	
+	@Test
+	@Order(14)
+	@SuppressWarnings("deprecation")
+	void metadataVerificationTest() throws IOException, IntegrityException, InterruptedException, ExecutionException {
+		System.out.println("Metadata verification test:");
+		Weaver metadata = new Weaver(new Vault(vaultDir.resolve("metadata")), VERSION, sourceDir);
+		ChrysalisizedVault cVault = metadata.getChrysalisizedVault();
+		Chrysalis chrysalis = cVault.getChrysalis();
+		
+		assertTrue(chrysalis.hasSizes());
+		for(Hash hash : chrysalis.blobs().keySet()) {
+			Path file = sourceDir.resolve(chrysalis.blobs().get(hash).iterator().next());
+			assertEquals(Files.size(file), chrysalis.size(hash).getAsLong());
+		}
+		
+		cVault.verifyBlobs(VerificationLevel.METADATA);
+		cVault.verifyDirectory(sourceDir, false, VerificationLevel.METADATA);
+		
+		Hash truncated = chrysalis.blobs().keySet().stream().filter((hash) -> chrysalis.size(hash).getAsLong() > 0).findFirst().orElseThrow();
+		Files.write(cVault.getBlobFile(truncated), new byte[0], StandardOpenOption.TRUNCATE_EXISTING);
+		DatabaseIntegrityError e = assertThrowsExactly(DatabaseIntegrityError.class, () -> cVault.verifyBlobs(VerificationLevel.METADATA));
+		assertTrue(e.getMessage().contains("Expected size " + chrysalis.size(truncated).getAsLong() + " for hash " + truncated.hash()));
+		
+		cVault.purge();
+	}
+	
+	@Test
+	@Order(15)
+	@SuppressWarnings("deprecation")
+	void checksumVerificationTest() throws IOException, IntegrityException, InterruptedException, ExecutionException {
+		System.out.println("Checksum verification test:");
+		Weaver checksummed = new Weaver(new Vault(vaultDir.resolve("checksum")), VERSION, sourceDir, false, true);
+		ChrysalisizedVault cVault = checksummed.getChrysalisizedVault();
+		Chrysalis chrysalis = cVault.getChrysalis();
+		
+		assertTrue(chrysalis.hasChecksums());
+		cVault.verifyBlobs(VerificationLevel.CHECKSUM);
+		cVault.verifyDirectory(sourceDir, false, VerificationLevel.CHECKSUM);
+		
+		Hash corrupted = chrysalis.blobs().keySet().iterator().next();
+		Files.write(cVault.getBlobFile(corrupted), "corrupt".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+		DatabaseIntegrityError e = assertThrowsExactly(DatabaseIntegrityError.class, () -> cVault.verifyBlobs(VerificationLevel.CHECKSUM));
+		assertTrue(e.getMessage().contains("Expected checksum " + XXHash64.toHex(chrysalis.checksum(corrupted).getAsLong()) + " for hash " + corrupted.hash()));
+		
+		cVault.purge();
+	}
+	
+	@Test
+	@Order(16)
+	@SuppressWarnings("deprecation")
+	void recordChecksumsTest() throws IOException, IntegrityException, InterruptedException, ExecutionException {
+		System.out.println("Record checksums test:");
+		Vault checksumVault = new Vault(vaultDir.resolve("recordChecksums"));
+		new Weaver(checksumVault, VERSION, sourceDir);
+		ChrysalisizedVault cVault = checksumVault.chrysalisize(VERSION);
+		ChrysalisizedVault other = checksumVault.chrysalisize(VERSION);
+		assertTrue(!cVault.getChrysalis().hasChecksums());
+		Hash hash = cVault.getChrysalis().blobs().keySet().iterator().next();
+		assertThrowsExactly(UnsupportedOperationException.class, () -> other.getChrysalis().blobs().removeAll(hash));
+		
+		cVault.recordChecksums();
+		assertTrue(cVault.getChrysalis().hasChecksums());
+		assertFalse(other.getChrysalis().hasChecksums()); //the shared chrysalis is left untouched
+		assertTrue(checksumVault.chrysalisize(VERSION).getChrysalis().hasChecksums());
+		checksumVault.chrysalisize(VERSION).verifyBlobs(VerificationLevel.CHECKSUM);
+		
+		cVault.purge();
+	}
+	
+	@Test
+	@Order(17)
+	@SuppressWarnings("deprecation")
+	void scopedLoadTest() throws IOException, IntegrityException, InterruptedException, ExecutionException {
+		System.out.println("Scoped load test:");
+		Vault scopedVault = new Vault(vaultDir.resolve("scoped"));
+		Chrysalis full = new Weaver(scopedVault, VERSION, sourceDir).getChrysalisizedVault().getChrysalis();
+		
+		ChrysalisizedVault text = scopedVault.chrysalisize(VERSION, Path.of("text"));
+		assertTrue(text.isScoped());
+		Chrysalis scoped = text.getChrysalis();
+		assertTrue(!scoped.blobs().isEmpty());
+		assertTrue(scoped.blobs().size() < full.blobs().size());
+		for(Path path : full.blobs().values()) {
+			assertEquals(path.startsWith("text"), scoped.blobs().containsValue(path), path.toString());
+		}
+		for(Hash hash : scoped.blobs().keySet()) {
+			assertEquals(full.size(hash), scoped.size(hash));
+		}
+		assertTrue(scoped.hasSizes());
+		text.verifyBlobs();
+		
+		Path lorem = Path.of("text", "lorem.txt");
+		Chrysalis single = scopedVault.chrysalisize(VERSION, lorem).getChrysalis();
+		assertEquals(Set.of(lorem), Set.copyOf(single.blobs().values()));
+		
+		assertTrue(scopedVault.chrysalisize(VERSION, Path.of("tex")).getChrysalis().blobs().isEmpty());
+		assertThrowsExactly(IllegalStateException.class, () -> text.recordChecksums());
+		assertThrowsExactly(IllegalStateException.class, () -> text.purge());
+		
+		scopedVault.chrysalisize(VERSION).purge();
+	}
+	
+	@Test
+	@Order(18)
+	@SuppressWarnings("deprecation")
+	void binaryFormatTest() throws IOException, IntegrityException, InterruptedException, ExecutionException {
+		System.out.println("Binary format test:");
+		Vault binaryVault = new Vault(vaultDir.resolve("binary")).setFormat(ChrysalisFormat.BINARY);
+		ChrysalisizedVault weaved = new Weaver(binaryVault, VERSION, sourceDir, false, true).getChrysalisizedVault();
+		Path chrysalisFile = binaryVault.getChrysalisFile(VERSION);
+		assertEquals(ChrysalisFormat.BINARY.fileName(), chrysalisFile.getFileName().toString());
+		assertEquals(ChrysalisFormat.BINARY, ChrysalisFormat.detect(chrysalisFile));
+		
+		Chrysalis written = weaved.getChrysalis();
+		Chrysalis read = binaryVault.chrysalisize(VERSION).getChrysalis();
+		assertEquals(Weaver.GSON.toJson(written), Weaver.GSON.toJson(read));
+		binaryVault.chrysalisize(VERSION).verifyBlobs(VerificationLevel.CHECKSUM);
+		
+		Chrysalis text = binaryVault.chrysalisize(VERSION, Path.of("text")).getChrysalis();
+		assertTrue(!text.blobs().isEmpty());
+		assertTrue(text.blobs().values().stream().allMatch(path -> path.startsWith("text")));
+		
+		//a vault in another format still reads the existing file
+		assertEquals(chrysalisFile, new Vault(binaryVault.vaultDir).getChrysalisFile(VERSION));
+		
+		byte[] data = Files.readAllBytes(chrysalisFile);
+		data[data.length / 2] ^= 0x10;
+		Path corrupted = chrysalisFile.resolveSibling("corrupted.chrysalis");
+		Files.write(corrupted, data);
+		IOException e = assertThrowsExactly(IOException.class, () -> Chrysalis.fromFile(corrupted));
+		assertTrue(e.getMessage().contains("Checksum mismatch"), e.getMessage());
+		Files.delete(corrupted);
+		
+		//the case of the hex digits is stored once, so it must be the same for every hash
+		Chrysalis mixed = written.clone();
+		mixed.blobs().put(Hash.of("ABCDEF" + "0".repeat(58)), Path.of("upper.txt"));
+		e = assertThrowsExactly(IOException.class, () -> ChrysalisBinarySerializer.write(mixed, OutputStream.nullOutputStream()));
+		assertTrue(e.getMessage().contains("uppercase and lowercase"), e.getMessage());
+		
+		binaryVault.chrysalisize(VERSION).purge();
+	}
+	
+	@Test
+	@Order(19)
+	void streamingFormatsTest() throws IOException {
+		System.out.println("Streaming formats test:");
+		Path dir = vaultDir.resolve("formats");
+		Files.createDirectories(dir);
+		String expected = Weaver.GSON.toJson(chrysalis);
+		for(ChrysalisFormat format : ChrysalisFormat.values()) {
+			Path file = dir.resolve(format.name() + "." + format.fileName());
+			format.write(chrysalis, file);
+			assertEquals(format == ChrysalisFormat.JSON_COMPACT ? ChrysalisFormat.JSON : format, ChrysalisFormat.detect(file), format.name());
+			assertEquals(expected, Weaver.GSON.toJson(Chrysalis.fromFile(file)), format.name());
+			if(format == ChrysalisFormat.JSON) {
+				assertEquals(expected, Files.readString(file));
+			}
+			else if(format == ChrysalisFormat.JSON_COMPACT) {
+				assertTrue(!Files.readString(file).contains("\n"));
+				assertTrue(Files.size(file) < expected.length());
+			}
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	@Order(20)
+	@SuppressWarnings("deprecation")
+	void chrysalisCacheTest() throws IOException, IntegrityException, InterruptedException, ExecutionException {
+		System.out.println("Chrysalis cache test:");
+		ChrysalisCache cache = new ChrysalisCache(4);
+		Vault cachedVault = new Vault(vaultDir.resolve("cached")).setCache(cache);
+		new Weaver(cachedVault, VERSION, sourceDir).getChrysalisizedVault();
+		long misses = cache.misses();
+		
+		Chrysalis first = cachedVault.chrysalisize(VERSION).getChrysalis();
+		assertTrue(first == cachedVault.chrysalisize(VERSION).getChrysalis());
+		assertTrue(first == new Vault(cachedVault.vaultDir).setCache(cache).chrysalisize(VERSION).getChrysalis());
+		assertTrue(first != cachedVault.chrysalisize(VERSION, Path.of("text")).getChrysalis());
+		assertEquals(misses + 1, cache.misses());
+		assertEquals(3, cache.hits());
+		
+		cachedVault.setFormat(ChrysalisFormat.JSON_COMPACT).writeChrysalis(VERSION, first);
+		Chrysalis reread = cachedVault.chrysalisize(VERSION).getChrysalis();
+		assertTrue(first != reread);
+		assertEquals(first, reread);
+		
+		cache.setCapacity(0);
+		assertEquals(0, cache.size());
+		cachedVault.chrysalisize(VERSION).purge();
+	}
+	
+	@Test
+	@Order(21)
+	@SuppressWarnings("deprecation")
+	void migrationTest() throws IOException, IntegrityException, InterruptedException, ExecutionException {
+		System.out.println("Migration test:");
+		Vault legacyVault = new Vault(vaultDir.resolve("migration"));
+		Chrysalis original = new Weaver(legacyVault, VERSION, sourceDir).getChrysalisizedVault().getChrysalis();
+		Path installDir = outputDir.resolve("current_download").toAbsolutePath();
+		
+		//Rewrite the chrysalis as schema 0, which stored absolute paths and nothing else
+		Path chrysalisFile = legacyVault.getChrysalisFile(VERSION);
+		try(JsonWriter out = new JsonWriter(Files.newBufferedWriter(chrysalisFile))) {
+			out.beginObject();
+			for(Hash hash : original.blobs().keySet()) {
+				out.name(hash.hash()).beginArray();
+				for(Path path : original.blobs().get(hash)) {
+					out.value(installDir.resolve(path).toString());
+				}
+				out.endArray();
+			}
+			out.endObject();
+		}
+		Files.writeString(chrysalisFile.resolveSibling("blobs.json.tmp"), "{");
+		
+		ChrysalisMigrator.Summary summary = new ChrysalisMigrator(legacyVault).installDir(installDir).migrate();
+		System.out.println(summary);
+		assertTrue(summary.isSuccessful());
+		assertEquals(1, summary.getFound());
+		assertEquals(1, summary.getMigrated(0));
+		assertEquals(0, summary.getMissingBlobs());
+		assertTrue(Files.notExists(chrysalisFile.resolveSibling("blobs.json.tmp")));
+		
+		assertEquals(ChrysalisSerializer.SCHEMA, ChrysalisFormat.JSON.schema(chrysalisFile));
+		Chrysalis migrated = legacyVault.chrysalisize(VERSION).getChrysalis();
+		assertEquals(original, migrated);
+		for(Hash hash : original.blobs().keySet()) {
+			assertEquals(original.size(hash), migrated.size(hash));
+		}
+		
+		summary = new ChrysalisMigrator(legacyVault).migrate();
+		assertEquals(1, summary.getUpToDate());
+		assertEquals(0, summary.getMigrated());
+		
+		legacyVault.chrysalisize(VERSION).purge();
+	}
+	
+	@Test
+	@Order(22)
+	@SuppressWarnings("deprecation")
+	void exportTest() throws IOException, IntegrityException, InterruptedException, ExecutionException {
+		System.out.println("Export test:");
+		Vault exportVault = new Vault(vaultDir.resolve("export"));
+		ChrysalisizedVault weaved = new Weaver(exportVault, VERSION, sourceDir).getChrysalisizedVault();
+		Path exportDir = outputDir.resolve("export");
+		
+		weaved.export(exportDir, true);
+		for(Path path : weaved.getChrysalis().blobs().values()) {
+			assertEquals(-1L, Files.mismatch(sourceDir.resolve(path), exportDir.resolve(path)), path.toString());
+		}
+		
+		//existing files are never overwritten
+		assertThrowsExactly(ExecutionException.class, () -> weaved.export(exportDir, false));
+		deleteDirectory(exportDir);
+		
+		Path lorem = Path.of("text", "lorem.txt");
+		assertEquals(VerificationLevel.FULL, new ExportOptions().getExportVerification());
+		for(ExportMode mode : new ExportMode[] {ExportMode.HARD_LINK, ExportMode.SYMLINK}) {
+			ExportOptions options = new ExportOptions().mode(mode).copyOnWrite(lorem::equals);
+			assertEquals(VerificationLevel.METADATA, options.getExportVerification());
+			weaved.export(exportDir, options);
+			for(Map.Entry<Hash, Path> entry : weaved.getChrysalis().blobs().entries()) {
+				Path path = entry.getValue();
+				Path exported = exportDir.resolve(path);
+				assertEquals(-1L, Files.mismatch(sourceDir.resolve(path), exported), path.toString());
+				Path blob = weaved.getBlobFile(entry.getKey());
+				boolean linked = mode == ExportMode.SYMLINK ? Files.isSymbolicLink(exported) : Files.isSameFile(exported, blob);
+				assertEquals(!path.equals(lorem), linked, mode + " " + path);
+			}
+			deleteDirectory(exportDir);
+		}
+		
+		//the buffered copy finishes what transferTo could not, and never spins on a short file
+		Path source = sourceDir.resolve(lorem);
+		Path copy = outputDir.resolve("lorem.txt");
+		long size = Files.size(source);
+		try(FileChannel in = FileChannel.open(source); FileChannel out = FileChannel.open(copy, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+			in.transferTo(0, size / 2, out);
+			ExportEngine.copy(in, out, size / 2, size, source, copy);
+			assertThrowsExactly(IOException.class, () -> ExportEngine.copy(in, out, size, size + 1, source, copy));
+		}
+		assertEquals(-1L, Files.mismatch(source, copy));
+		Files.delete(copy);
+
+		weaved.purge();
+	}
+
+	@Test
+	@Order(23)
+	@SuppressWarnings("deprecation")
+	void syncTest() throws IOException, IntegrityException, InterruptedException, ExecutionException {
+		System.out.println("Sync test:");
+		Vault syncVault = new Vault(vaultDir.resolve("sync"));
+		ChrysalisizedVault weaved = new Weaver(syncVault, VERSION, sourceDir).getChrysalisizedVault();
+		Path syncDir = outputDir.resolve("sync");
+		int files = weaved.getChrysalis().blobs().size();
+
+		SyncEngine.Result result = weaved.sync(syncDir);
+		assertEquals(files, result.getAdded());
+		weaved.verifyDirectory(syncDir, false);
+
+		Path lorem = syncDir.resolve("text").resolve("lorem.txt");
+		Path removed = syncDir.resolve(weaved.getChrysalis().blobs().values().stream().filter((path) -> !path.equals(Path.of("text", "lorem.txt"))).findFirst().get());
+		Files.writeString(lorem, "modified");
+		Files.delete(removed);
+		Files.createDirectories(syncDir.resolve("extra").resolve("nested"));
+		Files.writeString(syncDir.resolve("extra").resolve("nested").resolve("file.txt"), "extra");
+
+		result = weaved.sync(syncDir);
+		assertEquals(1, result.getAdded());
+		assertEquals(1, result.getReplaced());
+		assertEquals(1, result.getDeleted());
+		assertEquals(files - 2, result.getUnchanged());
+		assertFalse(Files.exists(syncDir.resolve("extra")));
+		weaved.verifyDirectory(syncDir, false);
+
+		//a second run finds nothing to do, and trusts the stat cache
+		result = weaved.sync(syncDir);
+		assertEquals(files, result.getUnchanged());
+
+		//with a known source, files of the same size are trusted
+		Files.writeString(lorem, "x".repeat((int)Files.size(lorem)));
+		result = weaved.sync(syncDir, weaved.getChrysalis());
+		assertEquals(files, result.getUnchanged());
+		result = weaved.sync(syncDir);
+		assertEquals(1, result.getReplaced());
+
+		deleteDirectory(syncDir);
+		weaved.purge();
+	}
+
+	@Test
+	@Order(24)
+	@SuppressWarnings("deprecation")
+	void archiveExportTest() throws IOException, IntegrityException {
+		System.out.println("Archive export test:");
+		Vault archiveVault = new Vault(vaultDir.resolve("archive"));
+		ChrysalisizedVault weaved = new Weaver(archiveVault, VERSION, sourceDir).getChrysalisizedVault();
+		Chrysalis chrysalis = weaved.getChrysalis();
+
+		Path zip = outputDir.resolve("archive").resolve("export" + ArchiveFormat.ZIP.extension());
+		weaved.exportArchive(zip, ArchiveFormat.ZIP);
+		int files = 0;
+		try(ZipInputStream in = new ZipInputStream(Files.newInputStream(zip))) {
+			for(ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+				assertEquals(ArchiveExporter.TIMESTAMP, entry.getTimeLocal());
+				if(!entry.isDirectory()) {
+					assertArrayEquals(Files.readAllBytes(sourceDir.resolve(entry.getName())), in.readAllBytes(), entry.getName());
+					files++;
+				}
+			}
+		}
+		assertEquals(chrysalis.blobs().size(), files);
+
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+		new ArchiveExporter(weaved).export(first, ArchiveFormat.TAR_GZIP);
+		new ArchiveExporter(weaved).export(second, ArchiveFormat.TAR_GZIP);
+		assertArrayEquals(first.toByteArray(), second.toByteArray(), "Archives are not deterministic");
+
+		byte[] tar;
+		try(GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(first.toByteArray()))) {
+			tar = in.readAllBytes();
+		}
+		files = 0;
+		for(Map.Entry<String, byte[]> entry : TarOutputStreamTests.read(tar).entrySet()) {
+			if(entry.getValue() != null) {
+				assertArrayEquals(Files.readAllBytes(sourceDir.resolve(entry.getKey())), entry.getValue(), entry.getKey());
+				files++;
+			}
+		}
+		assertEquals(chrysalis.blobs().size(), files);
+
+		//a corrupted blob fails the export, leaving no archive behind
+		Hash corrupted = chrysalis.blobs().keySet().iterator().next();
+		Path corruptZip = zip.resolveSibling("corrupt" + ArchiveFormat.ZIP.extension());
+		Files.write(weaved.getBlobFile(corrupted), "corrupt".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+		DatabaseIntegrityError e = assertThrowsExactly(DatabaseIntegrityError.class, () -> weaved.exportArchive(corruptZip, ArchiveFormat.ZIP));
+		assertTrue(e.getMessage().contains("Expected hash " + corrupted.hash()), e.getMessage());
+		assertFalse(Files.exists(corruptZip));
+		assertThrowsExactly(DatabaseIntegrityError.class, () -> new ArchiveExporter(weaved).export(new ByteArrayOutputStream(), ArchiveFormat.TAR));
+		new ArchiveExporter(weaved).verify(false).export(corruptZip, ArchiveFormat.ZIP);
+
+		deleteDirectory(zip.getParent());
+		weaved.purge();
+	}
+
+	@Test
+	@Order(25)
+	@SuppressWarnings("deprecation")
+	void verifyOnWriteExportTest() throws IOException, IntegrityException, InterruptedException, ExecutionException {
+		System.out.println("Verify on write export test:");
+		Vault exportVault = new Vault(vaultDir.resolve("verifyOnWrite"));
+		ChrysalisizedVault weaved = new Weaver(exportVault, VERSION, sourceDir).getChrysalisizedVault();
+		Path exportDir = outputDir.resolve("verifyOnWrite");
+
+		weaved.export(exportDir, new ExportOptions().verifyOnWrite(true));
+		for(Path path : weaved.getChrysalis().blobs().values()) {
+			assertEquals(-1L, Files.mismatch(sourceDir.resolve(path), exportDir.resolve(path)), path.toString());
+		}
+		deleteDirectory(exportDir);
+
+		Path lorem = Path.of("text", "lorem.txt");
+		Hash corrupted = weaved.getChrysalis().blobs().entries().stream().filter((entry) -> entry.getValue().equals(lorem)).findFirst().get().getKey();
+		Files.writeString(weaved.getBlobFile(corrupted), "corrupt");
+		IntegrityException e = assertThrowsExactly(IntegrityException.class, () -> weaved.export(exportDir, new ExportOptions().verifyOnWrite(true)));
+		assertTrue(e.getMessage().contains("Expected hash " + corrupted.hash()), e.getMessage());
+		assertFalse(Files.exists(exportDir.resolve(lorem)), "Corrupted copy was left behind");
+
+		deleteDirectory(exportDir);
+		weaved.purge();
+	}
+
+	@Test
+	@Order(26)
+	@SuppressWarnings("deprecation")
+	void vaultVerifierTest() throws IOException, IntegrityException, InterruptedException, ExecutionException {
+		System.out.println("Vault verifier test:");
+		Vault sharedVault = new Vault(vaultDir.resolve("verifier"));
+		IVaultable textOnly = new IVaultable() {
+			@Override
+			public String name() {
+				return "thrixlVaultTextTest";
+			}
+
+			@Override
+			public Path artifactPath() {
+				return Path.of("thrixlVaultTextTest");
+			}
+		};
+		IVaultable missing = new IVaultable() {
+			@Override
+			public String name() {
+				return "thrixlVaultMissingTest";
+			}
+
+			@Override
+			public Path artifactPath() {
+				return Path.of("thrixlVaultMissingTest");
+			}
+		};
+		ChrysalisizedVault full = new Weaver(sharedVault, VERSION, sourceDir).getChrysalisizedVault();
+		ChrysalisizedVault text = new Weaver(sharedVault, textOnly, sourceDir.resolve("text")).getChrysalisizedVault();
+		int blobs = full.getChrysalis().blobs().keySet().size();
+
+		VaultVerifier.Report report = new VaultVerifier(sharedVault).verifyAll();
+		assertTrue(report.isSuccessful(), report.toString());
+		assertEquals(2, report.getVersions().size());
+		assertEquals(blobs, report.getBlobs());
+
+		Hash corrupted = text.getChrysalis().blobs().keySet().iterator().next();
+		Files.writeString(full.getBlobFile(corrupted), "corrupt");
+		report = new VaultVerifier(sharedVault).verify(List.of(VERSION, textOnly, missing));
+		assertFalse(report.isSuccessful());
+		assertEquals(Set.of(corrupted), report.getFailures().keySet());
+		assertEquals(Set.of(corrupted), report.getFailuresByVersion().get(VERSION));
+		assertEquals(Set.of(corrupted), report.getFailuresByVersion().get(textOnly));
+		assertEquals(Set.of(missing), report.getUnreadable().keySet());
+		assertEquals(Set.of(VERSION, textOnly, missing), report.getFailedVersions());
+
+		text.purge();
+		full.purge();
+	}
+
+	@Test
+	@Order(27)
+	@SuppressWarnings("deprecation")
+	void progressTest() throws IOException, IntegrityException, InterruptedException, ExecutionException {
+		System.out.println("Progress test:");
+		List<Progress> snapshots = Collections.synchronizedList(new ArrayList<>());
+		Set<String> threads = ConcurrentHashMap.newKeySet();
+		AtomicInteger listening = new AtomicInteger();
+		AtomicInteger overlaps = new AtomicInteger();
+		ProgressListener listener = (progress) -> {
+			if(listening.incrementAndGet() != 1) {
+				overlaps.incrementAndGet();
+			}
+			threads.add(Thread.currentThread().getName());
+			snapshots.add(progress);
+			listening.decrementAndGet();
+		};
+		Vault progressVault = new Vault(vaultDir.resolve("progress")).setProgressListener(listener).setProgressInterval(Duration.ofMillis(1));
+		ChrysalisizedVault weaved = new Weaver(progressVault, VERSION, sourceDir).getChrysalisizedVault();
+		Chrysalis chrysalis = weaved.getChrysalis();
+
+		Progress weaving = snapshots.get(snapshots.size() - 1);
+		assertTrue(weaving.isFinished());
+		assertTrue(weaving.getOperation().startsWith("Weaving"), weaving.getOperation());
+		assertEquals(chrysalis.blobs().size(), weaving.getBlobsDone());
+		assertEquals(-1, weaving.getBlobsTotal());
+
+		weaved.verifyBlobs();
+		Progress verifying = snapshots.get(snapshots.size() - 1);
+		System.out.println(verifying);
+		assertTrue(verifying.isFinished());
+		assertTrue(verifying.getOperation().startsWith("Verifying blobs"), verifying.getOperation());
+		assertEquals(chrysalis.blobs().keySet().size(), verifying.getBlobsTotal());
+		assertEquals(verifying.getBlobsTotal(), verifying.getBlobsDone());
+		assertEquals(verifying.getBytesTotal(), verifying.getBytesDone());
+		assertEquals(1d, verifying.getFraction());
+
+		//operations sharing the listener never call it at the same time, nor from their workers
+		CompletableFuture.allOf(weaved.verifyBlobsAsync(VerificationLevel.FULL), weaved.verifyBlobsAsync(VerificationLevel.METADATA)).get();
+		assertEquals(Set.of("thrixlvault-progress"), threads);
+		assertEquals(0, overlaps.get());
+
+		Progress halfway = new Progress("test", 5, 10, 100, 400, Duration.ofSeconds(10), 10, 0.5, false);
+		assertEquals(0.25, halfway.getFraction());
+		assertEquals(Duration.ofSeconds(30), halfway.getEta().get());
+		assertTrue(new Progress("test", 5, -1, 100, -1, Duration.ofSeconds(10), 10, 0.5, false).getEta().isEmpty());
+
+		weaved.purge();
+	}
+
+	@Test
+	@Order(28)
+	@SuppressWarnings("deprecation")
+	void asyncTest() throws Throwable {
+		System.out.println("Async test:");
+		Vault asyncVault = new Vault(vaultDir.resolve("async"));
+		ChrysalisizedVault weaved = new Weaver(asyncVault, VERSION, sourceDir).getChrysalisizedVault();
+		Path exportDir = outputDir.resolve("async");
+
+		weaved.exportAsync(exportDir, new ExportOptions()).thenCompose((v) -> weaved.verifyDirectoryAsync(exportDir, true, VerificationLevel.FULL)).get();
+		deleteDirectory(exportDir);
+
+		Hash corrupted = weaved.getChrysalis().blobs().keySet().iterator().next();
+		Files.writeString(weaved.getBlobFile(corrupted), "corrupt");
+		ExecutionException e = assertThrowsExactly(ExecutionException.class, () -> weaved.verifyBlobsAsync(VerificationLevel.FULL).get());
+		assertTrue(e.getCause() instanceof DatabaseIntegrityError, e.getCause().toString());
+
+		List<BlobEvent> events = Collections.synchronizedList(new ArrayList<>());
+		CompletableFuture<Throwable> done = new CompletableFuture<>();
+		weaved.verifyBlobsPublisher(VerificationLevel.FULL).subscribe(new Flow.Subscriber<BlobEvent>() {
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				subscription.request(Long.MAX_VALUE);
+			}
+
+			@Override
+			public void onNext(BlobEvent event) {
+				events.add(event);
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				done.complete(t);
+			}
+
+			@Override
+			public void onComplete() {
+				done.complete(null);
+			}
+		});
+		assertTrue(done.get(30, TimeUnit.SECONDS) instanceof DatabaseIntegrityError);
+		assertEquals(weaved.getChrysalis().blobs().keySet().size(), events.size());
+		for(BlobEvent event : events) {
+			assertEquals(event.getHash().equals(corrupted) ? BlobEvent.Status.CORRUPT : BlobEvent.Status.OK, event.getStatus(), event.toString());
+		}
+
+		weaved.purge();
+	}
+
+	@Test
+	@Order(29)
+	@SuppressWarnings("deprecation")
+	void fileSystemTest() throws IOException, IntegrityException {
+		System.out.println("File system test:");
+		Vault fileSystemVault = new Vault(vaultDir.resolve("fileSystem"));
+		ChrysalisizedVault weaved = new Weaver(fileSystemVault, VERSION, sourceDir).getChrysalisizedVault();
+		Set<Path> files = weaved.getChrysalis().blobs().values().stream().collect(Collectors.toSet());
+		URI uri = VaultFileSystemProvider.toUri(fileSystemVault, VERSION);
+
+		try(FileSystem fileSystem = weaved.newFileSystem()) {
+			assertTrue(fileSystem.isReadOnly());
+			assertThrowsExactly(FileSystemAlreadyExistsException.class, () -> FileSystems.newFileSystem(uri, Map.of(), getClass().getClassLoader()));
+			Path root = fileSystem.getPath("/");
+			try(Stream<Path> walk = Files.walk(root)) {
+				assertEquals(files.size(), walk.filter(Files::isRegularFile).count());
+			}
+			Path largest = null;
+			for(Path file : files) {
+				Path path = root.resolve(file.toString().replace(file.getFileSystem().getSeparator(), "/"));
+				assertArrayEquals(Files.readAllBytes(sourceDir.resolve(file)), Files.readAllBytes(path), path.toString());
+				assertEquals(Files.size(sourceDir.resolve(file)), Files.size(path));
+				assertEquals(path, fileSystem.provider().getPath(path.toUri()));
+				if(largest == null || Files.size(path) > Files.size(largest)) {
+					largest = path;
+				}
+			}
+
+			final Path target = largest;
+			byte[] expected = Files.readAllBytes(target);
+			try(SeekableByteChannel channel = Files.newByteChannel(target)) {
+				channel.position(expected.length / 2);
+				ByteBuffer rest = ByteBuffer.allocate(expected.length - expected.length / 2);
+				while(rest.hasRemaining() && channel.read(rest) >= 0);
+				assertArrayEquals(Arrays.copyOfRange(expected, expected.length / 2, expected.length), rest.array());
+			}
+
+			assertThrowsExactly(NoSuchFileException.class, () -> Files.size(root.resolve("missing")));
+			assertThrowsExactly(NotDirectoryException.class, () -> Files.list(fileSystem.provider().getPath(target.toUri())).close());
+			assertThrowsExactly(ReadOnlyFileSystemException.class, () -> Files.delete(fileSystem.provider().getPath(target.toUri())));
+			assertThrowsExactly(ReadOnlyFileSystemException.class, () -> Files.newOutputStream(fileSystem.provider().getPath(target.toUri())).close());
+			assertThrowsExactly(ReadOnlyFileSystemException.class, () -> Files.createDirectory(root.resolve("new")));
+		}
+
+		try(FileSystem fileSystem = FileSystems.newFileSystem(uri, Map.of(), getClass().getClassLoader())) {
+			Path file = files.iterator().next();
+			assertArrayEquals(Files.readAllBytes(sourceDir.resolve(file)), Files.readAllBytes(fileSystem.getPath("/", file.toString().split(Pattern.quote(file.getFileSystem().getSeparator())))));
+		}
+		assertThrowsExactly(FileSystemNotFoundException.class, () -> new VaultFileSystemProvider().getPath(uri));
+
+		weaved.purge();
+	}
+
+	@Test
+	@Order(30)
+	@SuppressWarnings("deprecation")
+	void readTest() throws IOException, IntegrityException {
+		System.out.println("Read test:");
+		Vault readVault = new Vault(vaultDir.resolve("read"));
+		ChrysalisizedVault weaved = new Weaver(readVault, VERSION, sourceDir).getChrysalisizedVault();
+		Set<Path> files = weaved.getChrysalis().blobs().values().stream().collect(Collectors.toSet());
+		long largest = 0;
+		for(Path file : files) {
+			largest = Math.max(largest, Files.size(sourceDir.resolve(file)));
+		}
+		assumeFalse(largest == 0);
+
+		//every blob but the largest is cached
+		BlobCache blobCache = new BlobCache(Long.MAX_VALUE, largest - 1).setDirect(false);
+		weaved.setBlobCache(blobCache);
+		for(int pass = 0; pass < 2; pass++) {
+			for(Path file : files) {
+				byte[] expected = Files.readAllBytes(sourceDir.resolve(file));
+				ByteBuffer mapped = weaved.map(file);
+				assertTrue(mapped.isReadOnly());
+				assertEquals(expected.length == largest, mapped.isDirect(), file.toString());
+				byte[] actual = new byte[mapped.remaining()];
+				mapped.get(actual);
+				assertArrayEquals(expected, actual, file.toString());
+
+				try(SeekableByteChannel channel = weaved.newByteChannel(file)) {
+					assertEquals(expected.length, channel.size());
+					channel.position(expected.length / 2);
+					ByteBuffer rest = ByteBuffer.allocate(expected.length - expected.length / 2);
+					while(rest.hasRemaining() && channel.read(rest) >= 0);
+					assertArrayEquals(Arrays.copyOfRange(expected, expected.length / 2, expected.length), rest.array(), file.toString());
+					assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+				}
+			}
+		}
+		assertTrue(blobCache.hits() > 0);
+		assertTrue(blobCache.size() > 0);
+		blobCache.setCapacity(0);
+		assertEquals(0, blobCache.size());
+
+		assertThrowsExactly(NoSuchFileException.class, () -> weaved.map(Path.of("missing")));
+		assertThrowsExactly(NoSuchFileException.class, () -> weaved.newByteChannel(Path.of("missing")));
+
+		weaved.purge();
+	}
+
+	@Test
+	@Order(31)
+	@SuppressWarnings("deprecation")
+	void repairTest() throws IOException, IntegrityException, InterruptedException, ExecutionException {
+		System.out.println("Repair test:");
+		ChrysalisizedVault weaved = new Weaver(new Vault(vaultDir.resolve("repair")), VERSION, sourceDir).getChrysalisizedVault();
+		Vault mirror = new Vault(vaultDir.resolve("repairMirror"));
+		new Weaver(mirror, VERSION, sourceDir);
+		List<Hash> hashes = new ArrayList<>(weaved.getChrysalis().blobs().keySet());
+		assumeFalse(hashes.size() < 2);
+		Hash missing = hashes.get(0);
+		Hash corrupted = hashes.get(1);
+
+		//from an install of the version
+		Files.delete(weaved.getBlobFile(missing));
+		Files.write(weaved.getBlobFile(corrupted), new byte[] {1, 2, 3});
+		BlobRepairer.Report report = new BlobRepairer(weaved).fromDirectory(sourceDir).repair();
+		assertTrue(report.isSuccessful(), report.toString());
+		assertEquals(Set.of(missing, corrupted), report.getRepaired().keySet());
+		weaved.verifyBlobs();
+
+		//from a mirror, skipping sources without a valid copy
+		Path badInstall = vaultDir.resolve("repairInstall");
+		for(Path file : weaved.getChrysalis().blobs().get(corrupted)) {
+			Files.createDirectories(badInstall.resolve(file).getParent());
+			Files.write(badInstall.resolve(file), new byte[] {1, 2, 3});
+		}
+		Files.write(weaved.getBlobFile(corrupted), new byte[] {4, 5, 6});
+		report = new BlobRepairer(weaved).fromDirectory(badInstall).fromVault(mirror).repair(List.of(corrupted));
+		assertEquals(mirror.blobDir.resolve(corrupted.hash()), report.getRepaired().get(corrupted));
+		weaved.verifyBlobs();
+
+		//nowhere to repair from
+		Files.delete(weaved.getBlobFile(missing));
+		report = new BlobRepairer(weaved).fromDirectory(badInstall).repair();
+		assertFalse(report.isSuccessful());
+		assertEquals(Set.of(missing), report.getUnrepaired());
+		assertTrue(report.getProblems().get(missing) instanceof DatabaseMissingBlobError);
+
+		deleteDirectory(badInstall);
+		weaved.purge();
+	}
+
 	@AfterAll
 	void cleanup() {
 		
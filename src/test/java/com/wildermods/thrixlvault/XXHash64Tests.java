@@ -0,0 +1,65 @@
+package com.wildermods.thrixlvault;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.wildermods.thrixlvault.utils.XXHash64;
+
+public class XXHash64Tests {
+
+	private static long hash(String s) {
+		return XXHash64.hash(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void referenceVectors() {
+		assertEquals(0xEF46DB3751D8E999L, hash(""));
+		assertEquals(0xD24EC4F1A98C6E5BL, hash("a"));
+		assertEquals(0x44BC2CF5AD770999L, hash("abc"));
+		assertEquals(0xFBCEA83C8A378BF1L, hash("Nobody inspects the spammish repetition"));
+	}
+
+	@Test
+	void streamingMatchesOneShot() {
+		byte[] data = new byte[10_007];
+		new Random(42).nextBytes(data);
+		long expected = XXHash64.hash(data);
+
+		for(int chunk : new int[] {1, 3, 31, 32, 33, 1000}) {
+			XXHash64 hash = new XXHash64();
+			for(int i = 0; i < data.length; i += chunk) {
+				hash.update(data, i, Math.min(chunk, data.length - i));
+			}
+			assertEquals(expected, hash.digest(), "chunk size " + chunk);
+		}
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+		direct.put(data).flip();
+		assertEquals(expected, new XXHash64().update(direct).digest());
+	}
+
+	@Test
+	void fileMatchesBytes() throws IOException {
+		Path file = Paths.get("./src", "test", "resources", "text", "lorem.txt");
+		assertEquals(XXHash64.hash(Files.readAllBytes(file)), XXHash64.hash(file));
+	}
+
+	@Test
+	void hexRoundTrip() {
+		for(long value : new long[] {0, 1, -1, 0xEF46DB3751D8E999L}) {
+			String hex = XXHash64.toHex(value);
+			assertEquals(16, hex.length());
+			assertEquals(value, XXHash64.fromHex(hex));
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.wildermods.thrixlvault.fs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that vault paths behave like paths of the default file system on Unix.
+ */
+public class VaultPathTests {
+
+	private static final List<String> PATHS = List.of("", "/", "a", "/a", "a/b/c", "/a/b/c", "a//b/", "./a/../b", "/../a", "../../a/b", "a/./b/..", "/a/b/../../..");
+	private static final VaultFileSystem FILE_SYSTEM = new VaultFileSystem(null, null, "thrixlvault:test");
+
+	@BeforeAll
+	static void unixOnly() {
+		assumeTrue(FileSystems.getDefault().getSeparator().equals("/"));
+	}
+
+	private static Path vault(String path) {
+		return FILE_SYSTEM.getPath(path);
+	}
+
+	private static String string(Object path) {
+		return Objects.toString(path);
+	}
+
+	/**
+	 * @return the path computed, or the type of exception thrown instead
+	 */
+	private static String outcome(Supplier<Path> operation) {
+		try {
+			return operation.get().toString();
+		}
+		catch(RuntimeException e) {
+			return e.getClass().getName();
+		}
+	}
+
+	@Test
+	void decomposesLikeUnixPaths() {
+		for(String string : PATHS) {
+			Path unix = Path.of(string);
+			Path vault = vault(string);
+			assertEquals(unix.toString(), vault.toString(), string);
+			assertEquals(unix.isAbsolute(), vault.isAbsolute(), string);
+			assertEquals(unix.getNameCount(), vault.getNameCount(), string);
+			assertEquals(string(unix.getFileName()), string(vault.getFileName()), string);
+			assertEquals(string(unix.getParent()), string(vault.getParent()), string);
+			assertEquals(string(unix.getRoot()), string(vault.getRoot()), string);
+			assertEquals(unix.normalize().toString(), vault.normalize().toString(), string);
+			for(int i = 0; i < unix.getNameCount(); i++) {
+				assertEquals(unix.getName(i).toString(), vault.getName(i).toString(), string);
+				assertEquals(unix.subpath(i, unix.getNameCount()).toString(), vault.subpath(i, vault.getNameCount()).toString(), string);
+			}
+		}
+	}
+
+	@Test
+	void combinesLikeUnixPaths() {
+		for(String first : PATHS) {
+			for(String second : PATHS) {
+				String pair = first + " | " + second;
+				Path unix = Path.of(first);
+				Path vault = vault(first);
+				assertEquals(unix.resolve(second).toString(), vault.resolve(second).toString(), pair);
+				assertEquals(unix.startsWith(second), vault.startsWith(second), pair);
+				assertEquals(unix.endsWith(second), vault.endsWith(second), pair);
+				assertEquals(outcome(() -> unix.relativize(Path.of(second))), outcome(() -> vault.relativize(vault(second))), pair);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.wildermods.thrixlvault.programs;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.google.common.collect.Ordering;
+import com.google.common.collect.TreeMultimap;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.wildermods.masshash.Hash;
+import com.wildermods.thrixlvault.Chrysalis;
+
+/**
+ * Compares {@link Chrysalis#fromFile(Path)} against the previous way of reading the
+ * "blobs" object, which collected every entry into a temporary {@code HashMap} before
+ * copying it into a {@code TreeMultimap}.
+ * <p>
+ * Usage: {@code ChrysalisReadBenchmark [hashes] [iterations]}
+ * </p>
+ */
+public class ChrysalisReadBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int hashes = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		Path file = Files.createTempFile("chrysalis", ".json");
+		try {
+			writeSyntheticChrysalis(file, hashes);
+			System.out.println("Chrysalis with " + hashes + " hashes: " + Files.size(file) + " bytes");
+
+			for(int i = 0; i < 3; i++) { //warm up
+				legacyRead(file);
+				Chrysalis.fromFile(file);
+			}
+
+			long legacy = 0;
+			long current = 0;
+			for(int i = 0; i < iterations; i++) {
+				long start = System.nanoTime();
+				legacyRead(file);
+				legacy += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				Chrysalis.fromFile(file);
+				current += System.nanoTime() - start;
+			}
+			System.out.printf("Legacy reader:  %.1f ms%n", legacy / 1e6 / iterations);
+			System.out.printf("Current reader: %.1f ms%n", current / 1e6 / iterations);
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+	private static void writeSyntheticChrysalis(Path file, int hashes) throws IOException {
+		Random random = new Random(0);
+		HexFormat hex = HexFormat.of();
+		byte[] digest = new byte[32];
+		try(Writer writer = Files.newBufferedWriter(file); JsonWriter out = new JsonWriter(writer)) {
+			out.beginObject();
+			out.name("schema").value(3);
+			out.name("algorithm").value("SHA-256");
+			out.name("blobs").beginObject();
+			for(int i = 0; i < hashes; i++) {
+				random.nextBytes(digest);
+				out.name(hex.formatHex(digest)).beginArray();
+				int copies = random.nextInt(8) == 0 ? 2 : 1;
+				for(int c = 0; c < copies; c++) {
+					out.value("assets/dir" + random.nextInt(64) + "/sub" + random.nextInt(64) + "/file" + i + "_" + c + ".png");
+				}
+				out.endArray();
+			}
+			out.endObject();
+			out.endObject();
+		}
+	}
+
+	/**
+	 * The "blobs" parsing of the reader this benchmark compares against, without the
+	 * metadata sections.
+	 */
+	private static TreeMultimap<Hash, Path> legacyRead(Path file) throws IOException {
+		try(Reader reader = Files.newBufferedReader(file); JsonReader in = new JsonReader(reader)) {
+			in.beginObject();
+			in.nextName();
+			in.nextInt();
+			in.nextName();
+			in.nextString();
+			in.nextName();
+			in.beginObject();
+			Map<Hash, Set<Path>> temp = new HashMap<>();
+			while(in.hasNext()) {
+				String name = in.nextName();
+				in.beginArray();
+				Set<Path> paths = null;
+				while(in.hasNext()) {
+					String path = in.nextString();
+					if(paths == null) {
+						Hash hash = Hash.of(() -> {
+							return null;
+						}, name);
+						paths = temp.computeIfAbsent(hash, set -> new HashSet<>());
+					}
+					paths.add(Path.of(path));
+				}
+				in.endArray();
+			}
+			in.endObject();
+
+			TreeMultimap<Hash, Path> sorted = TreeMultimap.create(
+				Comparator.comparing(Hash::hash),
+				Ordering.natural()
+			);
+			for (Map.Entry<Hash, Set<Path>> entry : temp.entrySet()) {
+				sorted.putAll(entry.getKey(), entry.getValue());
+			}
+			return sorted;
+		}
+	}
+
+}
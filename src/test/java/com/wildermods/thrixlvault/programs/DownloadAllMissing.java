@@ -2,14 +2,17 @@ package com.wildermods.thrixlvault.programs;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import com.wildermods.thrixlvault.ChrysalisizedVault;
 import com.wildermods.thrixlvault.MassDownloadWeaver;
 import com.wildermods.thrixlvault.Vault;
+import com.wildermods.thrixlvault.VaultVerifier;
 import com.wildermods.thrixlvault.exception.UnknownVersionException;
 import com.wildermods.thrixlvault.exception.VersionParsingException;
 import com.wildermods.thrixlvault.steam.ISteamDownloadable;
+import com.wildermods.thrixlvault.steam.IVaultable;
 import com.wildermods.thrixlvault.utils.OS;
 import com.wildermods.thrixlvault.wildermyth.WildermythManifest;
 
@@ -23,15 +26,11 @@ public class DownloadAllMissing {
 		})
 		.collect(Collectors.toList());
 		
+		VaultVerifier.Report report = new VaultVerifier(new Vault(Vault.DEFAULT_VAULT_DIR)).verify(manifests);
+		Set<IVaultable> failed = report.getFailedVersions();
 		ArrayList<ISteamDownloadable> toDownload = new ArrayList<>();
 		for(ISteamDownloadable manifest : manifests) {
-			try {
-				Vault vault = new Vault(Vault.DEFAULT_VAULT_DIR);
-				ChrysalisizedVault cVault = vault.chrysalisize(manifest);
-				cVault.verifyBlobs();
-			}
-			catch(Throwable t) {
-				t.printStackTrace();
+			if(failed.contains(manifest)) {
 				toDownload.add(manifest);
 			}
 		}
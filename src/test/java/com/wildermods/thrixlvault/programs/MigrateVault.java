@@ -0,0 +1,16 @@
+package com.wildermods.thrixlvault.programs;
+
+import com.wildermods.thrixlvault.ChrysalisMigrator;
+import com.wildermods.thrixlvault.Vault;
+
+public class MigrateVault {
+
+	public static void main(String[] args) throws Throwable {
+		ChrysalisMigrator.Summary summary = new ChrysalisMigrator(Vault.DEFAULT).migrate();
+		summary.getFailures().forEach((file, t) -> {
+			System.err.println("Failed to migrate " + file);
+			t.printStackTrace();
+		});
+	}
+
+}
@@ -4,39 +4,29 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.stream.Collectors;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
 import com.wildermods.masshash.exception.IntegrityException;
-import com.wildermods.thrixlvault.ChrysalisizedVault;
 import com.wildermods.thrixlvault.Vault;
+import com.wildermods.thrixlvault.VaultVerifier;
 import com.wildermods.thrixlvault.steam.IDownloadable;
+import com.wildermods.thrixlvault.steam.IVaultable;
 import com.wildermods.thrixlvault.wildermyth.WildermythManifest;
 
 public class VerifyCurrent {
 
-	private static final Logger LOGGER = LogManager.getLogger();
-	
 	public static void main(String[] args) throws IntegrityException, IOException {
 		Collection<IDownloadable> manifests = WildermythManifest.manifestStream()
 			.filter(WildermythManifest::isPublic)
 			.collect(Collectors.toList());
 		
-		for(IDownloadable manifest : manifests) {
-			try {
-				Vault currentVault = new Vault(Vault.DEFAULT_VAULT_DIR);
-				
-				LOGGER.info("=====================" + manifest + "=====================");
-				ChrysalisizedVault currentManifest = currentVault.chrysalisize(manifest);
-				currentManifest.verifyBlobs();
-				
-
-			}
-			catch(Throwable t) {
-				System.err.println("Error processing manifest " + manifest);
-				t.printStackTrace();
+		try {
+			VaultVerifier.Report report = new VaultVerifier(new Vault(Vault.DEFAULT_VAULT_DIR)).verify(manifests);
+			for(IVaultable version : report.getFailedVersions()) {
+				System.err.println("Error processing manifest " + version);
 			}
 		}
+		catch(Throwable t) {
+			t.printStackTrace();
+		}
 		
 	}
 